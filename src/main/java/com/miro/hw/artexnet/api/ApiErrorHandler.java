@@ -2,6 +2,7 @@ package com.miro.hw.artexnet.api;
 
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import com.miro.hw.artexnet.exception.NotFoundException;
+import com.miro.hw.artexnet.exception.ServiceUnavailableException;
 import com.miro.hw.artexnet.exception.ValidationException;
 import org.springframework.beans.TypeMismatchException;
 import org.springframework.http.HttpHeaders;
@@ -63,6 +64,11 @@ public class ApiErrorHandler extends ResponseEntityExceptionHandler {
         return handleExceptionInternal(ex, ex.getMessage(), HttpHeaders.EMPTY, HttpStatus.NOT_FOUND, request);
     }
 
+    @ExceptionHandler(value = { ServiceUnavailableException.class })
+    protected ResponseEntity<Object> handleServiceUnavailableError(RuntimeException ex, WebRequest request) {
+        return handleExceptionInternal(ex, ex.getMessage(), HttpHeaders.EMPTY, HttpStatus.SERVICE_UNAVAILABLE, request);
+    }
+
     @ExceptionHandler(TransactionSystemException.class)
     protected ResponseEntity<List<String>> handleTransactionException(TransactionSystemException ex) throws Throwable {
         Throwable cause = ex.getCause();
@@ -1,14 +1,24 @@
 package com.miro.hw.artexnet.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.miro.hw.artexnet.api.dto.AreaRequest;
 import com.miro.hw.artexnet.api.dto.PageRequest;
+import com.miro.hw.artexnet.api.dto.WidgetBatchRequest;
 import com.miro.hw.artexnet.common.ErrorCode;
 import com.miro.hw.artexnet.configuration.StorageProviderConfig;
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
 import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
 import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
 import com.miro.hw.artexnet.exception.ValidationException;
+import com.miro.hw.artexnet.feed.WidgetChangeFeed;
 import com.miro.hw.artexnet.storage.WidgetStorage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -16,71 +26,260 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.regex.Pattern;
 
 @RestController
-@RequestMapping(value = "/api/v1/widgets", produces = MediaType.APPLICATION_JSON_VALUE)
+@RequestMapping(value = { "/api/v1/widgets", "/api/v1/boards/{boardId}/widgets" }, produces = MediaType.APPLICATION_JSON_VALUE)
 public class WidgetController {
+    private static final Pattern BOARD_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String NDJSON_VALUE = "application/x-ndjson";
 
     private final WidgetStorage storage;
+    private final WidgetChangeFeed changeFeed;
+
+    // Writer of the streamed widgets (flushed by the buffers, not by every widget)
+    private final ObjectWriter streamWriter;
 
     @Autowired
-    public WidgetController(StorageProviderConfig storageProviderConfig) {
+    public WidgetController(StorageProviderConfig storageProviderConfig, WidgetChangeFeed changeFeed,
+                            ObjectMapper objectMapper) {
         this.storage = storageProviderConfig.getConfiguredStorage();
+        this.changeFeed = changeFeed;
+        this.streamWriter = objectMapper.writerFor(Widget.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
     // region <API>
 
     @PostMapping
-    public ResponseEntity<Widget> createWidget(@RequestBody @Valid Widget widget) {
+    public ResponseEntity<Widget> createWidget(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @RequestBody @Valid Widget widget) {
+
         if (widget.getId() != null) {
             throw new ValidationException("Existing widget provided for insertion", ErrorCode.REQUEST_NOT_VALID);
         }
-        Widget storedWidget = storage.createWidget(widget);
+        Widget storedWidget = storage.createWidget(validateAndGetBoardId(boardId), widget);
         return new ResponseEntity<>(storedWidget, HttpStatus.CREATED);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<WidgetOperationResult>> applyBatch(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @RequestBody @Valid WidgetBatchRequest batchRequest) {
+
+        List<WidgetOperation> operations = validateAndGetOperations(batchRequest);
+        List<WidgetOperationResult> results = storage.applyBatch(validateAndGetBoardId(boardId), operations);
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * Gets the page of widgets. Not modified (304) if the board is not changed since
+     * the provided ETag (no widgets get read).
+     */
     @GetMapping
     public ResponseEntity<WidgetsCollection> getWidgets(
+            @PathVariable(name = "boardId", required = false) String boardId,
             @RequestParam(name = "page", required = false) Integer page,
             @RequestParam(name = "size", required = false) Integer size,
-            AreaRequest areaRequest) {
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "includeTotal", required = false, defaultValue = "true") boolean includeTotal,
+            AreaRequest areaRequest,
+            WebRequest request) {
 
+        String board = validateAndGetBoardId(boardId);
         PageRequest pageRequest = new PageRequest(page, size);
         Area area = validateAndGetArea(areaRequest);
-        WidgetsCollection widgets = storage.getWidgets(pageRequest.getPage(), pageRequest.getSize(), area);
-        return new ResponseEntity<>(widgets, HttpStatus.OK);
+        if (cursor != null && page != null)
+            throw new ValidationException("Page and cursor cannot be combined", ErrorCode.REQUEST_NOT_VALID);
+
+        return storage.readAtVersion(board, version -> {
+            String eTag = toETag(version);
+            if (request.checkNotModified(eTag))
+                return null;
+
+            WidgetsCollection widgets = cursor != null
+                    ? storage.getWidgets(board, PageCursor.decode(cursor), pageRequest.getSize(), area, includeTotal)
+                    : storage.getWidgets(board, pageRequest.getPage(), pageRequest.getSize(), area, includeTotal);
+            return ResponseEntity.ok().eTag(eTag).body(widgets);
+        });
+    }
+
+    /**
+     * Streams all widgets (optionally filtered by the area) in z-index order as newline-delimited JSON,
+     * with no page size limit.
+     */
+    @GetMapping(value = "/stream", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamWidgets(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            AreaRequest areaRequest) {
+
+        String board = validateAndGetBoardId(boardId);
+        Area area = validateAndGetArea(areaRequest);
+        StreamingResponseBody body = output -> {
+            try (JsonGenerator generator = streamWriter.getFactory().createGenerator(output)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                storage.forEachWidget(board, area, widget -> {
+                    try {
+                        streamWriter.writeValue(generator, widget);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Gets the changes made since the board version (the ETag of the board reads), optionally only
+     * the changes visible within the area. Gone (410) if the changes are not available anymore:
+     * the board must be read again, the response tells the version to ask the next changes since.
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<WidgetChanges> getChanges(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @RequestParam(name = "since") long sinceVersion,
+            AreaRequest areaRequest) {
+
+        String board = validateAndGetBoardId(boardId);
+        Area area = validateAndGetArea(areaRequest);
+        WidgetChanges changes = storage.getChanges(board, sinceVersion, area);
+        return new ResponseEntity<>(changes, changes.isResyncRequired() ? HttpStatus.GONE : HttpStatus.OK);
+    }
+
+    /**
+     * Subscribes to the changes of the board (Server-Sent Events), optionally only to the changes visible
+     * within the area. The changes are pushed since the board version (the ETag of the board reads),
+     * or since the last event ID once the client reconnects. The "resync" event ends the stream:
+     * the board must be read again.
+     */
+    @GetMapping(value = "/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeChanges(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @RequestParam(name = "since", required = false) Long sinceVersion,
+            @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId,
+            AreaRequest areaRequest) {
+
+        String board = validateAndGetBoardId(boardId);
+        Area area = validateAndGetArea(areaRequest);
+        return changeFeed.subscribe(board, area, lastEventId != null ? lastEventId : sinceVersion);
     }
 
     @GetMapping("/{widgetId}")
-    public ResponseEntity<Widget> getWidget(@PathVariable("widgetId") long widgetId) {
-        return ResponseEntity.of(storage.getById(widgetId));
+    public ResponseEntity<Widget> getWidget(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @PathVariable("widgetId") long widgetId,
+            WebRequest request) {
+
+        String board = validateAndGetBoardId(boardId);
+        return storage.readAtVersion(board, version -> {
+            String eTag = toETag(version);
+            if (request.checkNotModified(eTag))
+                return null;
+
+            return storage.getById(board, widgetId)
+                    .map(widget -> ResponseEntity.ok().eTag(eTag).body(widget))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        });
     }
 
     @GetMapping("/count")
-    public ResponseEntity<Long> getWidgetsCount() {
-        long count = storage.getWidgetsCount();
-        return new ResponseEntity<>(count, HttpStatus.OK);
+    public ResponseEntity<Long> getWidgetsCount(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            WebRequest request) {
+
+        String board = validateAndGetBoardId(boardId);
+        return storage.readAtVersion(board, version -> {
+            String eTag = toETag(version);
+            if (request.checkNotModified(eTag))
+                return null;
+
+            long count = storage.getWidgetsCount(board);
+            return ResponseEntity.ok().eTag(eTag).body(count);
+        });
     }
 
     @PutMapping("/{widgetId}")
-    public ResponseEntity<Widget> updateWidget(@PathVariable("widgetId") long widgetId, @Valid @RequestBody Widget widget) {
+    public ResponseEntity<Widget> updateWidget(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @PathVariable("widgetId") long widgetId,
+            @Valid @RequestBody Widget widget) {
+
         if (widgetId != widget.getId())
             throw new ValidationException("Widget ID mismatch", ErrorCode.REQUEST_NOT_VALID);
 
-        Widget updatedWidget = storage.updateWidget(widget);
+        Widget updatedWidget = storage.updateWidget(validateAndGetBoardId(boardId), widget);
         return new ResponseEntity<>(updatedWidget, HttpStatus.OK);
     }
 
     @DeleteMapping("/{widgetId}")
-    public ResponseEntity<Void> removeWidget(@PathVariable("widgetId") long widgetId) {
-        storage.deleteById(widgetId);
+    public ResponseEntity<Void> removeWidget(
+            @PathVariable(name = "boardId", required = false) String boardId,
+            @PathVariable("widgetId") long widgetId) {
+
+        storage.deleteById(validateAndGetBoardId(boardId), widgetId);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
     // endregion
 
+    /**
+     * Gets the ETag of the board's widgets, listings and counts: the board version, so any change
+     * of the board outdates all of them. The version is read along with the data (see
+     * {@link WidgetStorage#readAtVersion}), so the ETag is never newer than the returned data.
+     */
+    private static String toETag(long boardVersion) {
+        return "\"" + boardVersion + "\"";
+    }
+
+    private String validateAndGetBoardId(@Nullable String boardId) {
+        if (boardId == null)
+            return WidgetStorage.DEFAULT_BOARD;
+        if (!BOARD_ID_PATTERN.matcher(boardId).matches()) {
+            throw new ValidationException("Board ID is not valid " +
+                    "(up to 64 letters, digits, '_' or '-' characters)", ErrorCode.REQUEST_NOT_VALID);
+        }
+        return boardId;
+    }
+
+    private List<WidgetOperation> validateAndGetOperations(WidgetBatchRequest batchRequest) {
+        final List<WidgetOperation> operations = batchRequest.getOperations();
+        if (operations == null || operations.isEmpty() || operations.size() > WidgetBatchRequest.MAX_OPERATIONS) {
+            throw new ValidationException(String.format("Batch must contain between 1 and %s operations",
+                    WidgetBatchRequest.MAX_OPERATIONS), ErrorCode.REQUEST_NOT_VALID);
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            WidgetOperation operation = operations.get(i);
+            String error = null;
+            if (operation.getType() == WidgetOperation.Type.DELETE) {
+                if (operation.getId() == null)
+                    error = "widget ID is required";
+            } else if (operation.getWidget() == null) {
+                error = "widget is required";
+            } else if (operation.getType() == WidgetOperation.Type.CREATE && operation.getWidget().getId() != null) {
+                error = "existing widget provided for insertion";
+            } else if (operation.getType() == WidgetOperation.Type.UPDATE && operation.getWidget().getId() == null) {
+                error = "widget ID is required";
+            }
+            if (error != null) {
+                throw new ValidationException(String.format("Operation [%s]: %s", i, error),
+                        ErrorCode.REQUEST_NOT_VALID);
+            }
+        }
+        return operations;
+    }
+
     private @Nullable Area validateAndGetArea(AreaRequest areaRequest) {
         if (areaRequest == null)
             return null;
@@ -0,0 +1,20 @@
+package com.miro.hw.artexnet.api.dto;
+
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetBatchRequest {
+    public static final int MAX_OPERATIONS = 1000;
+
+    @Valid
+    private List<WidgetOperation> operations;
+
+}
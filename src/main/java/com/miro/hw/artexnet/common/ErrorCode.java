@@ -3,5 +3,6 @@ package com.miro.hw.artexnet.common;
 public enum ErrorCode {
     REQUEST_NOT_VALID,
     ENTITY_NOT_FOUND,
+    SERVICE_UNAVAILABLE,
     INTERNAL_ERROR
 }
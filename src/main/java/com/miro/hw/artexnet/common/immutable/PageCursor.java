@@ -0,0 +1,44 @@
+package com.miro.hw.artexnet.common.immutable;
+
+import com.miro.hw.artexnet.common.ErrorCode;
+import com.miro.hw.artexnet.exception.ValidationException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset pagination position: the z-index of the last widget seen by the client.
+ * The next page starts right below it (z-indexes are unique), so no rows are skipped on deep pages.
+ */
+@Getter
+@AllArgsConstructor
+public class PageCursor {
+    private static final String PREFIX = "z:";
+
+    private final int zIndex;
+
+    /**
+     * Encodes the cursor into the opaque client token.
+     */
+    public String encode() {
+        byte[] token = (PREFIX + zIndex).getBytes(StandardCharsets.US_ASCII);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * Decodes the cursor from the opaque client token.
+     * @throws ValidationException if the token is not valid.
+     */
+    public static PageCursor decode(String token) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            if (!value.startsWith(PREFIX))
+                throw new IllegalArgumentException();
+            return new PageCursor(Integer.parseInt(value.substring(PREFIX.length())));
+        } catch (IllegalArgumentException ex) {
+            throw new ValidationException("Cursor is not valid", ErrorCode.REQUEST_NOT_VALID);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.miro.hw.artexnet.common.immutable;
+
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class WidgetChanges {
+    // Board version the changes lead to (the version to ask the next changes since)
+    private final long version;
+
+    // Whether the changes since the requested version are not available anymore (the board must be read again)
+    private final boolean resyncRequired;
+
+    // Changes in the order they were applied
+    private final List<WidgetChangeEvent> changes;
+
+    public static WidgetChanges of(long version, List<WidgetChangeEvent> changes) {
+        return new WidgetChanges(version, false, changes);
+    }
+
+    public static WidgetChanges resyncRequired(long version) {
+        return new WidgetChanges(version, true, Collections.emptyList());
+    }
+}
@@ -1,14 +1,51 @@
 package com.miro.hw.artexnet.common.immutable;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.miro.hw.artexnet.domain.Widget;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import org.springframework.lang.Nullable;
 
 import java.util.List;
 
 @Getter
 @AllArgsConstructor
 public class WidgetsCollection {
-    private final long totalCount;
+    // Total count of the matching widgets (missing if not requested)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Long totalCount;
     private final List<Widget> items;
+
+    // Whether more items follow the page
+    private final boolean hasMore;
+
+    // Cursor of the next page (missing for the last page)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String nextCursor;
+
+    /**
+     * Initializes a new instance of the class for the last page.
+     */
+    public WidgetsCollection(long totalCount, List<Widget> items) {
+        this(totalCount, items, false, null);
+    }
+
+    /**
+     * Initializes a new instance of the class, pointing the next page cursor
+     * to the last item if more items are available.
+     */
+    public static WidgetsCollection of(long totalCount, List<Widget> items, boolean hasMore) {
+        return of(Long.valueOf(totalCount), items, hasMore);
+    }
+
+    /**
+     * Initializes a new instance of the class with the optional total count, pointing the next page cursor
+     * to the last item if more items are available.
+     */
+    public static WidgetsCollection of(@Nullable Long totalCount, List<Widget> items, boolean hasMore) {
+        String nextCursor = hasMore && !items.isEmpty()
+                ? new PageCursor(items.get(items.size() - 1).getZ_index()).encode()
+                : null;
+        return new WidgetsCollection(totalCount, items, hasMore, nextCursor);
+    }
 }
@@ -0,0 +1,50 @@
+package com.miro.hw.artexnet.configuration;
+
+import com.miro.hw.artexnet.storage.db.ReadYourWritesWindow;
+import com.miro.hw.artexnet.storage.db.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Primary/replica data sources, used once the replica is configured (storage.database.replica.*).
+ * Read-only transactions go to the replica pool, the rest to the primary one (spring.datasource.*).
+ * The pools are owned by the routing data source, so the primary one is the only data source bean.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "storage.database.replica", name = "jdbc-url")
+public class DataSourceRoutingConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariConfig primaryPoolConfig(DataSourceProperties properties) {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName(properties.determineDriverClassName());
+        config.setJdbcUrl(properties.determineUrl());
+        config.setUsername(properties.determineUsername());
+        config.setPassword(properties.determinePassword());
+        return config;
+    }
+
+    @Bean
+    @ConfigurationProperties("storage.database.replica")
+    public HikariConfig replicaPoolConfig() {
+        return new HikariConfig();
+    }
+
+    @Bean
+    public DataSource dataSource(@Qualifier("primaryPoolConfig") HikariConfig primaryConfig,
+                                 @Qualifier("replicaPoolConfig") HikariConfig replicaConfig,
+                                 ReadYourWritesWindow readYourWrites) {
+        return new ReplicaRoutingDataSource(new HikariDataSource(primaryConfig), new HikariDataSource(replicaConfig),
+                readYourWrites);
+    }
+
+}
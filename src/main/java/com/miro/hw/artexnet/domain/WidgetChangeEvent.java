@@ -0,0 +1,82 @@
+package com.miro.hw.artexnet.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.hw.artexnet.common.immutable.Area;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.With;
+
+/**
+ * Change of the board: the created/updated widget state, the deleted widget ID, or the shift of the widgets
+ * within the z-index range (the implicit shift made room for the created/updated widget).
+ * Events of the same board version apply in order, so the shifts precede the widgets they made room for.
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WidgetChangeEvent {
+
+    public enum Type {
+        @JsonProperty("created") CREATED,
+        @JsonProperty("updated") UPDATED,
+        @JsonProperty("deleted") DELETED,
+        // z-indexes within the range are shifted by the delta (the created/updated widgets excluded)
+        @JsonProperty("shifted") SHIFTED
+    }
+
+    // Board version the change belongs to (assigned once logged)
+    @With
+    private final long version;
+
+    private final Type type;
+
+    // ID of the created/updated/deleted widget
+    private final Long id;
+
+    // Widget state right after the change (created/updated widgets)
+    private final Widget widget;
+
+    // Widget state right before the change (updated/deleted widgets), to match the area the widget left
+    @JsonIgnore
+    private final Widget previous;
+
+    // Inclusive z-index range of the shifted widgets and the shift
+    private final Integer fromZIndex;
+    private final Integer toZIndex;
+    private final Integer delta;
+
+    public static WidgetChangeEvent created(Widget widget) {
+        return new WidgetChangeEvent(0, Type.CREATED, widget.getId(), widget.toBuilder().build(), null,
+                null, null, null);
+    }
+
+    public static WidgetChangeEvent updated(Widget previous, Widget widget) {
+        return new WidgetChangeEvent(0, Type.UPDATED, widget.getId(), widget.toBuilder().build(), previous,
+                null, null, null);
+    }
+
+    public static WidgetChangeEvent deleted(Widget previous) {
+        return new WidgetChangeEvent(0, Type.DELETED, previous.getId(), null, previous, null, null, null);
+    }
+
+    public static WidgetChangeEvent shifted(int fromZIndex, int toZIndex, int delta) {
+        return new WidgetChangeEvent(0, Type.SHIFTED, null, null, null, fromZIndex, toZIndex, delta);
+    }
+
+    /**
+     * Checks whether the change is visible within the area: the widget fits into the area before
+     * or after the change. Shifts are not bound to an area.
+     */
+    public boolean isVisibleIn(Area area) {
+        if (type == Type.SHIFTED)
+            return true;
+        return (widget != null && Widget.fitsInArea(widget, area))
+                || (previous != null && Widget.fitsInArea(previous, area));
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.miro.hw.artexnet.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.miro.hw.artexnet.exception.NotFoundException;
+import lombok.*;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+import static com.miro.hw.artexnet.common.ErrorCode.ENTITY_NOT_FOUND;
+
+/**
+ * Single operation of the widgets batch: creates/updates the provided widget or deletes the widget by ID.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WidgetOperation {
+
+    public enum Type {
+        @JsonProperty("create") CREATE,
+        @JsonProperty("update") UPDATE,
+        @JsonProperty("delete") DELETE
+    }
+
+    @NotNull
+    private Type type;
+
+    // Widget to create/update (the updated widget ID is required)
+    @Valid
+    private Widget widget;
+
+    // ID of the widget to delete
+    private Long id;
+
+    public static WidgetOperation create(Widget widget) {
+        return new WidgetOperation(Type.CREATE, widget, null);
+    }
+
+    public static WidgetOperation update(Widget widget) {
+        return new WidgetOperation(Type.UPDATE, widget, null);
+    }
+
+    public static WidgetOperation delete(long widgetId) {
+        return new WidgetOperation(Type.DELETE, null, widgetId);
+    }
+
+    /**
+     * Gets the ID of the updated/deleted widget (missing for the created ones).
+     */
+    public Long targetId() {
+        if (type == Type.DELETE)
+            return id;
+        return widget == null ? null : widget.getId();
+    }
+
+    /**
+     * Makes sure the widgets updated/deleted by the operations exist when the operation applies
+     * (stored before the batch and not deleted by the preceding operations).
+     * @param stored checks whether the widget is stored before the batch.
+     */
+    public static void validateTargets(List<WidgetOperation> operations, LongPredicate stored) {
+        Set<Long> deleted = new HashSet<>();
+        for (int i = 0; i < operations.size(); i++) {
+            WidgetOperation operation = operations.get(i);
+            if (operation.getType() == Type.CREATE)
+                continue;
+
+            Long widgetId = operation.targetId();
+            if (widgetId == null || !stored.test(widgetId) || deleted.contains(widgetId)) {
+                throw new NotFoundException(String.format("Operation [%s]: widget [%s] not found", i, widgetId),
+                        ENTITY_NOT_FOUND);
+            }
+            if (operation.getType() == Type.DELETE)
+                deleted.add(widgetId);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.miro.hw.artexnet.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Result of the single batch operation. The widget is returned as stored once the whole batch is applied
+ * (missing for the widgets deleted by the batch).
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WidgetOperationResult {
+
+    public enum Status {
+        @JsonProperty("created") CREATED,
+        @JsonProperty("updated") UPDATED,
+        // the update matched the widget state already
+        @JsonProperty("unchanged") UNCHANGED,
+        @JsonProperty("deleted") DELETED
+    }
+
+    private final Status status;
+    private final long id;
+    private final Widget widget;
+
+}
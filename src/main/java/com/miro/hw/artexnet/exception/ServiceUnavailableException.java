@@ -0,0 +1,20 @@
+package com.miro.hw.artexnet.exception;
+
+import com.miro.hw.artexnet.common.ErrorCode;
+
+public class ServiceUnavailableException extends RuntimeException {
+    protected ErrorCode errorCode;
+
+    public ServiceUnavailableException() {
+        super();
+    }
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    public ServiceUnavailableException(String message, ErrorCode errorCode) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+}
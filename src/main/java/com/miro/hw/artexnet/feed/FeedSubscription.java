@@ -0,0 +1,178 @@
+package com.miro.hw.artexnet.feed;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Subscription of a client to the changes of the board within the area. Changes are queued by the feed
+ * and sent by the senders, so a slow client never holds the feed. The queue is bounded: once the client
+ * falls behind, the queued changes are dropped and the client gets the resync message instead
+ * (the subscription ends, the board must be read again).
+ */
+@Slf4j
+final class FeedSubscription {
+    static final String CHANGES_EVENT = "changes";
+    static final String RESYNC_EVENT = "resync";
+
+    private final String boardId;
+    private final Area area;
+    private final SseEmitter emitter;
+    private final Executor senders;
+
+    // Messages waiting for the senders
+    private final ArrayBlockingQueue<SseEmitter.SseEventBuilder> queue;
+
+    // Whether the messages are being sent (at most one sender at a time)
+    private final AtomicBoolean sending;
+
+    // Whether the subscription ends by the resync message, and the version the message tells
+    private volatile boolean resyncRequired;
+    private volatile long resyncVersion;
+    private volatile boolean closed;
+
+    // Version of the latest queued changes (guarded by the board feed)
+    private long version;
+
+    /**
+     * Initializes a new instance of the class.
+     * @param capacity count of the queued messages the client may fall behind by.
+     */
+    FeedSubscription(String boardId, @Nullable Area area, SseEmitter emitter, int capacity, Executor senders) {
+        this.boardId = boardId;
+        this.area = area;
+        this.emitter = emitter;
+        this.senders = senders;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sending = new AtomicBoolean();
+    }
+
+    String getBoardId() {
+        return boardId;
+    }
+
+    @Nullable Area getArea() {
+        return area;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // region <QUEUE>
+
+    /**
+     * Queues the changes leading to the version. Once the queue is full, the queued messages are dropped
+     * in favor of the resync message.
+     */
+    void offer(WidgetChanges changes) {
+        version = changes.getVersion();
+        offer(SseEmitter.event()
+                .name(CHANGES_EVENT)
+                .id(String.valueOf(changes.getVersion()))
+                .data(changes, MediaType.APPLICATION_JSON), changes.getVersion());
+    }
+
+    /**
+     * Queues the keep-alive comment unless some messages are queued already.
+     */
+    void offerHeartbeat() {
+        if (queue.isEmpty())
+            offer(SseEmitter.event().comment("heartbeat"), version);
+    }
+
+    /**
+     * Ends the subscription by the resync message: the changes since the version are not available.
+     */
+    void resync(long version) {
+        if (!resyncRequired) {
+            resyncVersion = version;
+            resyncRequired = true;
+        }
+        queue.clear();
+        schedule();
+    }
+
+    private void offer(SseEmitter.SseEventBuilder message, long version) {
+        if (closed || resyncRequired)
+            return;
+        if (!queue.offer(message)) {
+            resync(version);
+            return;
+        }
+        schedule();
+    }
+
+    // endregion
+
+    // region <SENDING>
+
+    private void schedule() {
+        if (closed || !sending.compareAndSet(false, true))
+            return;
+        try {
+            senders.execute(this::send);
+        } catch (RejectedExecutionException e) {
+            // senders are shut down
+            sending.set(false);
+            close();
+        }
+    }
+
+    /**
+     * Sends the queued messages, or the resync message once required.
+     */
+    private void send() {
+        do {
+            try {
+                SseEmitter.SseEventBuilder message;
+                while (!closed && !resyncRequired && (message = queue.poll()) != null) {
+                    emitter.send(message);
+                }
+                if (!closed && resyncRequired) {
+                    emitter.send(SseEmitter.event()
+                            .name(RESYNC_EVENT)
+                            .data(WidgetChanges.resyncRequired(resyncVersion), MediaType.APPLICATION_JSON));
+                    close();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone (the container reports the error to the emitter)
+                log.debug("Change feed of the board {} is not delivered: {}", boardId, e.getMessage());
+                closed = true;
+            } finally {
+                sending.set(false);
+            }
+        } while (!closed && (resyncRequired || !queue.isEmpty()) && sending.compareAndSet(false, true));
+    }
+
+    /**
+     * Completes the subscription: no more messages are sent.
+     */
+    void close() {
+        if (closed)
+            return;
+        closed = true;
+        queue.clear();
+        try {
+            emitter.complete();
+        } catch (IllegalStateException e) {
+            // already completed
+        }
+    }
+
+    // endregion
+
+}
@@ -0,0 +1,124 @@
+package com.miro.hw.artexnet.feed;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.domain.Widget;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Spatial index of the subscriptions of a board: a uniform grid of cells, every subscription is registered
+ * in the cells its area overlaps. A widget fits into the area only if its center does, so the candidates
+ * are the subscriptions of the cell holding the widget center (no scan of all subscriptions per change).
+ *
+ * Subscriptions of the whole board and of the areas spanning too many cells are kept apart and checked
+ * for every change. Not thread-safe (guarded by the board feed).
+ */
+final class SubscriptionIndex {
+    // Cells of 1024 x 1024 units
+    private static final int CELL_SHIFT = 10;
+    private static final int MAX_CELLS = 64;
+
+    // Subscriptions by cell {cell key/Subscriptions}
+    private final Map<Long, Set<FeedSubscription>> cells;
+
+    // Subscriptions checked for every change (no area or too wide one)
+    private final Set<FeedSubscription> wide;
+
+    private final Set<FeedSubscription> subscriptions;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    SubscriptionIndex() {
+        this.cells = new HashMap<>();
+        this.wide = new HashSet<>();
+        this.subscriptions = new LinkedHashSet<>();
+    }
+
+    void add(FeedSubscription subscription) {
+        if (!subscriptions.add(subscription))
+            return;
+
+        final Area area = subscription.getArea();
+        if (area == null || cellsCount(area) > MAX_CELLS) {
+            wide.add(subscription);
+            return;
+        }
+        forEachCell(area, key -> cells.computeIfAbsent(key, k -> new HashSet<>()).add(subscription));
+    }
+
+    void remove(FeedSubscription subscription) {
+        if (!subscriptions.remove(subscription))
+            return;
+
+        final Area area = subscription.getArea();
+        if (!wide.remove(subscription)) {
+            forEachCell(area, key -> {
+                Set<FeedSubscription> cell = cells.get(key);
+                if (cell != null && cell.remove(subscription) && cell.isEmpty())
+                    cells.remove(key);
+            });
+        }
+    }
+
+    boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Gets all subscriptions (in the subscription order).
+     */
+    Collection<FeedSubscription> getAll() {
+        return Collections.unmodifiableSet(subscriptions);
+    }
+
+    /**
+     * Collects the subscriptions whose area the widget fits into.
+     */
+    void collect(Widget widget, Set<FeedSubscription> matches) {
+        for (FeedSubscription subscription : wide) {
+            if (subscription.getArea() == null || Widget.fitsInArea(widget, subscription.getArea()))
+                matches.add(subscription);
+        }
+
+        Set<FeedSubscription> cell = cells.get(key(widget.getX() >> CELL_SHIFT, widget.getY() >> CELL_SHIFT));
+        if (cell == null)
+            return;
+        for (FeedSubscription subscription : cell) {
+            if (Widget.fitsInArea(widget, subscription.getArea()))
+                matches.add(subscription);
+        }
+    }
+
+    // region <CELLS>
+
+    private static long cellsCount(Area area) {
+        long columns = (area.getRightTop().getXAxis() >> CELL_SHIFT) - (area.getLeftBottom().getXAxis() >> CELL_SHIFT) + 1L;
+        long rows = (area.getRightTop().getYAxis() >> CELL_SHIFT) - (area.getLeftBottom().getYAxis() >> CELL_SHIFT) + 1L;
+        return columns * rows;
+    }
+
+    private static void forEachCell(Area area, LongConsumer action) {
+        final int fromColumn = area.getLeftBottom().getXAxis() >> CELL_SHIFT;
+        final int toColumn = area.getRightTop().getXAxis() >> CELL_SHIFT;
+        final int fromRow = area.getLeftBottom().getYAxis() >> CELL_SHIFT;
+        final int toRow = area.getRightTop().getYAxis() >> CELL_SHIFT;
+        for (int column = fromColumn; column <= toColumn; column++) {
+            for (int row = fromRow; row <= toRow; row++) {
+                action.accept(key(column, row));
+            }
+        }
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    // endregion
+
+}
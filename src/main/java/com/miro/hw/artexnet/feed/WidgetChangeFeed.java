@@ -0,0 +1,345 @@
+package com.miro.hw.artexnet.feed;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
+import com.miro.hw.artexnet.configuration.StorageProviderConfig;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import com.miro.hw.artexnet.storage.WidgetStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the board changes to the subscribed clients (Server-Sent Events) instead of the clients polling
+ * the widgets. The storage notifies the feed of the committed board versions, so the dispatcher reads
+ * the change log of the changed boards only (one read per board, regardless of the count of subscribers)
+ * and fans the changes out through the spatial index of the subscriptions, so every client gets only
+ * the changes visible within its area. The versions committed elsewhere (by other instances sharing
+ * the database) are not notified: they get caught by the periodic sweep reading the versions
+ * of all subscribed boards at once.
+ *
+ * Every message carries the changes of a single board version and the version as its event ID,
+ * so the reconnected client continues from the last version it got (the Last-Event-ID header).
+ * Once the changes are not available (the log got ahead of the board feed or of the client),
+ * the client gets the resync message and the subscription ends: the client reads the board again
+ * and subscribes since the read version (the ETag of the read).
+ */
+@Slf4j
+@Service
+public class WidgetChangeFeed {
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final WidgetStorage storage;
+    private final Duration pollInterval;
+    private final int queueCapacity;
+    private final long heartbeatIntervalNanos;
+    private final long sweepIntervalNanos;
+    private final long timeoutMillis;
+
+    // Subscriptions per board {board ID/BoardFeed}
+    private final ConcurrentHashMap<String, BoardFeed> boards;
+
+    // Subscribed boards changed since the previous dispatch
+    private final Set<String> changedBoards;
+
+    private final ScheduledExecutorService dispatcher;
+    private final Executor senders;
+
+    // Last heartbeat and sweep times (dispatcher only)
+    private long lastHeartbeat;
+    private long lastSweep;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    @Autowired
+    public WidgetChangeFeed(StorageProviderConfig storageProviderConfig,
+                            @Value("${feed.pollInterval:100ms}") Duration pollInterval,
+                            @Value("${feed.queueCapacity:64}") int queueCapacity,
+                            @Value("${feed.heartbeatInterval:15s}") Duration heartbeatInterval,
+                            @Value("${feed.sweepInterval:5s}") Duration sweepInterval,
+                            @Value("${feed.timeout:30m}") Duration timeout,
+                            @Value("${feed.senderThreads:4}") int senderThreads) {
+        this(storageProviderConfig.getConfiguredStorage(), pollInterval, queueCapacity, heartbeatInterval,
+                sweepInterval, timeout, Executors.newFixedThreadPool(senderThreads,
+                        newThreadFactory("widget-feed-sender-")));
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified senders of the messages.
+     */
+    public WidgetChangeFeed(WidgetStorage storage, Duration pollInterval, int queueCapacity,
+                            Duration heartbeatInterval, Duration sweepInterval, Duration timeout,
+                            Executor senders) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("Feed queue capacity must be positive");
+
+        this.storage = storage;
+        this.pollInterval = pollInterval;
+        this.queueCapacity = queueCapacity;
+        this.heartbeatIntervalNanos = heartbeatInterval.toNanos();
+        this.sweepIntervalNanos = sweepInterval.toNanos();
+        this.timeoutMillis = timeout.toMillis();
+        this.boards = new ConcurrentHashMap<>();
+        this.changedBoards = ConcurrentHashMap.newKeySet();
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(newThreadFactory("widget-feed-dispatcher"));
+        this.senders = senders;
+        this.lastHeartbeat = System.nanoTime();
+        this.lastSweep = lastHeartbeat;
+        storage.addVersionListener(this::boardChanged);
+    }
+
+    /**
+     * Starts dispatching the changes.
+     */
+    @PostConstruct
+    public void start() {
+        final long intervalMillis = pollInterval.toMillis();
+        dispatcher.scheduleWithFixedDelay(this::dispatchSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops dispatching the changes and completes the subscriptions.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        dispatcher.shutdownNow();
+        for (BoardFeed feed : boards.values()) {
+            synchronized (feed) {
+                feed.subscriptions.getAll().forEach(FeedSubscription::close);
+            }
+        }
+        if (senders instanceof ExecutorService) {
+            ExecutorService executor = (ExecutorService) senders;
+            executor.shutdown();
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+                log.warn("Change feed senders did not stop in {}", SHUTDOWN_TIMEOUT);
+        }
+    }
+
+    // region <SUBSCRIPTIONS>
+
+    /**
+     * Subscribes to the changes of the board, optionally only to the changes visible within the area.
+     * The first message carries the changes since the version (none if the version is missing).
+     *
+     * @param sinceVersion *optional: board version the client has read (the ETag of the read)
+     */
+    public SseEmitter subscribe(String boardId, @Nullable Area area, @Nullable Long sinceVersion) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        subscribe(boardId, area, sinceVersion, emitter);
+        return emitter;
+    }
+
+    void subscribe(String boardId, @Nullable Area area, @Nullable Long sinceVersion, SseEmitter emitter) {
+        FeedSubscription subscription = new FeedSubscription(boardId, area, emitter, queueCapacity, senders);
+        emitter.onCompletion(() -> unsubscribe(subscription));
+        emitter.onTimeout(() -> unsubscribe(subscription));
+        emitter.onError(e -> unsubscribe(subscription));
+
+        while (true) {
+            BoardFeed feed = boards.computeIfAbsent(boardId, id -> new BoardFeed(id, storage.getBoardVersion(id)));
+            synchronized (feed) {
+                // the feed got dropped meanwhile (the last subscription ended)
+                if (feed.closed)
+                    continue;
+
+                // the changes the feed is yet to dispatch get skipped by the subscription (already sent)
+                WidgetChanges changes = sinceVersion != null
+                        ? storage.getChanges(boardId, sinceVersion, area)
+                        : WidgetChanges.of(feed.version, Collections.emptyList());
+                if (changes.isResyncRequired()) {
+                    subscription.resync(changes.getVersion());
+                    return;
+                }
+                subscription.offer(changes);
+                feed.subscriptions.add(subscription);
+
+                // the versions committed while the feed got created are not notified
+                changedBoards.add(boardId);
+                return;
+            }
+        }
+    }
+
+    private void unsubscribe(FeedSubscription subscription) {
+        subscription.close();
+        BoardFeed feed = boards.get(subscription.getBoardId());
+        if (feed != null) {
+            synchronized (feed) {
+                feed.subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Gets the count of the subscriptions to the board.
+     */
+    public int getSubscriptionsCount(String boardId) {
+        BoardFeed feed = boards.get(boardId);
+        if (feed == null)
+            return 0;
+        synchronized (feed) {
+            return feed.subscriptions.size();
+        }
+    }
+
+    // endregion
+
+    // region <DISPATCHING>
+
+    private void dispatchSafely() {
+        try {
+            dispatch();
+        } catch (RuntimeException e) {
+            log.error("Change feed dispatch failed", e);
+        }
+    }
+
+    private void boardChanged(String boardId, long version) {
+        if (boards.containsKey(boardId))
+            changedBoards.add(boardId);
+    }
+
+    /**
+     * Dispatches the changes made since the previous dispatch to the subscriptions.
+     */
+    void dispatch() {
+        final long now = System.nanoTime();
+        final boolean heartbeat = now - lastHeartbeat >= heartbeatIntervalNanos;
+        if (heartbeat)
+            lastHeartbeat = now;
+        if (now - lastSweep >= sweepIntervalNanos) {
+            lastSweep = now;
+            sweep();
+        }
+
+        for (BoardFeed feed : boards.values()) {
+            try {
+                // taken before the read, so a version committed meanwhile gets read by the next dispatch
+                final boolean changed = changedBoards.remove(feed.boardId);
+                dispatch(feed, changed, heartbeat);
+            } catch (RuntimeException e) {
+                log.warn("Change feed dispatch of the board {} failed", feed.boardId, e);
+            }
+        }
+    }
+
+    /**
+     * Marks the subscribed boards whose version is ahead of the dispatched one as changed.
+     */
+    private void sweep() {
+        if (boards.isEmpty())
+            return;
+
+        storage.getBoardVersions(boards.keySet()).forEach((boardId, version) -> {
+            BoardFeed feed = boards.get(boardId);
+            if (feed != null && version > feed.version)
+                changedBoards.add(boardId);
+        });
+    }
+
+    private void dispatch(BoardFeed feed, boolean changed, boolean heartbeat) {
+        synchronized (feed) {
+            for (FeedSubscription subscription : new ArrayList<>(feed.subscriptions.getAll())) {
+                if (subscription.isClosed())
+                    feed.subscriptions.remove(subscription);
+            }
+            if (feed.subscriptions.isEmpty()) {
+                feed.closed = true;
+                boards.remove(feed.boardId, feed);
+                changedBoards.remove(feed.boardId);
+                return;
+            }
+
+            if (changed) {
+                WidgetChanges changes = storage.getChanges(feed.boardId, feed.version, null);
+                if (changes.isResyncRequired()) {
+                    for (FeedSubscription subscription : new ArrayList<>(feed.subscriptions.getAll())) {
+                        subscription.resync(changes.getVersion());
+                        feed.subscriptions.remove(subscription);
+                    }
+                } else {
+                    fanOut(feed, changes.getChanges());
+                }
+                feed.version = changes.getVersion();
+            }
+
+            if (heartbeat)
+                feed.subscriptions.getAll().forEach(FeedSubscription::offerHeartbeat);
+        }
+    }
+
+    /**
+     * Queues the changes of every version to the subscriptions the changes are visible to.
+     */
+    private static void fanOut(BoardFeed feed, List<WidgetChangeEvent> events) {
+        Map<FeedSubscription, List<WidgetChangeEvent>> deliveries = new LinkedHashMap<>();
+        Set<FeedSubscription> matches = new HashSet<>();
+        for (int i = 0; i < events.size(); i++) {
+            WidgetChangeEvent event = events.get(i);
+            if (event.getType() == WidgetChangeEvent.Type.SHIFTED) {
+                matches.addAll(feed.subscriptions.getAll());
+            } else {
+                if (event.getWidget() != null)
+                    feed.subscriptions.collect(event.getWidget(), matches);
+                if (event.getPrevious() != null)
+                    feed.subscriptions.collect(event.getPrevious(), matches);
+            }
+            for (FeedSubscription subscription : matches) {
+                if (event.getVersion() > subscription.getVersion())
+                    deliveries.computeIfAbsent(subscription, s -> new ArrayList<>()).add(event);
+            }
+            matches.clear();
+
+            // the version is complete: a message per subscription
+            if (i + 1 == events.size() || events.get(i + 1).getVersion() != event.getVersion()) {
+                deliveries.forEach((subscription, changes) ->
+                        subscription.offer(WidgetChanges.of(event.getVersion(), changes)));
+                deliveries.clear();
+            }
+        }
+    }
+
+    // endregion
+
+    private static ThreadFactory newThreadFactory(String name) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name.endsWith("-") ? name + threadNumber.incrementAndGet() : name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Subscriptions of the board and the board version dispatched to them.
+     */
+    private static final class BoardFeed {
+        private final String boardId;
+        private final SubscriptionIndex subscriptions;
+
+        // Version of the changes dispatched (written under the feed lock, read by the sweep)
+        private volatile long version;
+
+        // Whether the feed got dropped from the boards (guarded by the feed)
+        private boolean closed;
+
+        BoardFeed(String boardId, long version) {
+            this.boardId = boardId;
+            this.version = version;
+            this.subscriptions = new SubscriptionIndex();
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.miro.hw.artexnet.storage;
+
+/**
+ * Listener of the board versions committed by the storage. Called once the changes of the version
+ * are available to {@link WidgetStorage#getChanges} (possibly while the board is still locked),
+ * so listeners must be quick and must not call the storage back.
+ */
+@FunctionalInterface
+public interface BoardVersionListener {
+
+    void boardChanged(String boardId, long version);
+
+}
@@ -2,5 +2,6 @@ package com.miro.hw.artexnet.storage;
 
 public enum StorageType {
     LOCAL,
-    DATABASE
+    DATABASE,
+    HYBRID
 }
@@ -0,0 +1,18 @@
+package com.miro.hw.artexnet.storage;
+
+import com.miro.hw.artexnet.domain.Widget;
+
+/**
+ * Listener of the widgets changes. Changes of a board are reported in the order they are applied
+ * (while the board is still locked), so listeners must be quick and must not call the storage back.
+ * Z-index shifts of the other widgets are implied by the reported change.
+ */
+public interface WidgetChangeListener {
+
+    void widgetCreated(String boardId, Widget widget);
+
+    void widgetUpdated(String boardId, Widget widget);
+
+    void widgetDeleted(String boardId, long widgetId);
+
+}
@@ -0,0 +1,212 @@
+package com.miro.hw.artexnet.storage;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded in-memory log of the changes of a single version sequence (shared by the boards),
+ * kept as a ring buffer of commits ordered by version. Every commit bumps the sequence by one,
+ * so the changes since the version are complete only if all the following commits are logged:
+ * once they are dropped (the log is full) or not seen by the log at all, readers have to resync.
+ *
+ * Thread-safe: readers run concurrently, writers only append.
+ */
+public final class WidgetChangeLog {
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    // Count of the retained events (every commit counts at least once, the latest commit is always kept)
+    private final int capacity;
+
+    private final ReentrantReadWriteLock lock;
+
+    // Ring of commits ordered by version (guarded by the lock)
+    private final Commit[] commits;
+    private int head;
+    private int size;
+    private int weight;
+
+    // Version of the latest commit (guarded by the lock)
+    private long lastVersion;
+
+    /**
+     * Initializes a new instance of the class.
+     * @param initialVersion version of the sequence before the first commit.
+     */
+    public WidgetChangeLog(int capacity, long initialVersion) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Change log capacity must be positive");
+
+        this.capacity = capacity;
+        this.lock = new ReentrantReadWriteLock();
+        this.commits = new Commit[capacity];
+        this.lastVersion = initialVersion;
+    }
+
+    /**
+     * Appends the changes of the board under the next version of the sequence.
+     * @return the version of the changes.
+     */
+    public long append(String boardId, List<WidgetChangeEvent> events) {
+        lock.writeLock().lock();
+        try {
+            final long version = lastVersion + 1;
+            add(new Commit(boardId, version, stamp(events, version), false));
+            return version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the changes of the board committed under the version. Commits of the sequence must be appended
+     * in order; the commits of the same or greater version appended earlier are replaced (never committed).
+     */
+    public void append(String boardId, long version, List<WidgetChangeEvent> events) {
+        lock.writeLock().lock();
+        try {
+            add(new Commit(boardId, version, stamp(events, version), false));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the reset of the board under the next version of the sequence: the board got replaced as a whole,
+     * so the changes across the reset are not available.
+     * @return the version of the reset.
+     */
+    public long appendReset(String boardId) {
+        lock.writeLock().lock();
+        try {
+            final long version = lastVersion + 1;
+            add(new Commit(boardId, version, Collections.emptyList(), true));
+            return version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the changes of the board made after the version, up to the specified one (inclusive).
+     *
+     * @param area *optional: only the changes of the widgets fitting into the area (before or after the change)
+     * @return the changes in order, missing if some of them are not logged (the board must be read again).
+     */
+    public Optional<List<WidgetChangeEvent>> getChanges(String boardId, long sinceVersion, long untilVersion,
+                                                        @Nullable Area area) {
+        if (sinceVersion > untilVersion)
+            return Optional.empty();
+
+        List<WidgetChangeEvent> changes = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            long expected = sinceVersion + 1;
+            for (int i = indexAfter(sinceVersion); i < size && expected <= untilVersion; i++, expected++) {
+                Commit commit = get(i);
+                if (commit.version != expected)
+                    return Optional.empty();
+                if (!commit.boardId.equals(boardId))
+                    continue;
+                if (commit.reset)
+                    return Optional.empty();
+
+                for (WidgetChangeEvent event : commit.events) {
+                    if (area == null || event.isVisibleIn(area))
+                        changes.add(event);
+                }
+            }
+            return expected > untilVersion ? Optional.of(changes) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // region <RING>
+
+    private void add(Commit commit) {
+        // replace the commits never committed
+        while (size > 0 && get(size - 1).version >= commit.version) {
+            removeLast();
+        }
+        while (size > 0 && (size == commits.length || weight + commit.weight() > capacity)) {
+            removeFirst();
+        }
+        commits[(head + size) % commits.length] = commit;
+        size++;
+        weight += commit.weight();
+        lastVersion = commit.version;
+    }
+
+    private Commit get(int index) {
+        return commits[(head + index) % commits.length];
+    }
+
+    private void removeFirst() {
+        weight -= commits[head].weight();
+        commits[head] = null;
+        head = (head + 1) % commits.length;
+        size--;
+    }
+
+    private void removeLast() {
+        final int index = (head + size - 1) % commits.length;
+        weight -= commits[index].weight();
+        commits[index] = null;
+        size--;
+    }
+
+    /**
+     * Gets the index of the first commit after the version (binary search).
+     */
+    private int indexAfter(long version) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (get(middle).version <= version)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private static List<WidgetChangeEvent> stamp(List<WidgetChangeEvent> events, long version) {
+        List<WidgetChangeEvent> stamped = new ArrayList<>(events.size());
+        for (WidgetChangeEvent event : events) {
+            stamped.add(event.withVersion(version));
+        }
+        return stamped;
+    }
+
+    // endregion
+
+    /**
+     * Changes of the board committed under the same version.
+     */
+    private static final class Commit {
+        private final String boardId;
+        private final long version;
+        private final List<WidgetChangeEvent> events;
+        private final boolean reset;
+
+        Commit(String boardId, long version, List<WidgetChangeEvent> events, boolean reset) {
+            this.boardId = boardId;
+            this.version = version;
+            this.events = events;
+            this.reset = reset;
+        }
+
+        int weight() {
+            return Math.max(1, events.size());
+        }
+    }
+
+}
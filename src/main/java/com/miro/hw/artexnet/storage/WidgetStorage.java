@@ -1,18 +1,37 @@
 package com.miro.hw.artexnet.storage;
 
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
 import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
 import org.springframework.lang.Nullable;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
+/**
+ * Widgets storage partitioned by boards. Every board has its own z-index space,
+ * widget IDs are unique across boards.
+ */
 public interface WidgetStorage extends Storage {
 
+    /**
+     * Board the board-agnostic API operates on.
+     */
+    String DEFAULT_BOARD = "default";
+
     /**
      * Creates/stores a new widget.
      */
-    Widget createWidget(Widget widget);
+    Widget createWidget(String boardId, Widget widget);
 
     /**
      * Gets specified paged result of widgets list. The result list can be optionally filtered
@@ -21,34 +40,164 @@ public interface WidgetStorage extends Storage {
      * @param page the requested page (0-based)
      * @param size items count per page
      * @param area *optional: specifies area filter for widgets
+     * @param includeTotal whether the total count is required (skipped otherwise)
      * @return the list of widgets.
      */
-    WidgetsCollection getWidgets(int page, int size, @Nullable Area area);
+    WidgetsCollection getWidgets(String boardId, int page, int size, @Nullable Area area, boolean includeTotal);
+
+    /**
+     * Gets the page of widgets following the specified cursor (keyset pagination).
+     * The cost of the page does not depend on its position in the list.
+     *
+     * @param cursor *optional: position of the last seen widget (the first page if missing)
+     * @param size items count per page
+     * @param area *optional: specifies area filter for widgets
+     * @param includeTotal whether the total count is required (skipped otherwise)
+     * @return the list of widgets with the next page cursor.
+     */
+    WidgetsCollection getWidgets(String boardId, @Nullable PageCursor cursor, int size, @Nullable Area area,
+                                 boolean includeTotal);
+
+    /**
+     * Passes all widgets (optionally filtered by the area) to the action in z-index order (descending),
+     * without collecting them: the memory used does not depend on the board size.
+     *
+     * @param area *optional: specifies area filter for widgets
+     */
+    void forEachWidget(String boardId, @Nullable Area area, Consumer<Widget> action);
 
     /**
      * Gets the widget by specified ID.
      */
-    Optional<Widget> getById(long widgetId);
+    Optional<Widget> getById(String boardId, long widgetId);
 
     /**
      * Gets the total count of stored widgets.
      */
-    long getWidgetsCount();
+    long getWidgetsCount(String boardId);
 
     /**
      * Gets the count of stored widgets filtered by inclusive area.
      */
-    long getWidgetsCount(Area area);
+    long getWidgetsCount(String boardId, Area area);
+
+    /**
+     * Gets the modification version of the board: it grows with every change of the board
+     * (so it only tells whether the board is changed, not how much). Cheap, reads no widgets.
+     */
+    long getBoardVersion(String boardId);
+
+    /**
+     * Gets the changes of the board made after the specified version (up to the current one),
+     * kept by the bounded in-memory log. If the changes are not available anymore, the result
+     * requires the resync: the board must be read again.
+     *
+     * @param sinceVersion board version the client is in sync with
+     * @param area *optional: only the changes of the widgets fitting into the area (before or after the change)
+     */
+    WidgetChanges getChanges(String boardId, long sinceVersion, @Nullable Area area);
+
+    /**
+     * Runs the reader of the board, passing it the board version read right before: the version
+     * is never newer than the data the reader gets (e.g. to tag the read by the version).
+     */
+    default <T> T readAtVersion(String boardId, LongFunction<T> reader) {
+        return reader.apply(getBoardVersion(boardId));
+    }
+
+    /**
+     * Gets the versions of the boards {board ID/version}, by a single read where the storage allows it.
+     */
+    default Map<String, Long> getBoardVersions(Collection<String> boardIds) {
+        Map<String, Long> versions = new HashMap<>();
+        for (String boardId : boardIds) {
+            versions.put(boardId, getBoardVersion(boardId));
+        }
+        return versions;
+    }
+
+    /**
+     * Registers the listener of the board versions committed by this instance (the versions committed
+     * elsewhere are not reported).
+     */
+    void addVersionListener(BoardVersionListener listener);
 
     /**
      * Check/Applies provided updates to the specified widget.
      * @return updates widget.
      */
-    Widget updateWidget(Widget widget);
+    Widget updateWidget(String boardId, Widget widget);
 
     /**
      * Deleted the widget by te specified ID.
      */
-    void deleteById(long widgetId);
+    void deleteById(String boardId, long widgetId);
+
+    /**
+     * Applies the operations in order (every operation sees the changes of the preceding ones) and atomically:
+     * if any operation fails, none gets applied. Updates matching the widget state are reported as unchanged.
+     * @return results of the operations, in the same order.
+     */
+    List<WidgetOperationResult> applyBatch(String boardId, List<WidgetOperation> operations);
+
+    default WidgetsCollection getWidgets(String boardId, int page, int size, @Nullable Area area) {
+        return getWidgets(boardId, page, size, area, true);
+    }
+
+    default WidgetsCollection getWidgets(String boardId, @Nullable PageCursor cursor, int size, @Nullable Area area) {
+        return getWidgets(boardId, cursor, size, area, true);
+    }
+
+    // region <DEFAULT BOARD>
+
+    default Widget createWidget(Widget widget) {
+        return createWidget(DEFAULT_BOARD, widget);
+    }
+
+    default WidgetsCollection getWidgets(int page, int size, @Nullable Area area) {
+        return getWidgets(DEFAULT_BOARD, page, size, area);
+    }
+
+    default WidgetsCollection getWidgets(@Nullable PageCursor cursor, int size, @Nullable Area area) {
+        return getWidgets(DEFAULT_BOARD, cursor, size, area);
+    }
+
+    default void forEachWidget(@Nullable Area area, Consumer<Widget> action) {
+        forEachWidget(DEFAULT_BOARD, area, action);
+    }
+
+    default Optional<Widget> getById(long widgetId) {
+        return getById(DEFAULT_BOARD, widgetId);
+    }
+
+    default long getWidgetsCount() {
+        return getWidgetsCount(DEFAULT_BOARD);
+    }
+
+    default long getWidgetsCount(Area area) {
+        return getWidgetsCount(DEFAULT_BOARD, area);
+    }
+
+    default long getBoardVersion() {
+        return getBoardVersion(DEFAULT_BOARD);
+    }
+
+    default WidgetChanges getChanges(long sinceVersion, @Nullable Area area) {
+        return getChanges(DEFAULT_BOARD, sinceVersion, area);
+    }
+
+    default Widget updateWidget(Widget widget) {
+        return updateWidget(DEFAULT_BOARD, widget);
+    }
+
+    default void deleteById(long widgetId) {
+        deleteById(DEFAULT_BOARD, widgetId);
+    }
+
+    default List<WidgetOperationResult> applyBatch(List<WidgetOperation> operations) {
+        return applyBatch(DEFAULT_BOARD, operations);
+    }
+
+    // endregion
 
 }
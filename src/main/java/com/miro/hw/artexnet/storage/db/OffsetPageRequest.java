@@ -0,0 +1,67 @@
+package com.miro.hw.artexnet.storage.db;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Unsorted page request by the row offset, not necessarily aligned to the page size
+ * (e.g. to fetch an extra row telling whether the next page exists).
+ */
+final class OffsetPageRequest implements Pageable {
+    private final long offset;
+    private final int limit;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    OffsetPageRequest(long offset, int limit) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Offset must not be negative");
+        if (limit < 1)
+            throw new IllegalArgumentException("Limit must be positive");
+
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    @Override
+    public int getPageNumber() {
+        return (int) (offset / limit);
+    }
+
+    @Override
+    public int getPageSize() {
+        return limit;
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public Sort getSort() {
+        return Sort.unsorted();
+    }
+
+    @Override
+    public Pageable next() {
+        return new OffsetPageRequest(offset + limit, limit);
+    }
+
+    @Override
+    public Pageable previousOrFirst() {
+        return hasPrevious() ? new OffsetPageRequest(Math.max(offset - limit, 0), limit) : first();
+    }
+
+    @Override
+    public Pageable first() {
+        return new OffsetPageRequest(0, limit);
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return offset > 0;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.miro.hw.artexnet.storage.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Tracks the boards written recently, so the reads of those boards are routed to the primary database
+ * (not to the replica, which might lag behind) for the configured time after the write.
+ * Clients read their own writes, while the caches never get loaded from the stale replica rows.
+ *
+ * Readers declare the board they read by {@link #read(String, Supplier)}, the declaration holds for the thread.
+ */
+@Component
+public class ReadYourWritesWindow {
+    private static final int PURGE_THRESHOLD = 10000;
+
+    private final long windowNanos;
+
+    // Last writes {Board ID/nano time}
+    private final ConcurrentHashMap<String, Long> lastWrites;
+
+    // Board being read by the thread (PRIMARY_READ forces the primary)
+    private final ThreadLocal<String> currentBoard;
+    private static final String PRIMARY_READ = "";
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    @Autowired
+    public ReadYourWritesWindow(@Value("${storage.database.readYourWritesWindow:5s}") Duration window) {
+        this.windowNanos = window.toNanos();
+        this.lastWrites = new ConcurrentHashMap<>();
+        this.currentBoard = new ThreadLocal<>();
+    }
+
+    /**
+     * Records the write of the board (must be called once the write is committed).
+     */
+    public void recordWrite(String boardId) {
+        if (windowNanos == 0)
+            return;
+
+        final long now = System.nanoTime();
+        lastWrites.put(boardId, now);
+        if (lastWrites.size() > PURGE_THRESHOLD)
+            lastWrites.values().removeIf(writtenAt -> now - writtenAt > windowNanos);
+    }
+
+    /**
+     * Runs the reader on behalf of the board.
+     */
+    public <T> T read(String boardId, Supplier<T> reader) {
+        final String previous = currentBoard.get();
+        currentBoard.set(boardId);
+        try {
+            return reader.get();
+        } finally {
+            currentBoard.set(previous);
+        }
+    }
+
+    /**
+     * Runs the reader against the primary database regardless of the writes (e.g. when loading
+     * the data the writes are based on).
+     */
+    public <T> T readPrimary(Supplier<T> reader) {
+        return read(PRIMARY_READ, reader);
+    }
+
+    /**
+     * Gets whether the reads of the current thread must go to the primary database.
+     */
+    public boolean isActive() {
+        final String boardId = currentBoard.get();
+        if (boardId == null)
+            return false;
+        if (boardId.equals(PRIMARY_READ))
+            return true;
+
+        final Long writtenAt = lastWrites.get(boardId);
+        return writtenAt != null && System.nanoTime() - writtenAt <= windowNanos;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.miro.hw.artexnet.storage.db;
+
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Routes the read-only transactions to the replica database and the rest to the primary one.
+ * Reads of the boards written within the {@link ReadYourWritesWindow} go to the primary as well.
+ *
+ * Connections are fetched lazily (on the first statement), as the transaction's read-only flag
+ * is not known yet when the transaction begins.
+ */
+public final class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    enum Route { PRIMARY, REPLICA }
+
+    private final DataSource primary;
+    private final DataSource replica;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReadYourWritesWindow readYourWrites) {
+        this.primary = primary;
+        this.replica = replica;
+
+        Router router = new Router(readYourWrites);
+        router.setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Closes the pools of the primary and replica databases.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (replica instanceof Closeable)
+                ((Closeable) replica).close();
+        } finally {
+            if (primary instanceof Closeable)
+                ((Closeable) primary).close();
+        }
+    }
+
+    private static final class Router extends AbstractRoutingDataSource {
+        private final ReadYourWritesWindow readYourWrites;
+
+        Router(ReadYourWritesWindow readYourWrites) {
+            this.readYourWrites = readYourWrites;
+        }
+
+        @Override
+        protected Object determineCurrentLookupKey() {
+            if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || readYourWrites.isActive())
+                return Route.PRIMARY;
+            return Route.REPLICA;
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Board arrangement after the batch of operations, simulated in memory, so the batch gets written
+ * by a fixed count of statements instead of the shift statements per operation: all moved rows
+ * (the shifted runs and the updated widgets) get their final z-indexes at once.
+ *
+ * Only the z-index window touched by the batch gets loaded: rows are shifted up to the first gap,
+ * so the rows out of the window keep their z-indexes.
+ *
+ * The target widgets must be validated before (see {@link WidgetOperation#validateTargets}).
+ */
+final class WidgetBatchPlan {
+    private static final int LOAD_CHUNK = 1000;
+
+    /**
+     * Stored rows of the board (read in the transaction holding the board z-index lock).
+     */
+    interface Rows {
+        /**
+         * Gets the widgets within the inclusive z-index range, ordered by z-index.
+         */
+        List<Widget> load(int fromZIndex, int toZIndex);
+
+        /**
+         * Gets up to the limit of widgets right below the z-index, ordered by z-index descending.
+         */
+        List<Widget> loadBelow(int zIndex, int limit);
+
+        /**
+         * Gets the top z-index (missing for the empty board).
+         */
+        Integer topZIndex();
+    }
+
+    private final Rows rows;
+
+    // Widgets updated/deleted by the batch as stored {ID/Widget}
+    private final Map<Long, Widget> stored;
+
+    // Modification date of the moved/updated widgets
+    private final LocalDateTime dateModified;
+
+    // Positions within the loaded window {z-index/Position}
+    private final TreeMap<Integer, Position> positions;
+    private final Map<Long, Position> positionsById;
+
+    // Stored widgets whose rows are not in place anymore (updated or deleted by the batch)
+    private final Set<Long> detached;
+
+    // Top z-index of the stored rows (read once required)
+    private boolean storedTopLoaded;
+    private Integer storedTop;
+
+    // Stored rows of the z-indexes within [windowStart, windowEnd) are loaded
+    private boolean windowLoaded;
+    private long windowStart;
+    private long windowEnd;
+
+    private final List<WidgetOperationResult.Status> statuses;
+    private final List<Position> created;
+    private final Set<Long> updated;
+    private final Set<Long> deleted;
+
+    /**
+     * Initializes a new instance of the class.
+     * @param stored widgets updated/deleted by the batch as stored {ID/Widget}.
+     */
+    WidgetBatchPlan(Rows rows, Map<Long, Widget> stored, LocalDateTime dateModified) {
+        this.rows = rows;
+        this.stored = stored;
+        this.dateModified = dateModified;
+        this.positions = new TreeMap<>();
+        this.positionsById = new HashMap<>();
+        this.detached = new HashSet<>();
+        this.statuses = new ArrayList<>();
+        this.created = new ArrayList<>();
+        this.updated = new LinkedHashSet<>();
+        this.deleted = new LinkedHashSet<>();
+    }
+
+    /**
+     * Simulates the operations in order.
+     */
+    WidgetBatchPlan apply(List<WidgetOperation> operations) {
+        for (WidgetOperation operation : operations) {
+            switch (operation.getType()) {
+                case CREATE:
+                    Position position = new Position(0, null, operation.getWidget().toBuilder().build());
+                    place(position, zIndexOrTop(operation.getWidget()));
+                    created.add(position);
+                    statuses.add(WidgetOperationResult.Status.CREATED);
+                    break;
+
+                case UPDATE:
+                    statuses.add(update(operation.getWidget()));
+                    break;
+
+                default:
+                    release(operation.getId());
+                    updated.remove(operation.getId());
+                    deleted.add(operation.getId());
+                    statuses.add(WidgetOperationResult.Status.DELETED);
+            }
+        }
+        return this;
+    }
+
+    // region <RESULTS>
+
+    List<WidgetOperationResult.Status> getStatuses() {
+        return statuses;
+    }
+
+    /**
+     * Gets the created widgets (in the operations order) at the final z-indexes.
+     */
+    List<Widget> getCreatedWidgets() {
+        List<Widget> widgets = new ArrayList<>(created.size());
+        for (Position position : created) {
+            widgets.add(position.getWidget());
+        }
+        return widgets;
+    }
+
+    /**
+     * Gets the updated widgets at the final z-indexes {ID/Widget}.
+     */
+    Map<Long, Widget> getUpdatedWidgets() {
+        Map<Long, Widget> widgets = new LinkedHashMap<>();
+        for (Long widgetId : updated) {
+            widgets.put(widgetId, positionsById.get(widgetId).getWidget());
+        }
+        return widgets;
+    }
+
+    Set<Long> getDeletedIds() {
+        return deleted;
+    }
+
+    /**
+     * Gets the final state of the updated/deleted widget (missing if deleted).
+     */
+    Widget getWidget(long widgetId) {
+        if (deleted.contains(widgetId))
+            return null;
+
+        Position position = positionsById.get(widgetId);
+        if (position == null)
+            return stored.get(widgetId);
+        return position.getWidget();
+    }
+
+    /**
+     * Gets the shifts of the stored rows not updated by the batch (ordered by z-index, not overlapping).
+     * The rows within the range of a shift are all shifted by its delta, except the updated/deleted ones.
+     */
+    List<ZIndexShift> getShifts() {
+        List<ZIndexShift> shifts = new ArrayList<>();
+        int from = 0;
+        int to = 0;
+        int delta = 0;
+        for (Position position : positions.values()) {
+            // created/updated widgets get written by ID
+            if (position.storedZIndex == null)
+                continue;
+
+            int shift = position.zIndex - position.storedZIndex;
+            if (shift != delta) {
+                if (delta != 0)
+                    shifts.add(new ZIndexShift(from, to, delta));
+                from = position.storedZIndex;
+                delta = shift;
+            }
+            to = position.storedZIndex;
+        }
+        if (delta != 0)
+            shifts.add(new ZIndexShift(from, to, delta));
+        return shifts;
+    }
+
+    // endregion
+
+    // region <SIMULATION>
+
+    private WidgetOperationResult.Status update(Widget widget) {
+        final long widgetId = widget.getId();
+        Position position = positionsById.get(widgetId);
+        Widget current = position != null ? position.getWidget() : stored.get(widgetId);
+        if (current.equals(widget))
+            return WidgetOperationResult.Status.UNCHANGED;
+
+        // the top is taken before the widget releases its z-index (as by the single update)
+        int zIndex = zIndexOrTop(widget);
+
+        // release the current position and place the updated widget
+        release(widgetId);
+        Position updatedPosition = new Position(widgetId, null, widget.toBuilder().build());
+        place(updatedPosition, zIndex);
+        positionsById.put(widgetId, updatedPosition);
+        updated.add(widgetId);
+        return WidgetOperationResult.Status.UPDATED;
+    }
+
+    private void release(long widgetId) {
+        Position position = positionsById.remove(widgetId);
+        if (position != null)
+            positions.remove(position.zIndex);
+        detached.add(widgetId);
+    }
+
+    /**
+     * Gets the z-index of the widget, right above the top one if missing.
+     */
+    private int zIndexOrTop(Widget widget) {
+        if (widget.getZ_index() != null)
+            return widget.getZ_index();
+
+        Integer top = topZIndex();
+        return top == null ? 1 : top + 1;
+    }
+
+    /**
+     * Places the widget to the z-index, shifting up the contiguous run starting from it (up to the first gap).
+     */
+    private void place(Position position, int target) {
+        if (isOccupied(target)) {
+            int runEnd = target;
+            while (isOccupied(runEnd + 1)) {
+                runEnd++;
+            }
+            for (int z = runEnd; z >= target; z--) {
+                Position shifted = positions.remove(z);
+                shifted.zIndex = z + 1;
+                positions.put(z + 1, shifted);
+            }
+        }
+        position.zIndex = target;
+        positions.put(target, position);
+    }
+
+    private boolean isOccupied(int zIndex) {
+        loadWindow(zIndex);
+        return positions.containsKey(zIndex);
+    }
+
+    private Integer topZIndex() {
+        if (!storedTopLoaded) {
+            storedTop = rows.topZIndex();
+            storedTopLoaded = true;
+        }
+        if (storedTop != null)
+            loadWindow(storedTop);
+
+        // stored rows right below the window are the top ones once the window gets emptied
+        while (positions.isEmpty() && windowLoaded && windowStart > Integer.MIN_VALUE) {
+            List<Widget> below = rows.loadBelow((int) windowStart, LOAD_CHUNK);
+            below.forEach(this::addStored);
+            windowStart = below.size() < LOAD_CHUNK
+                    ? Integer.MIN_VALUE
+                    : below.get(below.size() - 1).getZ_index();
+        }
+        return positions.isEmpty() ? null : positions.lastKey();
+    }
+
+    /**
+     * Extends the loaded window to include the z-index (by chunks).
+     */
+    private void loadWindow(int zIndex) {
+        if (!windowLoaded) {
+            windowLoaded = true;
+            windowStart = zIndex;
+            windowEnd = zIndex;
+        }
+        if (zIndex < windowStart) {
+            long start = Math.max(Integer.MIN_VALUE, Math.min(zIndex, windowStart - LOAD_CHUNK));
+            rows.load((int) start, (int) (windowStart - 1)).forEach(this::addStored);
+            windowStart = start;
+        }
+        if (zIndex >= windowEnd) {
+            long end = Math.min(Integer.MAX_VALUE + 1L, Math.max(zIndex + 1L, windowEnd + LOAD_CHUNK));
+            rows.load((int) windowEnd, (int) (end - 1)).forEach(this::addStored);
+            windowEnd = end;
+        }
+    }
+
+    private void addStored(Widget widget) {
+        if (detached.contains(widget.getId()))
+            return;
+
+        Position position = new Position(widget.getId(), widget.getZ_index(), widget);
+        position.zIndex = widget.getZ_index();
+        positions.put(position.zIndex, position);
+        positionsById.put(widget.getId(), position);
+    }
+
+    // endregion
+
+    /**
+     * Widget position on the board.
+     */
+    private final class Position {
+        private final long id;
+
+        // Stored z-index of the rows not updated by the batch (missing for the created/updated widgets)
+        private final Integer storedZIndex;
+
+        private final Widget widget;
+        private int zIndex;
+
+        Position(long id, Integer storedZIndex, Widget widget) {
+            this.id = id;
+            this.storedZIndex = storedZIndex;
+            this.widget = widget;
+        }
+
+        /**
+         * Gets the widget at the current z-index.
+         */
+        Widget getWidget() {
+            boolean moved = storedZIndex == null || zIndex != storedZIndex;
+            return widget.toBuilder()
+                    .id(id == 0 ? null : id)
+                    .z_index(zIndex)
+                    .dateModified(moved ? dateModified : widget.getDateModified())
+                    .build();
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.domain.Widget;
+import lombok.AllArgsConstructor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded read-through cache of the widgets by ID (W-TinyLFU style).
+ * Loaded widgets enter a small LRU window. Widgets leaving the window get admitted to the main LRU
+ * segment only if they are requested more frequently than the main segment's victim (frequencies are
+ * estimated by a count-min sketch, halved periodically), so one-off reads do not flush the hot widgets.
+ *
+ * Widgets are tagged with the generations of the widget and of its board, incremented on committed
+ * writes of the widget and on z-index shifts of the board respectively. Widgets loaded before the write
+ * do not match the new generations and get reloaded, so stale widgets are never returned.
+ * Widgets and boards share fixed sets of generations by hash.
+ */
+final class WidgetCache {
+    private static final int WIDGET_GENERATIONS = 4096;
+    private static final int BOARD_GENERATIONS = 256;
+
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final AtomicLongArray widgetGenerations;
+    private final AtomicLongArray boardGenerations;
+
+    // Widgets {Widget ID/Entry} (access ordered, guarded by the cache)
+    private final LinkedHashMap<Long, Entry> window;
+    private final LinkedHashMap<Long, Entry> main;
+    private final FrequencySketch sketch;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    WidgetCache(int capacity) {
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = Math.max(1, capacity - windowCapacity);
+        this.widgetGenerations = new AtomicLongArray(WIDGET_GENERATIONS);
+        this.boardGenerations = new AtomicLongArray(BOARD_GENERATIONS);
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.main = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Gets the cached widget of the board, loading it by the loader if missing or outdated.
+     */
+    Optional<Widget> get(String boardId, long widgetId, Supplier<Optional<Widget>> loader) {
+        final long widgetGeneration = widgetGenerations.get(widgetIndex(widgetId));
+        final long boardGeneration = boardGenerations.get(boardIndex(boardId));
+
+        synchronized (this) {
+            sketch.increment(widgetId);
+            Entry entry = lookup(widgetId);
+            if (entry != null && entry.widgetGeneration == widgetGeneration
+                    && entry.boardGeneration == boardGeneration) {
+                hitCount++;
+                return entry.boardId.equals(boardId) ? Optional.of(entry.widget.toBuilder().build()) : Optional.empty();
+            }
+            missCount++;
+        }
+
+        Optional<Widget> widget = loader.get();
+        widget.ifPresent(loaded -> put(widgetId, new Entry(boardId, loaded.toBuilder().build(), widgetGeneration, boardGeneration)));
+        return widget;
+    }
+
+    /**
+     * Outdates the cached widget (must be called once the write is committed).
+     */
+    void invalidate(long widgetId) {
+        widgetGenerations.incrementAndGet(widgetIndex(widgetId));
+        synchronized (this) {
+            if (window.remove(widgetId) == null)
+                main.remove(widgetId);
+        }
+    }
+
+    /**
+     * Outdates all cached widgets of the board (must be called once the z-index shift is committed).
+     */
+    void invalidateBoard(String boardId) {
+        boardGenerations.incrementAndGet(boardIndex(boardId));
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    int capacity() {
+        return windowCapacity + mainCapacity;
+    }
+
+    // region <SEGMENTS>
+
+    private Entry lookup(long widgetId) {
+        Entry entry = window.get(widgetId);
+        return entry != null ? entry : main.get(widgetId);
+    }
+
+    private synchronized void put(long widgetId, Entry entry) {
+        if (main.containsKey(widgetId)) {
+            main.put(widgetId, entry);
+            return;
+        }
+
+        window.put(widgetId, entry);
+        if (window.size() <= windowCapacity)
+            return;
+
+        Iterator<Map.Entry<Long, Entry>> windowIterator = window.entrySet().iterator();
+        Map.Entry<Long, Entry> candidate = windowIterator.next();
+        windowIterator.remove();
+        if (main.size() < mainCapacity) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+
+        // admit the window victim only if it is more popular than the main one
+        evictionCount++;
+        Iterator<Map.Entry<Long, Entry>> mainIterator = main.entrySet().iterator();
+        Map.Entry<Long, Entry> victim = mainIterator.next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+            mainIterator.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private static int widgetIndex(long widgetId) {
+        return (int) ((widgetId ^ (widgetId >>> 32)) & 0x7fffffff) % WIDGET_GENERATIONS;
+    }
+
+    private static int boardIndex(String boardId) {
+        return (boardId.hashCode() & 0x7fffffff) % BOARD_GENERATIONS;
+    }
+
+    // endregion
+
+    @AllArgsConstructor
+    private static final class Entry {
+        private final String boardId;
+        private final Widget widget;
+        private final long widgetGeneration;
+        private final long boardGeneration;
+    }
+
+    /**
+     * Count-min sketch of the widget request frequencies (4 rows of counters saturating at 15).
+     * All counters get halved once the count of additions reaches the sample size,
+     * so the formerly popular widgets age out.
+     */
+    private static final class FrequencySketch {
+        private static final int MAX_FREQUENCY = 15;
+        private static final int COUNTERS_PER_ENTRY = 8;
+        private static final long[] SEEDS = {
+                0x9e3779b97f4a7c15L, 0xbf58476d1ce4e5b9L, 0x94d049bb133111ebL, 0xd6e8feb86659fd93L};
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            // several counters per cached widget keep the collisions (overestimates) rare
+            int width = Integer.highestOneBit(Math.max(16, capacity - 1) << 1) * COUNTERS_PER_ENTRY;
+            this.rows = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * Math.max(16, capacity);
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                int index = index(key, i);
+                if (rows[i][index] < MAX_FREQUENCY) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+                reset();
+        }
+
+        int frequency(long key) {
+            int frequency = MAX_FREQUENCY;
+            for (int i = 0; i < rows.length; i++) {
+                frequency = Math.min(frequency, rows[i][index(key, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions >>= 1;
+        }
+
+        private int index(long key, int row) {
+            long hash = (key ^ (key >>> 31)) * SEEDS[row];
+            return (int) (hash >>> 32) & mask;
+        }
+    }
+
+}
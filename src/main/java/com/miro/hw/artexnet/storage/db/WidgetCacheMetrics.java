@@ -0,0 +1,59 @@
+package com.miro.hw.artexnet.storage.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Widget cache metrics, exported over JMX (<code>com.miro.hw.artexnet:type=WidgetCache</code>) for sizing the cache.
+ */
+@Component
+@Profile("!local")
+@ManagedResource(objectName = "com.miro.hw.artexnet:type=WidgetCache")
+public class WidgetCacheMetrics {
+
+    private final WidgetDatabaseStorage storage;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    @Autowired
+    public WidgetCacheMetrics(WidgetDatabaseStorage storage) {
+        this.storage = storage;
+    }
+
+    @ManagedAttribute(description = "Count of widgets read from the cache")
+    public long getHitCount() {
+        return storage.getWidgetCache().getHitCount();
+    }
+
+    @ManagedAttribute(description = "Count of widgets loaded from the database")
+    public long getMissCount() {
+        return storage.getWidgetCache().getMissCount();
+    }
+
+    @ManagedAttribute(description = "Ratio of the requests served by the cache")
+    public double getHitRate() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @ManagedAttribute(description = "Count of widgets evicted (or not admitted) due to the capacity")
+    public long getEvictionCount() {
+        return storage.getWidgetCache().getEvictionCount();
+    }
+
+    @ManagedAttribute(description = "Count of cached widgets")
+    public int getSize() {
+        return storage.getWidgetCache().size();
+    }
+
+    @ManagedAttribute(description = "Maximum count of cached widgets")
+    public int getCapacity() {
+        return storage.getWidgetCache().capacity();
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.lang.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded (LRU) cache of the widgets counts per board and per board area, so the totals
+ * of the listings do not cost a second scan on every request.
+ *
+ * Counts are tagged with the board generation, incremented on every committed write to the board.
+ * Counts computed before the write do not match the new generation and get recalculated,
+ * so stale counts are never returned. Boards share a fixed set of generations by hash.
+ */
+final class WidgetCountCache {
+    private static final int GENERATIONS = 256;
+
+    private final int capacity;
+    private final AtomicLongArray generations;
+
+    // Counts {Key/Count} (access ordered, guarded by itself)
+    private final LinkedHashMap<Key, Count> counts;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    WidgetCountCache(int capacity) {
+        this.capacity = capacity;
+        this.generations = new AtomicLongArray(GENERATIONS);
+        this.counts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Count> eldest) {
+                return size() > WidgetCountCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached count of widgets of the board (within the area, if specified),
+     * calculating it by the counter if missing or outdated.
+     */
+    long get(String boardId, @Nullable Area area, LongSupplier counter) {
+        final long generation = generations.get(index(boardId));
+        final Key key = area == null
+                ? new Key(boardId, false, 0, 0, 0, 0)
+                : new Key(boardId, true,
+                        area.getLeftBottom().getXAxis(), area.getLeftBottom().getYAxis(),
+                        area.getRightTop().getXAxis(), area.getRightTop().getYAxis());
+
+        synchronized (counts) {
+            Count count = counts.get(key);
+            if (count != null && count.generation == generation)
+                return count.value;
+        }
+
+        final long value = counter.getAsLong();
+        synchronized (counts) {
+            counts.put(key, new Count(generation, value));
+        }
+        return value;
+    }
+
+    /**
+     * Outdates all counts of the board (must be called once the write is committed).
+     */
+    void invalidate(String boardId) {
+        generations.incrementAndGet(index(boardId));
+    }
+
+    private static int index(String boardId) {
+        return (boardId.hashCode() & 0x7fffffff) % GENERATIONS;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class Key {
+        private final String boardId;
+        private final boolean area;
+        private final int leftX;
+        private final int leftY;
+        private final int rightX;
+        private final int rightY;
+    }
+
+    @AllArgsConstructor
+    private static final class Count {
+        private final long generation;
+        private final long value;
+    }
+
+}
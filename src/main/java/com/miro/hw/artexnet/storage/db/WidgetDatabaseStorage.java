@@ -1,22 +1,41 @@
 package com.miro.hw.artexnet.storage.db;
 
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
 import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
 import com.miro.hw.artexnet.exception.NotFoundException;
 import com.miro.hw.artexnet.exception.ValidationException;
+import com.miro.hw.artexnet.storage.BoardVersionListener;
+import com.miro.hw.artexnet.storage.WidgetChangeLog;
 import com.miro.hw.artexnet.storage.WidgetStorage;
 import com.miro.hw.artexnet.storage.StorageType;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -24,133 +43,549 @@ import java.util.stream.Collectors;
 @Profile("!local")
 public class WidgetDatabaseStorage implements WidgetStorage {
 
+    private static final int COUNT_CACHE_CAPACITY = 1024;
+    private static final int DEFAULT_WIDGET_CACHE_CAPACITY = 10000;
+    private static final int Z_ALLOCATION_STRIPES = 64;
+
     private final WidgetRepository repository;
 
+    // Z-index allocation rows locked by the writers of the boards
+    private final ZIndexAllocationRepository allocationRepository;
+
+    // Cached counts of the listings' totals
+    private final WidgetCountCache countCache;
+
+    // Cached widgets read by ID
+    private final WidgetCache widgetCache;
+
+    // Boards read from the primary database after the writes
+    private final ReadYourWritesWindow readYourWrites;
+
+    // Logs of the changes committed by this instance, by the z-index allocation rows
+    // (the row version is the version sequence of its boards)
+    private final WidgetChangeLog[] changeLogs;
+
+    // Listeners of the board versions committed by this instance
+    private final List<BoardVersionListener> versionListeners;
+
     /**
      * Initializes a new instance of the class.
      */
+    public WidgetDatabaseStorage(WidgetRepository repository, ZIndexAllocationRepository allocationRepository) {
+        this(repository, allocationRepository, DEFAULT_WIDGET_CACHE_CAPACITY, new ReadYourWritesWindow(Duration.ZERO),
+                WidgetChangeLog.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified widget cache capacity and the count
+     * of the changes kept by the logs (split evenly between the z-index allocation rows).
+     */
     @Autowired
-    public WidgetDatabaseStorage(WidgetRepository repository) {
+    public WidgetDatabaseStorage(WidgetRepository repository, ZIndexAllocationRepository allocationRepository,
+                                 @Value("${storage.database.widgetCacheSize:10000}") int widgetCacheCapacity,
+                                 ReadYourWritesWindow readYourWrites,
+                                 @Value("${storage.changeLog.capacity:10000}") int changeLogCapacity) {
         this.repository = repository;
+        this.allocationRepository = allocationRepository;
+        this.countCache = new WidgetCountCache(COUNT_CACHE_CAPACITY);
+        this.widgetCache = new WidgetCache(widgetCacheCapacity);
+        this.readYourWrites = readYourWrites;
+        this.changeLogs = new WidgetChangeLog[Z_ALLOCATION_STRIPES];
+        for (int stripe = 0; stripe < Z_ALLOCATION_STRIPES; stripe++) {
+            changeLogs[stripe] = new WidgetChangeLog(Math.max(1, changeLogCapacity / Z_ALLOCATION_STRIPES), 0);
+        }
+        this.versionListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Registers the missing z-index allocation rows.
+     */
+    @PostConstruct
+    public void registerZIndexAllocations() {
+        Set<Integer> registered = readYourWrites.readPrimary(allocationRepository::findAll).stream()
+                .map(ZIndexAllocationEntity::getStripe)
+                .collect(Collectors.toSet());
+        List<ZIndexAllocationEntity> missing = new ArrayList<>();
+        for (int stripe = 0; stripe < Z_ALLOCATION_STRIPES; stripe++) {
+            if (!registered.contains(stripe))
+                missing.add(new ZIndexAllocationEntity(stripe));
+        }
+        if (!missing.isEmpty())
+            allocationRepository.saveAll(missing);
     }
 
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public Widget createWidget(Widget widget) {
-        return storeWidgetUpdates(widget);
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public Widget createWidget(String boardId, Widget widget) {
+        final long version = lockZIndexes(boardId);
+        invalidateCountsOnCommit(boardId);
+
+        List<WidgetChangeEvent> events = new ArrayList<>();
+        Widget created = storeWidgetUpdates(boardId, widget, events);
+        events.add(WidgetChangeEvent.created(created));
+        logOnCommit(boardId, version, events);
+        return created;
     }
 
     @Override
-    public WidgetsCollection getWidgets(int page, int size, Area area) {
-        List<WidgetEntity> entityList;
-        long total;
+    public WidgetsCollection getWidgets(String boardId, int page, int size, Area area, boolean includeTotal) {
+        return readYourWrites.read(boardId, () -> readWidgets(boardId, page, size, area, includeTotal));
+    }
+
+    @Override
+    public WidgetsCollection getWidgets(String boardId, PageCursor cursor, int size, Area area, boolean includeTotal) {
+        return readYourWrites.read(boardId, () -> readWidgets(boardId, cursor, size, area, includeTotal));
+    }
+
+    private WidgetsCollection readWidgets(String boardId, int page, int size, Area area, boolean includeTotal) {
+        // one extra row tells whether the next page exists
+        Pageable pageable = new OffsetPageRequest((long) page * size, size + 1);
+        List<Widget> widgetList;
         if (area != null) {
             int leftX = area.getLeftBottom().getXAxis();
             int leftY = area.getLeftBottom().getYAxis();
             int rightX = area.getRightTop().getXAxis();
             int rightY = area.getRightTop().getYAxis();
 
-            entityList = repository.findAllInAreaOrderedByZIndex(leftX, leftY, rightX, rightY, PageRequest.of(page, size));
-            total = getWidgetsCount(area);
+            widgetList = repository.findAllInAreaOrderedByZIndex(boardId, leftX, leftY, rightX, rightY, pageable);
         } else {
-            entityList = repository.findAllOrderedByZIndex(PageRequest.of(page, size));
-            total = getWidgetsCount();
+            widgetList = repository.findAllOrderedByZIndex(boardId, pageable);
         }
+        return toCollection(boardId, area, includeTotal, widgetList, size);
+    }
 
-        List<Widget> widgets = entityList.stream().map(this::fromEntity).collect(Collectors.toList());
-        return new WidgetsCollection(total, widgets);
+    private WidgetsCollection readWidgets(String boardId, PageCursor cursor, int size, Area area, boolean includeTotal) {
+        // one extra row tells whether the next page exists
+        Pageable pageable = PageRequest.of(0, size + 1);
+        List<Widget> widgetList;
+        if (area != null) {
+            int leftX = area.getLeftBottom().getXAxis();
+            int leftY = area.getLeftBottom().getYAxis();
+            int rightX = area.getRightTop().getXAxis();
+            int rightY = area.getRightTop().getYAxis();
+
+            widgetList = cursor == null
+                    ? repository.findAllInAreaOrderedByZIndex(boardId, leftX, leftY, rightX, rightY, pageable)
+                    : repository.findAllInAreaBelowZIndexOrderedByZIndex(boardId, cursor.getZIndex(),
+                            leftX, leftY, rightX, rightY, pageable);
+        } else {
+            widgetList = cursor == null
+                    ? repository.findAllOrderedByZIndex(boardId, pageable)
+                    : repository.findAllBelowZIndexOrderedByZIndex(boardId, cursor.getZIndex(), pageable);
+        }
+        return toCollection(boardId, area, includeTotal, widgetList, size);
+    }
+
+    /**
+     * Reads the widgets through the forward-only cursor, within the single read-only transaction.
+     */
+    @Override
+    public void forEachWidget(String boardId, Area area, Consumer<Widget> action) {
+        readYourWrites.read(boardId, () -> {
+            try (Stream<Widget> widgets = area == null
+                    ? repository.streamAllOrderedByZIndex(boardId)
+                    : repository.streamAllInAreaOrderedByZIndex(boardId,
+                            area.getLeftBottom().getXAxis(), area.getLeftBottom().getYAxis(),
+                            area.getRightTop().getXAxis(), area.getRightTop().getYAxis())) {
+                widgets.forEach(action);
+            }
+            return null;
+        });
     }
 
     @Override
-    public Optional<Widget> getById(long widgetId) {
-        Optional<WidgetEntity> entityOptional = repository.findById(widgetId);
-        return entityOptional.map(this::fromEntity);
+    public Optional<Widget> getById(String boardId, long widgetId) {
+        return readYourWrites.read(boardId, () -> widgetCache.get(boardId, widgetId,
+                () -> repository.findWidgetByIdAndBoardId(widgetId, boardId)));
     }
 
     @Override
-    public long getWidgetsCount() {
-        return repository.count();
+    public long getWidgetsCount(String boardId) {
+        return readYourWrites.read(boardId,
+                () -> countCache.get(boardId, null, () -> repository.countByBoardId(boardId)));
     }
 
     @Override
-    public long getWidgetsCount(Area area) {
+    public long getWidgetsCount(String boardId, Area area) {
         int leftX = area.getLeftBottom().getXAxis();
         int leftY = area.getLeftBottom().getYAxis();
         int rightX = area.getRightTop().getXAxis();
         int rightY = area.getRightTop().getYAxis();
-        return repository.countByArea(leftX, leftY, rightX, rightY);
+        return readYourWrites.read(boardId,
+                () -> countCache.get(boardId, area, () -> repository.countByArea(boardId, leftX, leftY, rightX, rightY)));
+    }
+
+    /**
+     * Gets the version of the board's z-index allocation row (shared by the boards of the row),
+     * a single lookup by the primary key.
+     */
+    @Override
+    public long getBoardVersion(String boardId) {
+        return readYourWrites.read(boardId, () -> allocationRepository.findVersionByStripe(getStripe(boardId))
+                .orElse(0L));
+    }
+
+    /**
+     * Reads the version and runs the reader within the single read-only transaction, so the storage reads
+     * of the reader join it: all of them go to the same database (the primary or the replica) as the version.
+     */
+    @Override
+    public <T> T readAtVersion(String boardId, LongFunction<T> reader) {
+        return readYourWrites.read(boardId, () -> reader.apply(getBoardVersion(boardId)));
     }
 
+    /**
+     * Reads the changes from the log of the board's z-index allocation row. The log holds the changes
+     * committed by this instance only: the changes committed elsewhere (by other instances,
+     * or before the start) make the readers resync.
+     */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public Widget updateWidget(Widget widget) {
-        // make sure widget exists and updates are provided
-        Widget storedWidget = getById(widget.getId()).orElseThrow(NotFoundException::new);
+    public WidgetChanges getChanges(String boardId, long sinceVersion, Area area) {
+        final long version = getBoardVersion(boardId);
+        return changeLogs[getStripe(boardId)].getChanges(boardId, sinceVersion, version, area)
+                .map(changes -> WidgetChanges.of(version, changes))
+                .orElseGet(() -> WidgetChanges.resyncRequired(version));
+    }
+
+    /**
+     * Reads the versions of all z-index allocation rows at once (from the primary database, as the writers
+     * bump them), so the cost does not depend on the count of the boards.
+     */
+    @Override
+    public Map<String, Long> getBoardVersions(Collection<String> boardIds) {
+        Map<Integer, Long> stripeVersions = readYourWrites.readPrimary(allocationRepository::findAll).stream()
+                .collect(Collectors.toMap(ZIndexAllocationEntity::getStripe, ZIndexAllocationEntity::getVersion));
+        Map<String, Long> versions = new HashMap<>();
+        for (String boardId : boardIds) {
+            versions.put(boardId, stripeVersions.getOrDefault(getStripe(boardId), 0L));
+        }
+        return versions;
+    }
+
+    /**
+     * Listeners get notified once the changes are committed.
+     */
+    @Override
+    public void addVersionListener(BoardVersionListener listener) {
+        versionListeners.add(listener);
+    }
+
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public Widget updateWidget(String boardId, Widget widget) {
+        final long version = lockZIndexes(boardId);
+
+        // make sure widget exists and updates are provided (read under the lock, the cache may be outdated)
+        Widget storedWidget = repository.findWidgetByIdAndBoardId(widget.getId(), boardId)
+                .orElseThrow(NotFoundException::new);
         if (storedWidget.equals(widget))
             throw new ValidationException("Nothing to update");
 
-        return storeWidgetUpdates(widget);
+        invalidateCountsOnCommit(boardId);
+        invalidateOnCommit(() -> widgetCache.invalidate(widget.getId()));
+
+        List<WidgetChangeEvent> events = new ArrayList<>();
+        Widget updated = storeWidgetUpdates(boardId, widget, events);
+        events.add(WidgetChangeEvent.updated(storedWidget, updated));
+        logOnCommit(boardId, version, events);
+        return updated;
     }
 
     @Override
     @Transactional
-    public void deleteById(long widgetId) {
-        final WidgetEntity widgetEntity = repository.findById(widgetId).orElseThrow(NotFoundException::new);
+    public void deleteById(String boardId, long widgetId) {
+        final long version = lockZIndexes(boardId);
+        final WidgetEntity widgetEntity = repository.findByIdAndBoardId(widgetId, boardId).orElseThrow(NotFoundException::new);
+        invalidateCountsOnCommit(boardId);
+        invalidateOnCommit(() -> widgetCache.invalidate(widgetId));
         repository.delete(widgetEntity);
+        logOnCommit(boardId, version, Collections.singletonList(WidgetChangeEvent.deleted(fromEntity(widgetEntity))));
+    }
+
+    /**
+     * Applies the batch in a single transaction, holding the board z-index lock once. The arrangement
+     * gets simulated first (see {@link WidgetBatchPlan}), then written at once: the deletes, the batched statements
+     * moving all rows shifted by the batch (see {@link WidgetRepositoryCustom#moveZIndexes}), the updates
+     * and the inserts (both batched).
+     */
+    @Override
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public List<WidgetOperationResult> applyBatch(String boardId, List<WidgetOperation> operations) {
+        final long version = lockZIndexes(boardId);
+
+        // make sure the updated/deleted widgets exist
+        Set<Long> targetIds = operations.stream()
+                .filter(operation -> operation.getType() != WidgetOperation.Type.CREATE)
+                .map(WidgetOperation::targetId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, Widget> stored = targetIds.isEmpty()
+                ? Collections.emptyMap()
+                : repository.findWidgetsByBoardIdAndIdIn(boardId, targetIds).stream()
+                        .collect(Collectors.toMap(Widget::getId, Function.identity()));
+        WidgetOperation.validateTargets(operations, stored::containsKey);
+
+        final LocalDateTime now = LocalDateTime.now();
+        WidgetBatchPlan plan = new WidgetBatchPlan(getBatchRows(boardId), stored, now).apply(operations);
+
+        invalidateCountsOnCommit(boardId);
+        invalidateOnCommit(() -> {
+            widgetCache.invalidateBoard(boardId);
+            targetIds.forEach(widgetCache::invalidate);
+        });
+
+        if (!plan.getDeletedIds().isEmpty())
+            repository.deleteByBoardIdAndIdIn(boardId, plan.getDeletedIds());
+
+        // the updated widgets move along with the shifted rows
+        Map<Long, Widget> updatedWidgets = plan.getUpdatedWidgets();
+        Map<Long, Integer> movedZIndexes = new LinkedHashMap<>();
+        updatedWidgets.forEach((widgetId, widget) -> movedZIndexes.put(widgetId, widget.getZ_index()));
+        repository.moveZIndexes(boardId, movedZIndexes, plan.getShifts(), now);
+
+        if (!updatedWidgets.isEmpty()) {
+            for (WidgetEntity entity : repository.findAllById(updatedWidgets.keySet())) {
+                WidgetEntity updates = toEntity(boardId, updatedWidgets.get(entity.getId()));
+                entity.setX(updates.getX());
+                entity.setY(updates.getY());
+                entity.setWidth(updates.getWidth());
+                entity.setHeight(updates.getHeight());
+                entity.setLeftEdge(updates.getLeftEdge());
+                entity.setBottomEdge(updates.getBottomEdge());
+                entity.setRightEdge(updates.getRightEdge());
+                entity.setTopEdge(updates.getTopEdge());
+            }
+        }
+        List<WidgetEntity> createdEntities = repository.saveAll(plan.getCreatedWidgets().stream()
+                .map(widget -> toEntity(boardId, widget))
+                .collect(Collectors.toList()));
+
+        List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+        Iterator<WidgetEntity> created = createdEntities.iterator();
+        for (int i = 0; i < operations.size(); i++) {
+            WidgetOperationResult.Status status = plan.getStatuses().get(i);
+            if (status == WidgetOperationResult.Status.CREATED) {
+                WidgetEntity entity = created.next();
+                results.add(new WidgetOperationResult(status, entity.getId(), fromEntity(entity)));
+            } else {
+                long widgetId = operations.get(i).targetId();
+                results.add(new WidgetOperationResult(status, widgetId, plan.getWidget(widgetId)));
+            }
+        }
+        logOnCommit(boardId, version, toEvents(plan, stored, createdEntities));
+        return results;
+    }
+
+    /**
+     * Gets the cache of the widgets read by ID.
+     */
+    WidgetCache getWidgetCache() {
+        return widgetCache;
     }
 
     // region <PERSIST/REARRANGE>
     // all functions execute in the transactional context
 
-    private Widget storeWidgetUpdates(Widget widget) {
-        if (widget.getZ_index() == null)
-            return storeWidgetWithMissingZIndex(widget);
+    /**
+     * Locks the z-index space of the board until the transaction ends, bumping the board version.
+     * Writers of the board (and of the boards sharing the allocation row) get serialized, while readers and
+     * writers of the other boards are not blocked.
+     * @return the board version the changes get committed under.
+     */
+    private long lockZIndexes(String boardId) {
+        final int stripe = getStripe(boardId);
+        if (allocationRepository.incrementVersion(stripe) == 0)
+            throw new IllegalStateException("Missing z-index allocation " + stripe);
+        return allocationRepository.findVersionByStripe(stripe)
+                .orElseThrow(() -> new IllegalStateException("Missing z-index allocation " + stripe));
+    }
 
-        boolean duplicateFound = repository.countByZIndex(widget.getZ_index()) != 0;
-        if (!duplicateFound) {
-            WidgetEntity entityWithUpdates = repository.save(toEntity(widget));
-            return fromEntity(entityWithUpdates);
+    private static int getStripe(String boardId) {
+        return (boardId.hashCode() & 0x7fffffff) % Z_ALLOCATION_STRIPES;
+    }
+
+    /**
+     * Stores the widget, shifting the widgets occupying its z-index (the shift gets added to the events).
+     */
+    private Widget storeWidgetUpdates(String boardId, Widget widget, List<WidgetChangeEvent> events) {
+        if (widget.getZ_index() == null)
+            return storeWidgetWithMissingZIndex(boardId, widget);
+
+        // z-index of the updated widget itself is released, so it is not a duplicate
+        final long widgetId = widget.getId() == null ? 0 : widget.getId();
+        boolean duplicateFound = repository.countByZIndex(boardId, widget.getZ_index(), widgetId) != 0;
+        if (duplicateFound) {
+            int runEnd = shiftZIndexes(boardId, widgetId, widget.getZ_index());
+            events.add(WidgetChangeEvent.shifted(widget.getZ_index(), runEnd, 1));
         }
 
-        return saveWidgetAndRearrangeZIndexes(widget);
+        WidgetEntity entityWithUpdates = repository.save(toStoredEntity(boardId, widget));
+        return fromEntity(entityWithUpdates);
     }
 
-    private Widget storeWidgetWithMissingZIndex(Widget widget) {
-        WidgetEntity top = repository.getTopByOrderByZindexDesc();
+    private Widget storeWidgetWithMissingZIndex(String boardId, Widget widget) {
+        WidgetEntity top = repository.getTopByBoardIdOrderByZindexDesc(boardId);
 
         // top is missing for the very first record
         int zIndex = top == null ? 1 : 1 + top.getZindex();
         widget.setZ_index(zIndex);
 
-        WidgetEntity entityWithUpdates = repository.save(toEntity(widget));
+        WidgetEntity entityWithUpdates = repository.save(toStoredEntity(boardId, widget));
         return fromEntity(entityWithUpdates);
     }
 
     /**
-     * Rearranges all related widgets' z-indexes
-     * to exclude duplicates introduced by the provided widget.
+     * Shifts up the contiguous run of z-indexes starting from the specified one (up to the first gap),
+     * so the z-index gets free for the widget. The shift is a single bounded update statement,
+     * no entities get loaded.
+     * @return the end of the shifted run (inclusive, as before the shift).
      */
-    private Widget saveWidgetAndRearrangeZIndexes(Widget widget) {
-        List<WidgetEntity> entitiesToUpdate = new ArrayList<>();
-        WidgetEntity targetEntity = toEntity(widget);
+    private int shiftZIndexes(String boardId, long widgetId, int zIndex) {
+        invalidateOnCommit(() -> widgetCache.invalidateBoard(boardId));
+        int runEnd = repository.findZIndexRunEnd(boardId, zIndex, widgetId);
+        repository.shiftZIndexes(boardId, widgetId, zIndex, runEnd, LocalDateTime.now());
+        return runEnd;
+    }
 
-        int zIndex = widget.getZ_index();  // z-index already assigned by this point
-        final List<WidgetEntity> entitiesOrderedByIndex = repository.findAllWithEqualOrGreaterZIndex(zIndex);
+    private WidgetBatchPlan.Rows getBatchRows(String boardId) {
+        return new WidgetBatchPlan.Rows() {
+            @Override
+            public List<Widget> load(int fromZIndex, int toZIndex) {
+                return repository.findAllInZIndexRange(boardId, fromZIndex, toZIndex);
+            }
 
-        for (int i = entitiesOrderedByIndex.size() - 1; i >= 0; i--) {
-            final WidgetEntity entity = entitiesOrderedByIndex.get(i);
-            if (zIndex == entity.getZindex()) {
-                zIndex = 1 + entity.getZindex();
-                entity.setZindex(zIndex);
-                entitiesToUpdate.add(entity);
-            } else {
-                break;
+            @Override
+            public List<Widget> loadBelow(int zIndex, int limit) {
+                return repository.findAllBelowZIndexOrderedByZIndex(boardId, zIndex, PageRequest.of(0, limit));
             }
+
+            @Override
+            public Integer topZIndex() {
+                WidgetEntity top = repository.getTopByBoardIdOrderByZindexDesc(boardId);
+                return top == null ? null : top.getZindex();
+            }
+        };
+    }
+
+    /**
+     * Creates the entity for the widget, keeping the stored version (the row might have been shifted already)
+     * and creation date for the existing widgets.
+     */
+    private WidgetEntity toStoredEntity(String boardId, Widget widget) {
+        WidgetEntity entity = toEntity(boardId, widget);
+        if (widget.getId() != null) {
+            repository.findByIdAndBoardId(widget.getId(), boardId).ifPresent(stored -> {
+                entity.setVersion(stored.getVersion());
+                entity.setDateCreated(stored.getDateCreated());
+            });
         }
-        repository.saveAll(entitiesToUpdate);
-        repository.flush();
-        targetEntity = repository.save(targetEntity);
-        return fromEntity(targetEntity);
+        return entity;
+    }
+
+    // endregion
+
+    // region <CHANGES>
+
+    /**
+     * Gets the change events of the batch. The shifts of the plan are simultaneous, so they get listed
+     * from the top one down: applied in order, the shifted rows (moved up) never fall into the next ranges.
+     * The updated/deleted widgets follow, overriding their shifted copies.
+     */
+    private List<WidgetChangeEvent> toEvents(WidgetBatchPlan plan, Map<Long, Widget> stored,
+                                             List<WidgetEntity> createdEntities) {
+        List<WidgetChangeEvent> events = new ArrayList<>();
+        List<ZIndexShift> shifts = plan.getShifts();
+        for (int i = shifts.size() - 1; i >= 0; i--) {
+            ZIndexShift shift = shifts.get(i);
+            events.add(WidgetChangeEvent.shifted(shift.getFromZIndex(), shift.getToZIndex(), shift.getDelta()));
+        }
+        plan.getDeletedIds().forEach(widgetId -> events.add(WidgetChangeEvent.deleted(stored.get(widgetId))));
+        plan.getUpdatedWidgets().forEach((widgetId, widget) ->
+                events.add(WidgetChangeEvent.updated(stored.get(widgetId), widget)));
+        createdEntities.forEach(entity -> events.add(WidgetChangeEvent.created(fromEntity(entity))));
+        return events;
+    }
+
+    /**
+     * Logs the changes right before the current transaction commits (right away, if there is no transaction),
+     * while the board z-index lock is still held: the commits of the allocation row get logged in order,
+     * before the readers can see the version. Changes of the transactions failed to commit get replaced
+     * by the next commit of the version.
+     */
+    private void logOnCommit(String boardId, long version, List<WidgetChangeEvent> events) {
+        final WidgetChangeLog changeLog = changeLogs[getStripe(boardId)];
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            changeLog.append(boardId, version, events);
+            notifyVersion(boardId, version);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                changeLog.append(boardId, version, events);
+            }
+
+            @Override
+            public void afterCommit() {
+                notifyVersion(boardId, version);
+            }
+        });
+    }
+
+    private void notifyVersion(String boardId, long version) {
+        for (BoardVersionListener listener : versionListeners) {
+            listener.boardChanged(boardId, version);
+        }
+    }
+
+    // endregion
+
+    // region <CACHES>
+
+    private WidgetsCollection toCollection(String boardId, Area area, boolean includeTotal,
+                                           List<Widget> widgetList, int size) {
+        boolean hasMore = widgetList.size() > size;
+        List<Widget> widgets = hasMore ? widgetList.subList(0, size) : widgetList;
+        Long total = null;
+        if (includeTotal)
+            total = area != null ? getWidgetsCount(boardId, area) : getWidgetsCount(boardId);
+        return WidgetsCollection.of(total, widgets, hasMore);
+    }
+
+    /**
+     * Outdates the cached counts of the board once the current transaction commits
+     * (right away, if there is no transaction). Reads of the board go to the primary database for a while.
+     */
+    private void invalidateCountsOnCommit(String boardId) {
+        invalidateOnCommit(() -> {
+            readYourWrites.recordWrite(boardId);
+            countCache.invalidate(boardId);
+        });
+    }
+
+    /**
+     * Runs the cache invalidation right before the current transaction commits and once again
+     * after it completes (right away, if there is no transaction). The second run outdates the values
+     * loaded by the concurrent readers while the transaction was being committed.
+     */
+    private static void invalidateOnCommit(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidation.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                invalidation.run();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                invalidation.run();
+            }
+        });
     }
 
     // endregion
@@ -158,16 +593,25 @@ public class WidgetDatabaseStorage implements WidgetStorage {
     // region <MAPPERS>
 
     public WidgetEntity toEntity(Widget widget) {
+        return toEntity(DEFAULT_BOARD, widget);
+    }
+
+    public WidgetEntity toEntity(String boardId, Widget widget) {
         if (widget == null)
             return null;
 
         return WidgetEntity.builder()
                 .id(widget.getId())
+                .boardId(boardId)
                 .zindex(widget.getZ_index())
                 .x(widget.getX())
                 .y(widget.getY())
                 .width(widget.getWidth())
                 .height(widget.getHeight())
+                .leftEdge(widget.getX() - widget.getWidth() / 2)
+                .bottomEdge(widget.getY() - widget.getHeight() / 2)
+                .rightEdge(widget.getX() + widget.getWidth() / 2)
+                .topEdge(widget.getY() + widget.getHeight() / 2)
                 .build();
     }
 
@@ -7,12 +7,9 @@ import javax.validation.constraints.Min;
 
 @Entity
 @Table(name = "t_widget", uniqueConstraints = {
-        @UniqueConstraint(name = "IDX_Z_INDEX", columnNames = "z_index")},
+        @UniqueConstraint(name = "IDX_Z_INDEX", columnNames = {"board_id", "z_index"})},
         indexes = {
-        @Index(name = "IDX_X_RANGE", columnList = "x_coordinate"),
-        @Index(name = "IDX_Y_RANGE", columnList = "y_coordinate"),
-        @Index(name = "IDX_WIDTH", columnList = "width"),
-        @Index(name = "IDX_HEIGHT", columnList = "height"),
+        @Index(name = "IDX_AREA", columnList = "board_id, left_edge, bottom_edge, right_edge, top_edge"),
 })
 @Data
 @EqualsAndHashCode(callSuper = false)
@@ -22,11 +19,19 @@ import javax.validation.constraints.Min;
 public class WidgetEntity extends AbstractEntity {
     private static final long serialVersionUID = 1L;
 
+    // Count of IDs reserved by a single sequence call
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // IDs get allocated in blocks (pooled sequence), so the inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "widget_id")
+    @SequenceGenerator(name = "widget_id", sequenceName = "s_widget_id", allocationSize = ID_ALLOCATION_SIZE)
     @Column(name = "id")
     private Long id;
 
+    @Column(name = "board_id", nullable = false, length = 64)
+    private String boardId;
+
     @Column(name = "z_index")
     private int zindex;
 
@@ -44,4 +49,18 @@ public class WidgetEntity extends AbstractEntity {
     @Column(name = "height")
     private int height;
 
+    // Bounding box edges (derived from the coordinates and size, indexed for the area queries)
+
+    @Column(name = "left_edge")
+    private int leftEdge;
+
+    @Column(name = "bottom_edge")
+    private int bottomEdge;
+
+    @Column(name = "right_edge")
+    private int rightEdge;
+
+    @Column(name = "top_edge")
+    private int topEdge;
+
 }
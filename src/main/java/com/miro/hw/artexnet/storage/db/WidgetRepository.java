@@ -1,42 +1,184 @@
 package com.miro.hw.artexnet.storage.db;
 
+import com.miro.hw.artexnet.domain.Widget;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
-public interface WidgetRepository extends JpaRepository<WidgetEntity, Long> {
+public interface WidgetRepository extends JpaRepository<WidgetEntity, Long>, WidgetRepositoryCustom {
+
+    /**
+     * Maps the rows right to the widgets (read-only, the entities are not loaded into the persistence context).
+     */
+    String WIDGET_PROJECTION = "SELECT new com.miro.hw.artexnet.domain.Widget(" +
+            "w.id, w.zindex, w.x, w.y, w.width, w.height, w.dateModified) FROM WidgetEntity w ";
+
+    WidgetEntity getTopByBoardIdOrderByZindexDesc(String boardId);
+
+    Optional<WidgetEntity> findByIdAndBoardId(long id, String boardId);
+
+    @Query(WIDGET_PROJECTION + "WHERE w.id = ?1 AND w.boardId = ?2")
+    Optional<Widget> findWidgetByIdAndBoardId(long id, String boardId);
+
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = ?1 AND w.id IN ?2")
+    List<Widget> findWidgetsByBoardIdAndIdIn(String boardId, Collection<Long> ids);
+
+    long countByBoardId(String boardId);
+
+    @Query("SELECT COUNT(w.id) FROM WidgetEntity w WHERE w.boardId = ?1 AND w.zindex = ?2 AND w.id <> ?3")
+    long countByZIndex(String boardId, int zIndex, long excludedId);
+
+    /**
+     * Gets the last z-index of the contiguous run starting from the specified one (the first gap is right above it).
+     * The excluded widget does not occupy its z-index (as it gets released on update).
+     */
+    @Query(value = "SELECT w.z_index FROM t_widget w " +
+            "WHERE w.board_id = :boardId AND w.z_index >= :zIndex AND w.id <> :excludedId " +
+            "AND NOT EXISTS (SELECT 1 FROM t_widget n WHERE n.board_id = w.board_id " +
+            "AND n.z_index = w.z_index + 1 AND n.id <> :excludedId) " +
+            "ORDER BY w.board_id, w.z_index LIMIT 1", nativeQuery = true)
+    int findZIndexRunEnd(@Param("boardId") String boardId, @Param("zIndex") int zIndex,
+                         @Param("excludedId") long excludedId);
+
+    /**
+     * Increments z-indexes within the range and moves the specified widget (if any) to the range start.
+     * Unique z-indexes are kept as the whole set of rows gets updated by a single statement.
+     *
+     * Relies on H2 checking the unique (board_id, z_index) key once per statement: the databases checking
+     * it per row (MySQL/InnoDB, PostgreSQL unless the constraint is DEFERRABLE) reject the update as soon as
+     * a row moves onto the z-index of a row not shifted yet. Such a database needs a deferrable constraint,
+     * or the rows parked out of the range before the shift.
+     * @return the count of updated widgets.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE WidgetEntity w " +
+            "SET w.zindex = CASE WHEN w.id = :widgetId THEN :zIndex ELSE (w.zindex + 1) END, " +
+            "w.version = w.version + 1, w.dateModified = :dateModified " +
+            "WHERE w.boardId = :boardId AND (w.zindex BETWEEN :zIndex AND :runEnd OR w.id = :widgetId)")
+    int shiftZIndexes(@Param("boardId") String boardId, @Param("widgetId") long widgetId,
+                      @Param("zIndex") int zIndex, @Param("runEnd") int runEnd,
+                      @Param("dateModified") LocalDateTime dateModified);
+
+    /**
+     * Deletes the widgets of the board (without loading the entities).
+     * @return the count of deleted widgets.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM WidgetEntity w WHERE w.boardId = ?1 AND w.id IN ?2")
+    int deleteByBoardIdAndIdIn(String boardId, Collection<Long> ids);
+
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = ?1 AND w.zindex BETWEEN ?2 AND ?3 ORDER BY w.zindex")
+    List<Widget> findAllInZIndexRange(String boardId, int fromZIndex, int toZIndex);
 
-    WidgetEntity getTopByOrderByZindexDesc();
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = ?1 ORDER BY w.zindex DESC")
+    List<Widget> findAllOrderedByZIndex(String boardId, Pageable pageable);
 
-    @Query("SELECT COUNT(w.id) FROM WidgetEntity w WHERE w.zindex = ?1")
-    long countByZIndex(int zIndex);
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = ?1 AND w.zindex < ?2 ORDER BY w.zindex DESC")
+    List<Widget> findAllBelowZIndexOrderedByZIndex(String boardId, int zIndex, Pageable pageable);
 
-    @Query("SELECT w FROM WidgetEntity w WHERE w.zindex >= ?1 ORDER BY w.zindex DESC")
-    List<WidgetEntity> findAllWithEqualOrGreaterZIndex(int zIndex);
+    /**
+     * Streams the widgets through the forward-only cursor (must be consumed within the transaction).
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = ?1 ORDER BY w.zindex DESC")
+    Stream<Widget> streamAllOrderedByZIndex(String boardId);
 
-    @Query("SELECT w FROM WidgetEntity w ORDER BY w.zindex DESC")
-    List<WidgetEntity> findAllOrderedByZIndex(Pageable pageable);
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = :boardId " +
+            "AND w.leftEdge >= :leftX AND w.bottomEdge >= :leftY " +
+            "AND w.rightEdge <= :rightX AND w.topEdge <= :rightY " +
+            "ORDER BY w.zindex DESC")
+    List<Widget> findAllInAreaOrderedByZIndex(
+            @Param("boardId") String boardId,
+            @Param("leftX") int leftX, @Param("leftY") int leftY,
+            @Param("rightX") int rightX, @Param("rightY") int rightY,
+            Pageable pageable);
+
+    /**
+     * Streams the widgets within the area through the forward-only cursor (must be consumed within the transaction).
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = :boardId " +
+            "AND w.leftEdge >= :leftX AND w.bottomEdge >= :leftY " +
+            "AND w.rightEdge <= :rightX AND w.topEdge <= :rightY " +
+            "ORDER BY w.zindex DESC")
+    Stream<Widget> streamAllInAreaOrderedByZIndex(
+            @Param("boardId") String boardId,
+            @Param("leftX") int leftX, @Param("leftY") int leftY,
+            @Param("rightX") int rightX, @Param("rightY") int rightY);
 
-    @Query("SELECT w FROM WidgetEntity w WHERE 1 = 1 " +  // aesthetic ))
-            "AND w.x - (w.width / 2) >= :leftX " +
-            "AND w.y - (w.height / 2) >= :leftY " +
-            "AND w.x + (w.width / 2) <= :rightX " +
-            "AND w.y + (w.height / 2) <= :rightY " +
+    @Query(WIDGET_PROJECTION + "WHERE w.boardId = :boardId AND w.zindex < :zIndex " +
+            "AND w.leftEdge >= :leftX AND w.bottomEdge >= :leftY " +
+            "AND w.rightEdge <= :rightX AND w.topEdge <= :rightY " +
             "ORDER BY w.zindex DESC")
-    List<WidgetEntity> findAllInAreaOrderedByZIndex(
+    List<Widget> findAllInAreaBelowZIndexOrderedByZIndex(
+            @Param("boardId") String boardId, @Param("zIndex") int zIndex,
             @Param("leftX") int leftX, @Param("leftY") int leftY,
             @Param("rightX") int rightX, @Param("rightY") int rightY,
             Pageable pageable);
 
-    @Query("SELECT COUNT(w.id) FROM WidgetEntity w " +
-            "WHERE w.x - (w.width / 2) >= :leftX " +
-            "AND w.y - (w.height / 2) >= :leftY " +
-            "AND w.x + (w.width / 2) <= :rightX " +
-            "AND w.y + (w.height / 2) <= :rightY")
-    long countByArea(@Param("leftX") int leftX, @Param("leftY") int leftY,@Param("rightX") int rightX, @Param("rightY") int rightY);
+    @Query("SELECT COUNT(w.id) FROM WidgetEntity w WHERE w.boardId = :boardId " +
+            "AND w.leftEdge >= :leftX AND w.bottomEdge >= :leftY " +
+            "AND w.rightEdge <= :rightX AND w.topEdge <= :rightY")
+    long countByArea(@Param("boardId") String boardId,
+                     @Param("leftX") int leftX, @Param("leftY") int leftY,
+                     @Param("rightX") int rightX, @Param("rightY") int rightY);
+
+    // region <ASSIGNED IDS>
+
+    /**
+     * Reserves the next block of IDs (the pooled sequence value is the last ID of the block).
+     */
+    @Transactional
+    @Query(value = "SELECT NEXT VALUE FOR s_widget_id", nativeQuery = true)
+    long reserveIdBlock();
+
+    /**
+     * Inserts the widget with the already assigned ID (bypassing the ID generation).
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO t_widget (id, board_id, z_index, x_coordinate, y_coordinate, width, height, " +
+            "left_edge, bottom_edge, right_edge, top_edge, version, date_created, date_modified) " +
+            "VALUES (:#{#w.id}, :#{#w.boardId}, :#{#w.zindex}, :#{#w.x}, :#{#w.y}, :#{#w.width}, :#{#w.height}, " +
+            ":#{#w.leftEdge}, :#{#w.bottomEdge}, :#{#w.rightEdge}, :#{#w.topEdge}, 0, " +
+            ":#{#w.dateModified}, :#{#w.dateModified})", nativeQuery = true)
+    void insertWithId(@Param("w") WidgetEntity entity);
+
+    /**
+     * Overwrites the widget attributes (without loading the entity).
+     * @return the count of updated widgets.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE WidgetEntity w SET w.zindex = :#{#w.zindex}, w.x = :#{#w.x}, w.y = :#{#w.y}, " +
+            "w.width = :#{#w.width}, w.height = :#{#w.height}, " +
+            "w.leftEdge = :#{#w.leftEdge}, w.bottomEdge = :#{#w.bottomEdge}, " +
+            "w.rightEdge = :#{#w.rightEdge}, w.topEdge = :#{#w.topEdge}, " +
+            "w.version = w.version + 1, w.dateModified = :#{#w.dateModified} " +
+            "WHERE w.id = :#{#w.id} AND w.boardId = :#{#w.boardId}")
+    int overwrite(@Param("w") WidgetEntity entity);
+
+    /**
+     * Deletes the widget (without loading the entity).
+     * @return the count of deleted widgets.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM WidgetEntity w WHERE w.id = ?1 AND w.boardId = ?2")
+    int deleteByIdAndBoardId(long id, String boardId);
+
+    // endregion
 }
@@ -0,0 +1,26 @@
+package com.miro.hw.artexnet.storage.db;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statements written through the JDBC batches (implemented by {@link WidgetRepositoryImpl}).
+ */
+public interface WidgetRepositoryCustom {
+
+    /**
+     * Moves the widgets to the specified z-indexes and shifts the z-indexes within the ranges. The statements
+     * keep the same text whatever the count of moves and shifts (so they are prepared once and batched):
+     * the moved widgets get parked at the free z-indexes first, then the ranges get shifted (one statement
+     * per range, like {@link WidgetRepository#shiftZIndexes}), then the moved widgets get their z-indexes.
+     * The range shifts depend on the unique z-index key being checked per statement (as by H2), the same way
+     * {@link WidgetRepository#shiftZIndexes} does.
+     * @param zIndexes z-indexes of the moved widgets {ID/Z-index}.
+     * @param shifts shifts of the other widgets (the moved ones are excluded).
+     * @return the count of updated widgets.
+     */
+    int moveZIndexes(String boardId, Map<Long, Integer> zIndexes, List<ZIndexShift> shifts,
+                     LocalDateTime dateModified);
+
+}
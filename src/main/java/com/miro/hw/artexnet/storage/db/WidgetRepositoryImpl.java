@@ -0,0 +1,130 @@
+package com.miro.hw.artexnet.storage.db;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+class WidgetRepositoryImpl implements WidgetRepositoryCustom {
+    private static final String PARK_STATEMENT = "UPDATE t_widget SET z_index = ? WHERE id = ?";
+
+    // Same dependency on the per-statement unique key check as WidgetRepository#shiftZIndexes:
+    // the range moves onto its own z-indexes (rejected by the databases checking the key per row)
+    private static final String SHIFT_STATEMENT = "UPDATE t_widget " +
+            "SET z_index = z_index + ?, version = version + 1, date_modified = ? " +
+            "WHERE board_id = ? AND z_index BETWEEN ? AND ?";
+
+    private static final String MOVE_STATEMENT = "UPDATE t_widget " +
+            "SET z_index = ?, version = version + 1, date_modified = ? WHERE id = ?";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int moveZIndexes(String boardId, Map<Long, Integer> zIndexes, List<ZIndexShift> shifts,
+                            LocalDateTime dateModified) {
+        if (zIndexes.isEmpty() && shifts.isEmpty())
+            return 0;
+
+        // same as the modifying repository queries: pending changes first, stale entities dropped afterwards
+        entityManager.flush();
+        final long parkingStart = zIndexes.isEmpty() ? 0 : getParkingStart(boardId, zIndexes, shifts);
+        final Timestamp modified = Timestamp.valueOf(dateModified);
+        int updated = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            if (zIndexes.isEmpty())
+                return shift(connection, boardId, shifts, modified);
+
+            // the moved widgets get out of the way first, so the shifted ranges exclude them
+            try (PreparedStatement park = connection.prepareStatement(PARK_STATEMENT)) {
+                long zIndex = parkingStart;
+                for (Long widgetId : zIndexes.keySet()) {
+                    park.setInt(1, (int) zIndex++);
+                    park.setLong(2, widgetId);
+                    park.addBatch();
+                }
+                park.executeBatch();
+            }
+
+            int count = shift(connection, boardId, shifts, modified);
+            try (PreparedStatement move = connection.prepareStatement(MOVE_STATEMENT)) {
+                for (Map.Entry<Long, Integer> entry : zIndexes.entrySet()) {
+                    move.setInt(1, entry.getValue());
+                    move.setTimestamp(2, modified);
+                    move.setLong(3, entry.getKey());
+                    move.addBatch();
+                }
+                count += sumUpdated(move.executeBatch());
+            }
+            return count;
+        });
+        entityManager.clear();
+        return updated;
+    }
+
+    /**
+     * Shifts the ranges, the top one first, so each range moves up to the z-indexes released already.
+     * @return the count of shifted widgets.
+     */
+    private static int shift(Connection connection, String boardId, List<ZIndexShift> shifts,
+                             Timestamp modified) throws SQLException {
+        if (shifts.isEmpty())
+            return 0;
+
+        try (PreparedStatement shift = connection.prepareStatement(SHIFT_STATEMENT)) {
+            for (int i = shifts.size() - 1; i >= 0; i--) {
+                shift.setInt(1, shifts.get(i).getDelta());
+                shift.setTimestamp(2, modified);
+                shift.setString(3, boardId);
+                shift.setInt(4, shifts.get(i).getFromZIndex());
+                shift.setInt(5, shifts.get(i).getToZIndex());
+                shift.addBatch();
+            }
+            return sumUpdated(shift.executeBatch());
+        }
+    }
+
+    /**
+     * Gets the first of the free z-indexes the moved widgets are parked at: right below the lowest z-index
+     * (stored or final), or right above the highest one once there is no room below.
+     */
+    private long getParkingStart(String boardId, Map<Long, Integer> zIndexes, List<ZIndexShift> shifts) {
+        Object[] range = (Object[]) entityManager.createQuery("SELECT MIN(w.zindex), MAX(w.zindex) " +
+                "FROM WidgetEntity w WHERE w.boardId = :boardId")
+                .setParameter("boardId", boardId)
+                .getSingleResult();
+        long lowest = range[0] == null ? 0 : (Integer) range[0];
+        long highest = range[1] == null ? 0 : (Integer) range[1];
+        for (ZIndexShift shift : shifts) {
+            highest = Math.max(highest, (long) shift.getToZIndex() + shift.getDelta());
+        }
+        for (Integer zIndex : zIndexes.values()) {
+            lowest = Math.min(lowest, zIndex);
+            highest = Math.max(highest, zIndex);
+        }
+
+        long start = lowest - zIndexes.size();
+        if (start >= Integer.MIN_VALUE)
+            return start;
+        if (highest + zIndexes.size() <= Integer.MAX_VALUE)
+            return highest + 1;
+        throw new IllegalStateException("No free z-indexes to move the widgets of the board " + boardId);
+    }
+
+    private static int sumUpdated(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            // count may be unknown (the driver reports the statement succeeded only)
+            if (count > 0)
+                sum += count;
+        }
+        return sum;
+    }
+
+}
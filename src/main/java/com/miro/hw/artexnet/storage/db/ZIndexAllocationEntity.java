@@ -0,0 +1,32 @@
+package com.miro.hw.artexnet.storage.db;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Z-index allocation row. Writers lock the row of the board (boards are spread over a fixed
+ * set of rows by hash) to get exclusive access to the board's z-index space.
+ * The row version is bumped by every write of its boards (the version of the boards).
+ */
+@Entity
+@Table(name = "t_z_allocation")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ZIndexAllocationEntity implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "stripe")
+    private int stripe;
+
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    public ZIndexAllocationEntity(int stripe) {
+        this.stripe = stripe;
+    }
+
+}
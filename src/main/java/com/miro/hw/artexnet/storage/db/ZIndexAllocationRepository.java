@@ -0,0 +1,23 @@
+package com.miro.hw.artexnet.storage.db;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ZIndexAllocationRepository extends JpaRepository<ZIndexAllocationEntity, Integer> {
+
+    /**
+     * Bumps the version of the allocation row, so the row is locked until the end of the transaction.
+     * @return the count of updated rows (none if the row is missing).
+     */
+    @Modifying
+    @Query("UPDATE ZIndexAllocationEntity a SET a.version = a.version + 1 WHERE a.stripe = ?1")
+    int incrementVersion(int stripe);
+
+    @Query("SELECT a.version FROM ZIndexAllocationEntity a WHERE a.stripe = ?1")
+    Optional<Long> findVersionByStripe(int stripe);
+}
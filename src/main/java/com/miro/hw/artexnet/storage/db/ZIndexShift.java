@@ -0,0 +1,13 @@
+package com.miro.hw.artexnet.storage.db;
+
+import lombok.Value;
+
+/**
+ * Shift of the stored z-indexes within the inclusive range by the same delta.
+ */
+@Value
+public class ZIndexShift {
+    int fromZIndex;
+    int toZIndex;
+    int delta;
+}
@@ -0,0 +1,42 @@
+package com.miro.hw.artexnet.storage.hybrid;
+
+import com.miro.hw.artexnet.domain.Widget;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Change applied to the in-memory storage, waiting to be written to the database.
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+final class WidgetChange {
+
+    enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    private final Type type;
+    private final String boardId;
+    private final long widgetId;
+
+    // Widget state right after the change (missing for the deleted widgets)
+    private final Widget widget;
+
+    static WidgetChange created(String boardId, Widget widget) {
+        return new WidgetChange(Type.CREATED, boardId, widget.getId(), widget.toBuilder().build());
+    }
+
+    static WidgetChange updated(String boardId, Widget widget) {
+        return new WidgetChange(Type.UPDATED, boardId, widget.getId(), widget.toBuilder().build());
+    }
+
+    static WidgetChange deleted(String boardId, long widgetId) {
+        return new WidgetChange(Type.DELETED, boardId, widgetId, null);
+    }
+
+}
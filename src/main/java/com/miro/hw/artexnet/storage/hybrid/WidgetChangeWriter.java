@@ -0,0 +1,80 @@
+package com.miro.hw.artexnet.storage.hybrid;
+
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.storage.db.WidgetDatabaseStorage;
+import com.miro.hw.artexnet.storage.db.WidgetEntity;
+import com.miro.hw.artexnet.storage.db.WidgetRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.IncorrectUpdateSemanticsDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Replays the in-memory storage changes against the database. Z-index shifts are not reported
+ * by the changes, so they get recalculated the same way the in-memory storage applied them
+ * (the contiguous run starting from the widget's z-index is shifted up to the first gap).
+ */
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "hybrid")
+class WidgetChangeWriter {
+
+    private final WidgetRepository repository;
+    private final WidgetDatabaseStorage databaseStorage;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    @Autowired
+    WidgetChangeWriter(WidgetRepository repository, WidgetDatabaseStorage databaseStorage) {
+        this.repository = repository;
+        this.databaseStorage = databaseStorage;
+    }
+
+    /**
+     * Applies the changes (in the specified order) within a single transaction.
+     * @throws IncorrectUpdateSemanticsDataAccessException if the updated widget is not stored
+     * (the changes are rolled back, so the batch is retried instead of being reported as written).
+     */
+    @Transactional
+    public void apply(List<WidgetChange> changes) {
+        for (WidgetChange change : changes) {
+            switch (change.getType()) {
+                case CREATED:
+                    shiftZIndexes(change.getBoardId(), change.getWidget());
+                    repository.insertWithId(toEntity(change));
+                    break;
+                case UPDATED:
+                    shiftZIndexes(change.getBoardId(), change.getWidget());
+                    if (repository.overwrite(toEntity(change)) == 0) {
+                        throw new IncorrectUpdateSemanticsDataAccessException(String.format(
+                                "Updated widget %s of the board %s is not stored", change.getWidgetId(), change.getBoardId()));
+                    }
+                    break;
+                case DELETED:
+                    // deletes are idempotent: the widget may be deleted already
+                    repository.deleteByIdAndBoardId(change.getWidgetId(), change.getBoardId());
+                    break;
+            }
+        }
+    }
+
+    private void shiftZIndexes(String boardId, Widget widget) {
+        final long widgetId = widget.getId();
+        final int zIndex = widget.getZ_index();
+        if (repository.countByZIndex(boardId, zIndex, widgetId) == 0)
+            return;
+
+        int runEnd = repository.findZIndexRunEnd(boardId, zIndex, widgetId);
+        repository.shiftZIndexes(boardId, widgetId, zIndex, runEnd, widget.getDateModified());
+    }
+
+    private WidgetEntity toEntity(WidgetChange change) {
+        WidgetEntity entity = databaseStorage.toEntity(change.getBoardId(), change.getWidget());
+        entity.setDateModified(change.getWidget().getDateModified());
+        return entity;
+    }
+
+}
@@ -0,0 +1,447 @@
+package com.miro.hw.artexnet.storage.hybrid;
+
+import com.miro.hw.artexnet.common.ErrorCode;
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
+import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
+import com.miro.hw.artexnet.exception.ServiceUnavailableException;
+import com.miro.hw.artexnet.exception.ValidationException;
+import com.miro.hw.artexnet.storage.BoardVersionListener;
+import com.miro.hw.artexnet.storage.StorageType;
+import com.miro.hw.artexnet.storage.WidgetChangeListener;
+import com.miro.hw.artexnet.storage.WidgetChangeLog;
+import com.miro.hw.artexnet.storage.WidgetStorage;
+import com.miro.hw.artexnet.storage.db.WidgetEntity;
+import com.miro.hw.artexnet.storage.db.WidgetRepository;
+import com.miro.hw.artexnet.storage.local.AreaIndexType;
+import com.miro.hw.artexnet.storage.local.WidgetLocalStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Widgets storage served from memory (by the {@link WidgetLocalStorage} structures), writing the changes
+ * behind to the database: changes are queued and flushed in batches by a background thread.
+ * The widgets get loaded from the database on startup (before the web server starts, so the node reports
+ * readiness only once loaded). IDs are reserved from the database sequence, so they never clash
+ * with the IDs assigned by the database storage.
+ *
+ * Writers wait for the flush once the count of queued changes reaches the configured maximum lag,
+ * which bounds the changes lost on a crash; writers waiting too long get rejected (the storage is unavailable).
+ * Changes are never dropped: a failed batch stays queued and gets retried with the growing backoff
+ * (up to the configured maximum), the node refuses the traffic (readiness) until the flush succeeds again.
+ * Queued changes get flushed on shutdown.
+ *
+ * Created only once selected ({@code storage.type: hybrid}), so the other storages never load the widgets
+ * or run the background flush.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "hybrid")
+public class WidgetHybridStorage implements WidgetStorage, WidgetChangeListener {
+    private static final int FLUSH_BATCH_SIZE = 500;
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_MAX_LAG_WAIT = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_MAX_FLUSH_BACKOFF = Duration.ofSeconds(30);
+
+    private final WidgetRepository repository;
+    private final WidgetStorageLoader loader;
+    private final WidgetChangeWriter writer;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // In-memory storage serving all requests
+    private final WidgetLocalStorage localStorage;
+
+    // Changes waiting for the flush (ordered per board)
+    private final ConcurrentLinkedQueue<WidgetChange> changes;
+
+    // Permits for the changes not flushed yet
+    private final Semaphore backlog;
+    private final int maxLag;
+    private final Duration maxLagWait;
+    private final Duration flushInterval;
+    private final Duration maxFlushBackoff;
+
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested;
+
+    // Batch being flushed (kept for the retry if the flush fails) and its failed flushes (guarded by the storage)
+    private final List<WidgetChange> batch;
+    private int batchFailures;
+
+    // Time the background flush is retried after the failure (System.nanoTime)
+    private volatile long retryTime;
+
+    // Reserved IDs block (guarded by the lock)
+    private final Object idLock = new Object();
+    private long nextId;
+    private long lastReservedId;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    public WidgetHybridStorage(WidgetRepository repository, WidgetStorageLoader loader, WidgetChangeWriter writer,
+                               AreaIndexType areaIndexType, Duration boardIdleTimeout, Duration flushInterval,
+                               int maxLag) {
+        this(repository, loader, writer, event -> { }, areaIndexType, boardIdleTimeout,
+                WidgetChangeLog.DEFAULT_CAPACITY, flushInterval, maxLag, DEFAULT_MAX_LAG_WAIT, DEFAULT_MAX_FLUSH_BACKOFF);
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified count of the changes kept by the log,
+     * the writers wait for the flush and the maximum backoff of the failing flush.
+     * @param eventPublisher publisher of the readiness changes.
+     */
+    @Autowired
+    public WidgetHybridStorage(WidgetRepository repository, WidgetStorageLoader loader, WidgetChangeWriter writer,
+                               ApplicationEventPublisher eventPublisher,
+                               @Value("${storage.local.areaIndex:rtree}") AreaIndexType areaIndexType,
+                               @Value("${storage.local.boardIdleTimeout:10m}") Duration boardIdleTimeout,
+                               @Value("${storage.changeLog.capacity:10000}") int changeLogCapacity,
+                               @Value("${storage.hybrid.flushInterval:500ms}") Duration flushInterval,
+                               @Value("${storage.hybrid.maxLag:10000}") int maxLag,
+                               @Value("${storage.hybrid.maxLagWait:5s}") Duration maxLagWait,
+                               @Value("${storage.hybrid.maxFlushBackoff:30s}") Duration maxFlushBackoff) {
+        this.repository = repository;
+        this.loader = loader;
+        this.writer = writer;
+        this.eventPublisher = eventPublisher;
+        this.localStorage = new WidgetLocalStorage(areaIndexType, boardIdleTimeout, changeLogCapacity,
+                this::nextId, this);
+        this.changes = new ConcurrentLinkedQueue<>();
+        this.backlog = new Semaphore(maxLag);
+        this.maxLag = maxLag;
+        this.maxLagWait = maxLagWait;
+        this.flushInterval = flushInterval;
+        this.maxFlushBackoff = maxFlushBackoff;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "widget-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushRequested = new AtomicBoolean();
+        this.batch = new ArrayList<>(FLUSH_BATCH_SIZE);
+    }
+
+    /**
+     * Loads the stored widgets and starts flushing the changes.
+     */
+    @PostConstruct
+    public void start() {
+        final long startTime = System.nanoTime();
+        long loaded = loader.load(localStorage);
+        log.info("Loaded {} widgets in {} ms, flushing the changes every {}",
+                loaded, (System.nanoTime() - startTime) / 1_000_000, flushInterval);
+
+        final long intervalMillis = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::flushSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background flush and writes the queued changes. Failed flushes are retried with the backoff
+     * until the shutdown timeout; the changes still queued then are reported (they are lost).
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        final long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT.toNanos();
+        flusher.shutdown();
+        if (!flusher.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+            log.warn("Background flush did not stop in {}", SHUTDOWN_TIMEOUT);
+
+        final int pending = getLag();
+        while (true) {
+            try {
+                flush();
+                log.info("Flushed {} widget changes on shutdown", pending);
+                return;
+            } catch (RuntimeException e) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    log.error("Failed to flush widget changes on shutdown in {}: {} changes are not written, " +
+                            "widget IDs: {}", SHUTDOWN_TIMEOUT, getLag(), getPendingWidgetIds(), e);
+                    return;
+                }
+                Duration backoff = getFlushBackoff();
+                log.warn("Failed to flush widget changes on shutdown, {} pending, retrying in {}", getLag(), backoff, e);
+                TimeUnit.NANOSECONDS.sleep(Math.min(backoff.toNanos(), remainingNanos));
+            }
+        }
+    }
+
+    @Override
+    public Widget createWidget(String boardId, Widget widget) {
+        return withBacklogPermit(() -> localStorage.createWidget(boardId, widget));
+    }
+
+    @Override
+    public WidgetsCollection getWidgets(String boardId, int page, int size, Area area, boolean includeTotal) {
+        return localStorage.getWidgets(boardId, page, size, area, includeTotal);
+    }
+
+    @Override
+    public WidgetsCollection getWidgets(String boardId, PageCursor cursor, int size, Area area, boolean includeTotal) {
+        return localStorage.getWidgets(boardId, cursor, size, area, includeTotal);
+    }
+
+    @Override
+    public void forEachWidget(String boardId, Area area, Consumer<Widget> action) {
+        localStorage.forEachWidget(boardId, area, action);
+    }
+
+    @Override
+    public Optional<Widget> getById(String boardId, long widgetId) {
+        return localStorage.getById(boardId, widgetId);
+    }
+
+    @Override
+    public long getWidgetsCount(String boardId) {
+        return localStorage.getWidgetsCount(boardId);
+    }
+
+    @Override
+    public long getWidgetsCount(String boardId, Area area) {
+        return localStorage.getWidgetsCount(boardId, area);
+    }
+
+    @Override
+    public long getBoardVersion(String boardId) {
+        return localStorage.getBoardVersion(boardId);
+    }
+
+    @Override
+    public WidgetChanges getChanges(String boardId, long sinceVersion, Area area) {
+        return localStorage.getChanges(boardId, sinceVersion, area);
+    }
+
+    @Override
+    public void addVersionListener(BoardVersionListener listener) {
+        localStorage.addVersionListener(listener);
+    }
+
+    @Override
+    public Widget updateWidget(String boardId, Widget widget) {
+        return withBacklogPermit(() -> localStorage.updateWidget(boardId, widget));
+    }
+
+    @Override
+    public void deleteById(String boardId, long widgetId) {
+        withBacklogPermit(() -> {
+            localStorage.deleteById(boardId, widgetId);
+            return null;
+        });
+    }
+
+    /**
+     * Applies the batch in memory (under a single board lock), holding the backlog permits
+     * for all of its changes.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(String boardId, List<WidgetOperation> operations) {
+        if (operations.size() > maxLag)
+            throw new ValidationException(String.format("Batch exceeds %s operations", maxLag));
+
+        acquireBacklog(operations.size());
+        int unchanged = operations.size();
+        try {
+            List<WidgetOperationResult> results = localStorage.applyBatch(boardId, operations);
+            unchanged = (int) results.stream()
+                    .filter(result -> result.getStatus() == WidgetOperationResult.Status.UNCHANGED)
+                    .count();
+            return results;
+        } finally {
+            // unchanged widgets are not queued
+            backlog.release(unchanged);
+        }
+    }
+
+    /**
+     * Writes all queued changes to the database. The failed batch stays queued (the changes keep
+     * their backlog permits), so it gets written first by the next flush.
+     * @return the count of written changes.
+     */
+    public synchronized int flush() {
+        int flushed = 0;
+        while (true) {
+            // the failed batch gets retried first
+            if (batch.isEmpty()) {
+                WidgetChange change;
+                while (batch.size() < FLUSH_BATCH_SIZE && (change = changes.poll()) != null) {
+                    batch.add(change);
+                }
+                if (batch.isEmpty())
+                    return flushed;
+            }
+
+            try {
+                writer.apply(batch);
+            } catch (RuntimeException e) {
+                if (++batchFailures == 1)
+                    AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+                retryTime = System.nanoTime() + getFlushBackoff().toNanos();
+                throw e;
+            }
+            flushed += batch.size();
+            backlog.release(batch.size());
+            batch.clear();
+            if (batchFailures != 0) {
+                log.info("Widget changes are flushed again after {} failed flushes", batchFailures);
+                batchFailures = 0;
+                AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+            }
+        }
+    }
+
+    /**
+     * Gets the delay of the next flush after the failed ones: the flush interval doubled by every failure
+     * (up to the configured maximum).
+     */
+    private synchronized Duration getFlushBackoff() {
+        if (batchFailures == 0)
+            return Duration.ZERO;
+
+        Duration backoff = flushInterval.multipliedBy(1L << Math.min(batchFailures - 1, 20));
+        return backoff.compareTo(maxFlushBackoff) > 0 ? maxFlushBackoff : backoff;
+    }
+
+    /**
+     * Gets the IDs of the widgets whose changes are not written yet.
+     */
+    private synchronized Set<Long> getPendingWidgetIds() {
+        Set<Long> widgetIds = new LinkedHashSet<>();
+        batch.forEach(change -> widgetIds.add(change.getWidgetId()));
+        changes.forEach(change -> widgetIds.add(change.getWidgetId()));
+        return widgetIds;
+    }
+
+    /**
+     * Gets whether the last flush failed (the queued changes are retried, the node is not ready).
+     */
+    public synchronized boolean isFlushFailing() {
+        return batchFailures != 0;
+    }
+
+    /**
+     * Gets the count of changes not written to the database yet.
+     */
+    public int getLag() {
+        return maxLag - backlog.availablePermits();
+    }
+
+    // region <CHANGES>
+
+    @Override
+    public void widgetCreated(String boardId, Widget widget) {
+        enqueue(WidgetChange.created(boardId, widget));
+    }
+
+    @Override
+    public void widgetUpdated(String boardId, Widget widget) {
+        enqueue(WidgetChange.updated(boardId, widget));
+    }
+
+    @Override
+    public void widgetDeleted(String boardId, long widgetId) {
+        enqueue(WidgetChange.deleted(boardId, widgetId));
+    }
+
+    private void enqueue(WidgetChange change) {
+        changes.add(change);
+
+        // full batch: no reason to wait for the next interval
+        if (getLag() >= FLUSH_BATCH_SIZE && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushRequested.set(false);
+                    flushSafely();
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down: the change is queued, the shutdown flush writes it
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Runs the change, holding the backlog permit for the change to be flushed
+     * (the permit is returned right away if the change fails).
+     */
+    private <T> T withBacklogPermit(Supplier<T> change) {
+        acquireBacklog(1);
+        try {
+            return change.get();
+        } catch (RuntimeException e) {
+            backlog.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the backlog permits, waiting for the flush up to the configured time.
+     * @throws ServiceUnavailableException if the flush is behind for too long.
+     */
+    private void acquireBacklog(int permits) {
+        boolean acquired;
+        try {
+            acquired = backlog.tryAcquire(permits, maxLagWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            throw new ServiceUnavailableException(String.format("Widget changes are not flushed for %s, %s pending",
+                    maxLagWait, getLag()), ErrorCode.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private void flushSafely() {
+        // backing off after the failure
+        if (isFlushFailing() && System.nanoTime() - retryTime < 0)
+            return;
+
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to flush widget changes, {} pending, retrying in {}", getLag(), getFlushBackoff(), e);
+        }
+    }
+
+    // endregion
+
+    private long nextId() {
+        synchronized (idLock) {
+            if (nextId == 0 || nextId > lastReservedId) {
+                lastReservedId = repository.reserveIdBlock();
+                nextId = Math.max(1, lastReservedId - WidgetEntity.ID_ALLOCATION_SIZE + 1);
+            }
+            return nextId++;
+        }
+    }
+
+    @Override
+    public StorageType getStorageType() {
+        return StorageType.HYBRID;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.miro.hw.artexnet.storage.hybrid;
+
+import com.miro.hw.artexnet.storage.local.WidgetBoardLoader;
+import com.miro.hw.artexnet.storage.local.WidgetLocalStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the stored widgets into the in-memory storage. The widgets get streamed in board/z-index order
+ * (by the unique z-index index) through a forward-only cursor, so no result list is materialized;
+ * every board gets built in bulk by the pool of builders while the next boards are being read.
+ *
+ * Reads run outside of any transaction, so they go to the primary database (the replica might lag behind).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "storage.type", havingValue = "hybrid")
+public class WidgetStorageLoader {
+    private static final String SELECT_WIDGETS = "SELECT board_id, id, z_index, x_coordinate, y_coordinate, " +
+            "width, height, date_modified FROM t_widget ORDER BY board_id, z_index";
+    private static final int FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int builderThreads;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    @Autowired
+    public WidgetStorageLoader(JdbcTemplate jdbcTemplate,
+                               @Value("${storage.hybrid.loadThreads:0}") int builderThreads) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.builderThreads = builderThreads > 0 ? builderThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Loads all stored widgets into the storage (the loaded boards must not be stored yet).
+     * @return the count of loaded widgets.
+     */
+    public long load(WidgetLocalStorage storage) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService builders = Executors.newFixedThreadPool(builderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "widget-loader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            BoardReader reader = new BoardReader(storage, builders);
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(SELECT_WIDGETS,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(FETCH_SIZE);
+                return statement;
+            }, reader);
+            return reader.finish();
+        } finally {
+            builders.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the widgets board by board, passing every complete board to the builders.
+     * Boards read but not built yet are bounded, so the reader waits for the slow builders.
+     */
+    private final class BoardReader implements RowCallbackHandler {
+        private final WidgetLocalStorage storage;
+        private final ExecutorService builders;
+        private final Semaphore pendingBoards;
+        private final List<Future<?>> builds;
+
+        private WidgetBoardLoader board;
+        private long loaded;
+
+        BoardReader(WidgetLocalStorage storage, ExecutorService builders) {
+            this.storage = storage;
+            this.builders = builders;
+            this.pendingBoards = new Semaphore(2 * builderThreads);
+            this.builds = new ArrayList<>();
+        }
+
+        @Override
+        public void processRow(ResultSet row) throws SQLException {
+            final String boardId = row.getString(1);
+            if (board == null || !board.getBoardId().equals(boardId)) {
+                build();
+                board = storage.loadBoard(boardId);
+            }
+
+            Timestamp dateModified = row.getTimestamp(8);
+            board.add(row.getLong(2), row.getInt(3), row.getInt(4), row.getInt(5), row.getInt(6), row.getInt(7),
+                    dateModified == null ? null : dateModified.toLocalDateTime());
+            loaded++;
+        }
+
+        /**
+         * Waits for all boards to be built.
+         * @return the count of loaded widgets.
+         */
+        long finish() {
+            build();
+            try {
+                for (Future<?> build : builds) {
+                    build.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Widgets loading interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to load the widgets", e.getCause());
+            }
+            log.info("Loaded {} widgets of {} boards", loaded, builds.size());
+            return loaded;
+        }
+
+        private void build() {
+            if (board == null)
+                return;
+
+            pendingBoards.acquireUninterruptibly();
+            final WidgetBoardLoader completed = board;
+            board = null;
+            builds.add(builders.submit(() -> {
+                try {
+                    completed.load();
+                } finally {
+                    pendingBoards.release();
+                }
+            }));
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Lookup of the widgets that fully fit into an area.
+ * Widgets are identified by their {@link WidgetColumns} slots.
+ */
+interface AreaIndex {
+
+    /**
+     * Indexes the widget stored in the slot.
+     */
+    void put(int slot);
+
+    /**
+     * Indexes the widgets stored in the slots (in bulk, if supported).
+     */
+    default void putAll(int[] slots, int count) {
+        for (int i = 0; i < count; i++) {
+            put(slots[i]);
+        }
+    }
+
+    /**
+     * Removes the widget stored in the slot from the index.
+     */
+    void remove(int slot);
+
+    /**
+     * Passes slots of the widgets that fully fit into the specified area to the consumer (in no particular order).
+     */
+    void search(Area area, IntConsumer consumer);
+
+    /**
+     * Gets the count of widgets that fully fit into the specified area.
+     */
+    int count(Area area);
+
+}
@@ -0,0 +1,6 @@
+package com.miro.hw.artexnet.storage.local;
+
+public enum AreaIndexType {
+    RTREE,
+    COLUMNAR
+}
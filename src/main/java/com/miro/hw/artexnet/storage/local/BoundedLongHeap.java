@@ -0,0 +1,86 @@
+package com.miro.hw.artexnet.storage.local;
+
+import java.util.Arrays;
+
+/**
+ * Primitive min-heap keeping the greatest <code>limit</code> values offered,
+ * so selecting the top of a large stream takes O(n log limit) time and O(limit) memory.
+ */
+final class BoundedLongHeap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final int limit;
+    private long[] values;
+    private int size;
+
+    /**
+     * Initializes a new instance of the class.
+     * @param limit the count of the greatest values to keep.
+     */
+    BoundedLongHeap(int limit) {
+        this.limit = limit;
+        this.values = new long[Math.max(Math.min(limit, DEFAULT_CAPACITY), 1)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void offer(long value) {
+        if (size < limit) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, (int) Math.min((long) size << 1, limit));
+            values[size] = value;
+            siftUp(size++);
+        } else if (limit > 0 && value > values[0]) {
+            values[0] = value;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Gets the kept values sorted descending.
+     */
+    long[] toDescendingArray() {
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            long value = sorted[i];
+            sorted[i] = sorted[j];
+            sorted[j] = value;
+        }
+        return sorted;
+    }
+
+    // region <HEAP>
+
+    private void siftUp(int index) {
+        final long value = values[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (values[parent] <= value)
+                break;
+            values[index] = values[parent];
+            index = parent;
+        }
+        values[index] = value;
+    }
+
+    private void siftDown(int index) {
+        final long value = values[index];
+        final int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            if (child + 1 < size && values[child + 1] < values[child])
+                child++;
+            if (value <= values[child])
+                break;
+            values[index] = values[child];
+            index = child;
+        }
+        values[index] = value;
+    }
+
+    // endregion
+
+}
@@ -0,0 +1,42 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Area lookup scanning the {@link WidgetColumns} directly: no index to maintain on writes,
+ * every lookup is a branch-free pass over the bounding box columns.
+ */
+final class ColumnarAreaIndex implements AreaIndex {
+
+    private final WidgetColumns columns;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    ColumnarAreaIndex(WidgetColumns columns) {
+        this.columns = columns;
+    }
+
+    @Override
+    public void put(int slot) {
+        // bounding boxes are read from the columns
+    }
+
+    @Override
+    public void remove(int slot) {
+        // released slots never match
+    }
+
+    @Override
+    public void search(Area area, IntConsumer consumer) {
+        columns.scan(area, consumer);
+    }
+
+    @Override
+    public int count(Area area) {
+        return columns.count(area);
+    }
+
+}
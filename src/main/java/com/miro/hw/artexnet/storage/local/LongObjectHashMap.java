@@ -0,0 +1,182 @@
+package com.miro.hw.artexnet.storage.local;
+
+/**
+ * Open-addressing (linear probing) hash map with primitive <code>long</code> keys.
+ * Keys are never boxed and every entry costs a slot in two flat arrays,
+ * instead of the node/index objects of the general purpose maps.
+ *
+ * The map is designed for a single writer: mutations must be serialized by the caller.
+ * Lookups never fail or loop on concurrent mutations (the table is swapped atomically on resize,
+ * probing is bounded by the table length), but may see stale data unless synchronized with the writer.
+ *
+ * @param <V> value type (<code>null</code> values are not supported).
+ */
+final class LongObjectHashMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private volatile Table table;
+    private int size;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    LongObjectHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes a new instance of the class with the capacity for the specified count of entries.
+     */
+    LongObjectHashMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        table = new Table(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        final Table current = table;
+        final int mask = current.keys.length - 1;
+        int slot = hash(key, mask);
+        for (int probe = 0; probe <= mask; probe++, slot = (slot + 1) & mask) {
+            final Object value = current.values[slot];
+            if (value == null)
+                return null;
+            if (current.keys[slot] == key)
+                return (V) value;
+        }
+        return null;
+    }
+
+    /**
+     * Associates the value with the key.
+     * @return the previous value or <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not supported");
+
+        Table current = table;
+        int mask = current.keys.length - 1;
+        int slot = hash(key, mask);
+        for (; current.values[slot] != null; slot = (slot + 1) & mask) {
+            if (current.keys[slot] == key) {
+                V previous = (V) current.values[slot];
+                current.values[slot] = value;
+                return previous;
+            }
+        }
+
+        if (size + 1 > current.keys.length * LOAD_FACTOR) {
+            current = resize(current.keys.length << 1);
+            mask = current.keys.length - 1;
+            slot = hash(key, mask);
+            while (current.values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        current.keys[slot] = key;
+        current.values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the key mapping.
+     * @return the removed value or <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        final Table current = table;
+        final int mask = current.keys.length - 1;
+        int slot = hash(key, mask);
+        for (; current.values[slot] != null; slot = (slot + 1) & mask) {
+            if (current.keys[slot] == key) {
+                V previous = (V) current.values[slot];
+                shiftBack(current, slot, mask);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        table = new Table(DEFAULT_CAPACITY);
+        size = 0;
+    }
+
+    // region <TABLE>
+
+    /**
+     * Fills the released slot by moving back the following entries of the probe sequence
+     * (no tombstones are left behind).
+     */
+    private static void shiftBack(Table table, int slot, int mask) {
+        int gap = slot;
+        for (int next = (gap + 1) & mask; table.values[next] != null; next = (next + 1) & mask) {
+            final int home = hash(table.keys[next], mask);
+            // move the entry if its home slot is not within (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table.keys[gap] = table.keys[next];
+                table.values[gap] = table.values[next];
+                gap = next;
+            }
+        }
+        table.values[gap] = null;
+    }
+
+    private Table resize(int capacity) {
+        final Table current = table;
+        final Table resized = new Table(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.values[i] == null)
+                continue;
+
+            int slot = hash(current.keys[i], mask);
+            while (resized.values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            resized.keys[slot] = current.keys[i];
+            resized.values[slot] = current.values[i];
+        }
+        table = resized;
+        return resized;
+    }
+
+    private static int hash(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // endregion
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+
+}
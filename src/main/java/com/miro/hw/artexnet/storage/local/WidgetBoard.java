@@ -0,0 +1,295 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
+import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.exception.NotFoundException;
+import com.miro.hw.artexnet.exception.ValidationException;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.miro.hw.artexnet.common.ErrorCode.ENTITY_NOT_FOUND;
+
+/**
+ * Widgets of a single board: own z-index space, containers, indexes and lock.
+ *
+ * Not thread-safe: callers are responsible for holding the board {@link #getLock() lock}.
+ * Lookups by ID and the widgets count are bounded and never fail on broken state,
+ * so they may run in the optimistic read mode (validated afterwards).
+ */
+final class WidgetBoard {
+    // Access time granularity (avoids writing the shared field on every read)
+    private static final long TOUCH_INTERVAL_MILLIS = 1000;
+
+    // Columnar container for stored Widgets attributes
+    private final WidgetColumns widgetsColumns;
+
+    // Main container for stored Widgets ordered by z-index
+    private final ZIndexTree widgetsContainer;
+
+    // Sequence container for Widgets quick retrieval {ID/Container node}
+    private final LongObjectHashMap<ZIndexTree.Node> widgetsSequence;
+
+    // Area index for area filtering
+    private final AreaIndex areaIndex;
+
+    // Board lock (non-fair, supports optimistic reads)
+    private final StampedLock lock;
+
+    // Last access time (for idle boards eviction)
+    private volatile long lastAccessTime;
+
+    // Evicted boards are not registered anymore and must not be updated (guarded by the lock)
+    private boolean evicted;
+
+    // Modification version (written under the lock, read without it)
+    private volatile long version;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    WidgetBoard(AreaIndexType areaIndexType) {
+        widgetsColumns = new WidgetColumns();
+        widgetsContainer = new ZIndexTree();
+        widgetsSequence = new LongObjectHashMap<>();
+        areaIndex = areaIndexType == AreaIndexType.COLUMNAR
+                ? new ColumnarAreaIndex(widgetsColumns)
+                : new WidgetSpatialIndex(widgetsColumns);
+        lock = new StampedLock();
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    StampedLock getLock() {
+        return lock;
+    }
+
+    long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    void touch() {
+        final long now = System.currentTimeMillis();
+        if (now - lastAccessTime >= TOUCH_INTERVAL_MILLIS)
+            lastAccessTime = now;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    void evict() {
+        evicted = true;
+    }
+
+    // region <READ>
+
+    WidgetsCollection getWidgets(int page, int size, Area area, boolean includeTotal) {
+        if (area != null) {
+            if (!includeTotal) {
+                // one extra match tells whether the next page exists
+                long[] matches = getTopAreaMatches(area, Long.MAX_VALUE, page * size + size + 1);
+                List<Widget> resultList = toWidgets(matches, page * size, size);
+                return WidgetsCollection.of((Long) null, resultList, matches.length > page * size + size);
+            }
+
+            int totalCount = areaIndex.count(area);
+            if (page * size > totalCount)
+                return new WidgetsCollection(totalCount, Collections.emptyList());
+
+            // only the matches up to the end of the requested page are kept
+            long[] matches = getTopAreaMatches(area, Long.MAX_VALUE, Math.min(page * size + size, totalCount));
+            List<Widget> resultList = toWidgets(matches, page * size, size);
+            return WidgetsCollection.of(totalCount, resultList, page * size + resultList.size() < totalCount);
+        }
+
+        int totalCount = widgetsContainer.size();
+        if (page * size > totalCount)
+            return WidgetsCollection.of(includeTotal ? Long.valueOf(totalCount) : null, Collections.emptyList(), false);
+        return getPage(page * size, size, includeTotal);
+    }
+
+    WidgetsCollection getWidgets(PageCursor cursor, int size, Area area, boolean includeTotal) {
+        if (area != null) {
+            // matches below the cursor precede the first one packed with the cursor z-index
+            long bound = cursor == null ? Long.MAX_VALUE : (long) cursor.getZIndex() << 32;
+
+            // one extra match tells whether the next page exists
+            long[] matches = getTopAreaMatches(area, bound, size + 1);
+            List<Widget> resultList = toWidgets(matches, 0, size);
+            Long totalCount = includeTotal ? Long.valueOf(areaIndex.count(area)) : null;
+            return WidgetsCollection.of(totalCount, resultList, matches.length > size);
+        }
+
+        int rank = cursor == null ? 0 : widgetsContainer.rank(cursor.getZIndex());
+        return getPage(rank, size, includeTotal);
+    }
+
+    Widget getById(long widgetId) {
+        ZIndexTree.Node node = widgetsSequence.get(widgetId);
+        return node == null ? null : widgetsContainer.get(node, widgetsColumns::toWidget);
+    }
+
+    int size() {
+        return widgetsContainer.size();
+    }
+
+    boolean isEmpty() {
+        return widgetsContainer.isEmpty();
+    }
+
+    int count(Area area) {
+        return areaIndex.count(area);
+    }
+
+    /**
+     * Gets the count of the widgets shifted by the last create/update: the run right above
+     * the stored widget's z-index.
+     */
+    int getShiftedCount() {
+        return widgetsContainer.getLastShifted();
+    }
+
+    // endregion
+
+    // region <PERSISTENCE>
+
+    /**
+     * Stores the new widget (the ID must be assigned).
+     */
+    Widget create(Widget widget) {
+        return save(widget);
+    }
+
+    Widget update(Widget widget) {
+        final long widgetId = widget.getId();
+        ZIndexTree.Node node = widgetsSequence.get(widgetId);
+        if (node == null)
+            throw new NotFoundException(String.format("Widget [%s] not found", widgetId));
+
+        // make sure updates provided
+        if (widgetsContainer.get(node, widgetsColumns::toWidget).equals(widget))
+            throw new ValidationException("Nothing to update");
+
+        // release the current position and apply/get updated widget
+        release(node);
+        return save(widget);
+    }
+
+    /**
+     * Stores the attributes of the persisted widget, to be restored in bulk by {@link #restoreAll}.
+     * @return the allocated slot.
+     */
+    int allocate(long widgetId, int x, int y, int width, int height) {
+        return widgetsColumns.allocate(widgetId, x, y, width, height);
+    }
+
+    /**
+     * Stores the allocated widgets in bulk (the board must be empty): the containers and indexes
+     * get built at once instead of one widget at a time.
+     * @param zIndexes z-indexes of the widgets (unique, sorted ascending).
+     */
+    void restoreAll(int[] slots, int[] zIndexes, LocalDateTime[] datesModified, int count) {
+        ZIndexTree.Node[] nodes = widgetsContainer.build(zIndexes, slots, datesModified, count);
+        for (int i = 0; i < count; i++) {
+            widgetsColumns.setNode(slots[i], nodes[i]);
+            widgetsSequence.put(widgetsColumns.getId(slots[i]), nodes[i]);
+        }
+        areaIndex.putAll(slots, count);
+    }
+
+    void delete(long widgetId) {
+        ZIndexTree.Node node = widgetsSequence.remove(widgetId);
+        if (node == null)
+            throw new NotFoundException(String.format("Widget [%s] not found", widgetId), ENTITY_NOT_FOUND);
+
+        release(node);
+    }
+
+    private Widget save(Widget widget) {
+        // make sure Widget has Z-Index and Update Time assigned
+        if (widget.getZ_index() == null)
+            widget.setZ_index(widgetsContainer.isEmpty() ? 1 : 1 + widgetsContainer.maxZIndex());
+        widget.setDateModified(LocalDateTime.now());
+        return store(widget);
+    }
+
+    private Widget store(Widget widget) {
+        // store widget (z-index for existing widgets gets shifted if applicable)
+        int slot = widgetsColumns.allocate(widget);
+        ZIndexTree.Node node = widgetsContainer.insert(widget.getZ_index(), slot, widget.getDateModified());
+        widgetsColumns.setNode(slot, node);
+        widgetsSequence.put(widget.getId(), node);
+        areaIndex.put(slot);
+        return widget;
+    }
+
+    private void release(ZIndexTree.Node node) {
+        int slot = node.getSlot();
+        widgetsContainer.remove(node);
+        areaIndex.remove(slot);
+        widgetsColumns.release(slot);
+    }
+
+    // endregion
+
+    // region <HELPERS>
+
+    /**
+     * Gets the page of widgets starting from the specified rank (z-index descending).
+     */
+    private WidgetsCollection getPage(int rank, int size, boolean includeTotal) {
+        int totalCount = widgetsContainer.size();
+        List<Widget> resultList = new ArrayList<>(Math.min(size, Math.max(totalCount - rank, 0)));
+        Iterator<Widget> iterator = widgetsContainer.iterator(rank, widgetsColumns::toWidget);
+        while (iterator.hasNext() && resultList.size() < size) {
+            resultList.add(iterator.next());
+        }
+        return WidgetsCollection.of(includeTotal ? Long.valueOf(totalCount) : null, resultList,
+                rank + resultList.size() < totalCount);
+    }
+
+    /**
+     * Creates widgets for the specified range of the area matches.
+     * @param matches area matches packed as <code>z-index:slot</code>, sorted by z-index descending.
+     */
+    private List<Widget> toWidgets(long[] matches, int skip, int size) {
+        int endIndex = Math.min(skip + size, matches.length);
+        List<Widget> resultList = new ArrayList<>(Math.max(endIndex - skip, 0));
+        for (int i = skip; i < endIndex; i++) {
+            int slot = (int) matches[i];
+            resultList.add(widgetsContainer.get(widgetsColumns.getNode(slot), widgetsColumns::toWidget));
+        }
+        return resultList;
+    }
+
+    /**
+     * Gets the top (by z-index) widgets fitting into the area, sorted by z-index descending.
+     * Every match is packed as <code>z-index:slot</code> into a single <code>long</code>,
+     * so no objects are created until the requested page is materialized,
+     * and no more than the specified count of matches is kept.
+     * @param bound exclusive upper bound of the packed matches.
+     */
+    private long[] getTopAreaMatches(Area area, long bound, int limit) {
+        final BoundedLongHeap matches = new BoundedLongHeap(limit);
+        areaIndex.search(area, slot -> {
+            long match = ((long) widgetsContainer.getZIndex(widgetsColumns.getNode(slot)) << 32) | slot;
+            if (match < bound)
+                matches.offer(match);
+        });
+        return matches.toDescendingArray();
+    }
+
+    // endregion
+
+}
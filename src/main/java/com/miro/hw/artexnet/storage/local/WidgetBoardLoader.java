@@ -0,0 +1,76 @@
+package com.miro.hw.artexnet.storage.local;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Bulk loader of the persisted widgets of a single board. Widgets are added in z-index order
+ * (their attributes go to the board columns right away, no widget objects are kept),
+ * then the board containers and indexes get built at once and the board gets registered.
+ *
+ * Not thread-safe: the loader may be passed to another thread between the adding and the loading.
+ */
+public final class WidgetBoardLoader {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final String boardId;
+    private final WidgetBoard board;
+    private final BiConsumer<String, WidgetBoard> registration;
+
+    private int[] slots;
+    private int[] zIndexes;
+    private LocalDateTime[] datesModified;
+    private int count;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    WidgetBoardLoader(String boardId, WidgetBoard board, BiConsumer<String, WidgetBoard> registration) {
+        this.boardId = boardId;
+        this.board = board;
+        this.registration = registration;
+        this.slots = new int[DEFAULT_CAPACITY];
+        this.zIndexes = new int[DEFAULT_CAPACITY];
+        this.datesModified = new LocalDateTime[DEFAULT_CAPACITY];
+    }
+
+    public String getBoardId() {
+        return boardId;
+    }
+
+    /**
+     * Gets the count of added widgets.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Adds the persisted widget. Widgets must be added in z-index ascending order.
+     */
+    public void add(long widgetId, int zIndex, int x, int y, int width, int height, LocalDateTime dateModified) {
+        if (count > 0 && zIndex <= zIndexes[count - 1])
+            throw new IllegalArgumentException(String.format(
+                    "Widget [%s] of board [%s] is out of the z-index order", widgetId, boardId));
+
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count << 1);
+            zIndexes = Arrays.copyOf(zIndexes, count << 1);
+            datesModified = Arrays.copyOf(datesModified, count << 1);
+        }
+        slots[count] = board.allocate(widgetId, x, y, width, height);
+        zIndexes[count] = zIndex;
+        datesModified[count] = dateModified;
+        count++;
+    }
+
+    /**
+     * Builds the board containers and indexes and makes the board available.
+     */
+    public void load() {
+        board.restoreAll(slots, zIndexes, datesModified, count);
+        registration.accept(boardId, board);
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.domain.Widget;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Columnar (struct-of-arrays) store of the widgets' attributes.
+ * Every widget occupies a slot in parallel primitive arrays, including precomputed
+ * bounding box edges, so area checks run as tight branch-free loops over the columns.
+ * Z-indexes and modification dates are kept by the {@link ZIndexTree} (shifted lazily),
+ * and {@link Widget} objects are created only when a widget is actually read.
+ *
+ * Not thread-safe: callers are responsible for the synchronization.
+ */
+final class WidgetColumns {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int SCAN_CHUNK = 1024;
+
+    private boolean[] live;
+    private long[] ids;
+    private int[] x;
+    private int[] y;
+    private int[] width;
+    private int[] height;
+    private int[] left;
+    private int[] bottom;
+    private int[] right;
+    private int[] top;
+    private ZIndexTree.Node[] nodes;
+
+    // slots in use are below the limit
+    private int limit;
+    private int[] freeSlots;
+    private int freeCount;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    WidgetColumns() {
+        live = new boolean[DEFAULT_CAPACITY];
+        ids = new long[DEFAULT_CAPACITY];
+        x = new int[DEFAULT_CAPACITY];
+        y = new int[DEFAULT_CAPACITY];
+        width = new int[DEFAULT_CAPACITY];
+        height = new int[DEFAULT_CAPACITY];
+        left = new int[DEFAULT_CAPACITY];
+        bottom = new int[DEFAULT_CAPACITY];
+        right = new int[DEFAULT_CAPACITY];
+        top = new int[DEFAULT_CAPACITY];
+        nodes = new ZIndexTree.Node[DEFAULT_CAPACITY];
+        freeSlots = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Stores the widget attributes.
+     * @return the allocated slot.
+     */
+    int allocate(Widget widget) {
+        return allocate(widget.getId(), widget.getX(), widget.getY(), widget.getWidth(), widget.getHeight());
+    }
+
+    /**
+     * Stores the widget attributes.
+     * @return the allocated slot.
+     */
+    int allocate(long id, int x, int y, int width, int height) {
+        final int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+        live[slot] = true;
+        ids[slot] = id;
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.width[slot] = width;
+        this.height[slot] = height;
+        left[slot] = x - width / 2;
+        bottom[slot] = y - height / 2;
+        right[slot] = x + width / 2;
+        top[slot] = y + height / 2;
+        return slot;
+    }
+
+    /**
+     * Releases the slot. Released slots never match any area.
+     */
+    void release(int slot) {
+        live[slot] = false;
+        nodes[slot] = null;
+
+        if (freeCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, freeCount << 1);
+        freeSlots[freeCount++] = slot;
+    }
+
+    void setNode(int slot, ZIndexTree.Node node) {
+        nodes[slot] = node;
+    }
+
+    ZIndexTree.Node getNode(int slot) {
+        return nodes[slot];
+    }
+
+    long getId(int slot) {
+        return ids[slot];
+    }
+
+    int getLeft(int slot) {
+        return left[slot];
+    }
+
+    int getBottom(int slot) {
+        return bottom[slot];
+    }
+
+    int getRight(int slot) {
+        return right[slot];
+    }
+
+    int getTop(int slot) {
+        return top[slot];
+    }
+
+    /**
+     * Creates the widget from the slot attributes.
+     */
+    Widget toWidget(int slot, int zIndex, LocalDateTime dateModified) {
+        return Widget.builder()
+                .id(ids[slot])
+                .z_index(zIndex)
+                .x(x[slot])
+                .y(y[slot])
+                .width(width[slot])
+                .height(height[slot])
+                .dateModified(dateModified)
+                .build();
+    }
+
+    // region <SCAN>
+
+    /**
+     * Passes slots of the widgets that fully fit into the specified area to the consumer (in slot order).
+     */
+    void scan(Area area, IntConsumer consumer) {
+        final int leftX = area.getLeftBottom().getXAxis();
+        final int leftY = area.getLeftBottom().getYAxis();
+        final int rightX = area.getRightTop().getXAxis();
+        final int rightY = area.getRightTop().getYAxis();
+
+        final int[] matches = new int[SCAN_CHUNK];
+        for (int base = 0; base < limit; base += SCAN_CHUNK) {
+            final int end = Math.min(base + SCAN_CHUNK, limit);
+
+            // branch-free compaction of the matching slots
+            int found = 0;
+            for (int slot = base; slot < end; slot++) {
+                matches[found] = slot;
+                found += live[slot] & (left[slot] >= leftX) & (bottom[slot] >= leftY)
+                        & (right[slot] <= rightX) & (top[slot] <= rightY) ? 1 : 0;
+            }
+            for (int i = 0; i < found; i++) {
+                consumer.accept(matches[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets the count of widgets that fully fit into the specified area.
+     */
+    int count(Area area) {
+        final int leftX = area.getLeftBottom().getXAxis();
+        final int leftY = area.getLeftBottom().getYAxis();
+        final int rightX = area.getRightTop().getXAxis();
+        final int rightY = area.getRightTop().getYAxis();
+
+        int count = 0;
+        for (int slot = 0; slot < limit; slot++) {
+            count += live[slot] & (left[slot] >= leftX) & (bottom[slot] >= leftY)
+                    & (right[slot] <= rightX) & (top[slot] <= rightY) ? 1 : 0;
+        }
+        return count;
+    }
+
+    // endregion
+
+    private int nextSlot() {
+        if (limit == ids.length) {
+            final int capacity = limit << 1;
+            live = Arrays.copyOf(live, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            left = Arrays.copyOf(left, capacity);
+            bottom = Arrays.copyOf(bottom, capacity);
+            right = Arrays.copyOf(right, capacity);
+            top = Arrays.copyOf(top, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+        }
+        return limit++;
+    }
+
+}
@@ -1,283 +1,460 @@
 package com.miro.hw.artexnet.storage.local;
 
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
 import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
-import com.miro.hw.artexnet.exception.NotFoundException;
-import com.miro.hw.artexnet.exception.ValidationException;
+import com.miro.hw.artexnet.storage.BoardVersionListener;
 import com.miro.hw.artexnet.storage.WidgetStorage;
 import com.miro.hw.artexnet.storage.StorageType;
+import com.miro.hw.artexnet.storage.WidgetChangeListener;
+import com.miro.hw.artexnet.storage.WidgetChangeLog;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
-
-import static com.miro.hw.artexnet.common.ErrorCode.ENTITY_NOT_FOUND;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 @Slf4j
 @Service
 @Profile("!database")
 public class WidgetLocalStorage implements WidgetStorage {
+    private static final Duration DEFAULT_BOARD_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+    // Widgets read under the board lock at once by the full scans
+    private static final int SCAN_CHUNK = 1000;
+
+    // Boards (created lazily) {Board ID/Board}
+    private final transient ConcurrentHashMap<String, WidgetBoard> boards;
+
+    // Stand-in for missing boards on reads (never updated)
+    private final transient WidgetBoard emptyBoard;
+
+    // Area index type for the new boards
+    private final AreaIndexType areaIndexType;
+
+    // Idle time after which an empty board gets evicted
+    private final long boardIdleTimeoutMillis;
+
+    // Earliest time of the next idle boards sweep
+    private final AtomicLong nextEvictionTime;
 
-    // Main container for stored Widgets
-    private transient volatile Widget[] widgetsContainer;
+    // Unique ID sequence provider (shared by the boards)
+    private final LongSupplier idSequence;
 
-    // Sequence container for Widgets quick retrieval {ID/Index}
-    private final ConcurrentNavigableMap<Long, Integer> widgetsSequence;
+    // Listener of the applied changes (optional)
+    private final WidgetChangeListener changeListener;
 
-    // Unique ID sequence provider
-    private final AtomicLong idSequence;
+    // Listeners of the committed board versions
+    private final List<BoardVersionListener> versionListeners;
 
-    // Global shared lock
-    private final transient ReentrantLock lock;
+    // Log of the recent changes, also the board versions sequence (shared by the boards, so the re-created
+    // board never repeats a version). Starts from the current time in microseconds, so the versions
+    // keep growing across restarts.
+    private final WidgetChangeLog changeLog;
+
+    // Version of the boards never changed since the start
+    private final long initialVersion;
 
     /**
      * Initializes a new instance of the class.
      */
     public WidgetLocalStorage() {
-        widgetsContainer = new Widget[0];
-        widgetsSequence = new ConcurrentSkipListMap<>(Collections.reverseOrder());
-        idSequence = new AtomicLong(0);
-        lock = new ReentrantLock(true);
+        this(AreaIndexType.RTREE);
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified area index.
+     */
+    public WidgetLocalStorage(AreaIndexType areaIndexType) {
+        this(areaIndexType, DEFAULT_BOARD_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified area index and board idle timeout.
+     */
+    public WidgetLocalStorage(AreaIndexType areaIndexType, Duration boardIdleTimeout) {
+        this(areaIndexType, boardIdleTimeout, WidgetChangeLog.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified area index, board idle timeout
+     * and the count of the changes kept by the log.
+     */
+    @Autowired
+    public WidgetLocalStorage(@Value("${storage.local.areaIndex:rtree}") AreaIndexType areaIndexType,
+                              @Value("${storage.local.boardIdleTimeout:10m}") Duration boardIdleTimeout,
+                              @Value("${storage.changeLog.capacity:10000}") int changeLogCapacity) {
+        this(areaIndexType, boardIdleTimeout, changeLogCapacity, new AtomicLong(0)::incrementAndGet, null);
+    }
+
+    /**
+     * Initializes a new instance of the class with the specified IDs provider, notifying the listener
+     * of the applied changes.
+     */
+    public WidgetLocalStorage(AreaIndexType areaIndexType, Duration boardIdleTimeout, int changeLogCapacity,
+                              LongSupplier idSequence, WidgetChangeListener changeListener) {
+        this.initialVersion = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.changeLog = new WidgetChangeLog(changeLogCapacity, initialVersion);
+        this.boards = new ConcurrentHashMap<>();
+        this.areaIndexType = areaIndexType;
+        this.emptyBoard = newBoard();
+        this.boardIdleTimeoutMillis = boardIdleTimeout.toMillis();
+        this.nextEvictionTime = new AtomicLong(System.currentTimeMillis() + boardIdleTimeoutMillis);
+        this.idSequence = idSequence;
+        this.changeListener = changeListener;
+        this.versionListeners = new CopyOnWriteArrayList<>();
     }
 
     @Override
-    public Widget createWidget(Widget widget) {
-        lock.lock();
-        try {
-            // assign next ID
-            widget.setId(idSequence.incrementAndGet());
+    public Widget createWidget(String boardId, Widget widget) {
+        // assign next ID
+        widget.setId(idSequence.getAsLong());
 
+        return write(boardId, (board, events) -> {
             // store/get created widget
-            return save(widget);
-        } finally {
-            lock.unlock();
-        }
+            Widget created = board.create(widget);
+            logShift(board, created, events);
+            events.add(WidgetChangeEvent.created(created));
+            if (changeListener != null)
+                changeListener.widgetCreated(boardId, created);
+            return created;
+        });
     }
 
     @Override
-    public WidgetsCollection getWidgets(int page, int size, Area area) {
-        Widget[] container = area == null ? getWidgetsContainer() : getWidgetsContainer(area);
-        int totalCount = container.length;
-        if (page * size > totalCount)
-            return new WidgetsCollection(0, Collections.emptyList());
+    public WidgetsCollection getWidgets(String boardId, int page, int size, Area area, boolean includeTotal) {
+        return read(boardId, board -> board.getWidgets(page, size, area, includeTotal));
+    }
 
-        int startIndex = page * size;
-        int endIndex = Math.min(startIndex + size, totalCount);
+    @Override
+    public WidgetsCollection getWidgets(String boardId, PageCursor cursor, int size, Area area, boolean includeTotal) {
+        return read(boardId, board -> board.getWidgets(cursor, size, area, includeTotal));
+    }
 
-        List<Widget> resultList = new ArrayList<>(size);
-        for (int i = startIndex; i < endIndex; i++) {
-            try {
-                resultList.add(container[i]);
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                log.debug(ex.getMessage());
-                break;  // skip the rest
-            }
+    /**
+     * Reads the widgets by chunks (keyset paging), so the board is locked for a single chunk at once
+     * and the action runs unlocked. Widgets shifted between the chunks might be skipped or repeated.
+     */
+    @Override
+    public void forEachWidget(String boardId, Area area, Consumer<Widget> action) {
+        PageCursor cursor = null;
+        while (true) {
+            WidgetsCollection chunk = getWidgets(boardId, cursor, SCAN_CHUNK, area, false);
+            chunk.getItems().forEach(action);
+            if (!chunk.isHasMore())
+                return;
+
+            List<Widget> items = chunk.getItems();
+            cursor = new PageCursor(items.get(items.size() - 1).getZ_index());
         }
-        return new WidgetsCollection(totalCount, resultList);
     }
 
     @Override
-    public Optional<Widget> getById(long widgetId) {
-        try {
-            Integer containerIndex = widgetsSequence.get(widgetId);
-            return containerIndex == null
-                    ? Optional.empty()
-                    : Optional.of(getWidgetsContainer()[containerIndex]);
-        } catch (IndexOutOfBoundsException ex) {
-            log.debug(ex.getMessage());
-            return Optional.empty();
-        }
+    public Optional<Widget> getById(String boardId, long widgetId) {
+        return Optional.ofNullable(readOptimistic(boardId, board -> board.getById(widgetId)));
     }
 
     @Override
-    public long getWidgetsCount() {
-        return getWidgetsContainer().length;
+    public long getWidgetsCount(String boardId) {
+        return readOptimistic(boardId, WidgetBoard::size);
     }
 
     @Override
-    public long getWidgetsCount(Area area) {
-        return getWidgetsContainer(area).length;
+    public long getWidgetsCount(String boardId, Area area) {
+        return read(boardId, board -> board.count(area));
     }
 
+    /**
+     * Reads the version without locking: the version is bumped once the changes are applied
+     * (under the board lock), so the data read afterwards is never older than the version.
+     */
     @Override
-    public Widget updateWidget(Widget widget) {
-        lock.lock();
-        try {
-            final long widgetId = widget.getId();
-            if (!widgetsSequence.containsKey(widgetId))
-                throw new NotFoundException(String.format("Widget [%s] not found", widgetId));
+    public long getBoardVersion(String boardId) {
+        return boards.getOrDefault(boardId, emptyBoard).getVersion();
+    }
 
-            Widget[] elements = getWidgetsContainer();
-            Widget storedWidget = elements[widgetsSequence.get(widgetId)];
+    /**
+     * Listeners get notified under the board lock, right after the changes get logged.
+     */
+    @Override
+    public void addVersionListener(BoardVersionListener listener) {
+        versionListeners.add(listener);
+    }
 
-            // make sure updates provided
-            if (storedWidget.equals(widget))
-                throw new ValidationException("Nothing to update");
+    /**
+     * Reads the changes from the log shared by the boards: the board version is read first,
+     * and the changes up to it are logged already.
+     */
+    @Override
+    public WidgetChanges getChanges(String boardId, long sinceVersion, Area area) {
+        final long version = getBoardVersion(boardId);
+        return changeLog.getChanges(boardId, sinceVersion, version, area)
+                .map(changes -> WidgetChanges.of(version, changes))
+                .orElseGet(() -> WidgetChanges.resyncRequired(version));
+    }
 
-            // apply/get updated widget
-            return save(widget);
-        } finally {
-            lock.unlock();
-        }
+    @Override
+    public Widget updateWidget(String boardId, Widget widget) {
+        return write(boardId, (board, events) -> {
+            Widget previous = board.getById(widget.getId());
+            Widget updated = board.update(widget);
+            logShift(board, updated, events);
+            events.add(WidgetChangeEvent.updated(previous, updated));
+            if (changeListener != null)
+                changeListener.widgetUpdated(boardId, updated);
+            return updated;
+        });
     }
 
     @Override
-    public void deleteById(long widgetId) {
-        lock.lock();
-        try {
-            if (!widgetsSequence.containsKey(widgetId))
-                throw new NotFoundException(String.format("Widget [%s] not found", widgetId), ENTITY_NOT_FOUND);
+    public void deleteById(String boardId, long widgetId) {
+        write(boardId, (board, events) -> {
+            Widget previous = board.getById(widgetId);
+            board.delete(widgetId);
+            events.add(WidgetChangeEvent.deleted(previous));
+            if (changeListener != null)
+                changeListener.widgetDeleted(boardId, widgetId);
+            return null;
+        });
+    }
 
-            final Widget[] elements = getWidgetsContainer();
-            final int total = elements.length;
-            final int index = widgetsSequence.get(widgetId);
+    /**
+     * Applies the batch under a single board lock. The operations get validated before the first change,
+     * so the batch cannot fail halfway (there is nothing to roll back). Every shift is O(log n) already,
+     * so the operations are applied one by one.
+     */
+    @Override
+    public List<WidgetOperationResult> applyBatch(String boardId, List<WidgetOperation> operations) {
+        // assign next IDs
+        for (WidgetOperation operation : operations) {
+            if (operation.getType() == WidgetOperation.Type.CREATE)
+                operation.getWidget().setId(idSequence.getAsLong());
+        }
 
-            Widget[] newElements = new Widget[total - 1];
-            System.arraycopy(elements, 0, newElements, 0, index);
-            System.arraycopy(elements, index + 1, newElements, index, total - index - 1);
+        return write(boardId, (board, events) -> {
+            WidgetOperation.validateTargets(operations, widgetId -> board.getById(widgetId) != null);
 
-            widgetsSequence.remove(widgetId);
-            for (int i = 0; i < newElements.length; i++) {
-                widgetsSequence.put(elements[i].getId(), i);
+            List<WidgetOperationResult.Status> statuses = new ArrayList<>(operations.size());
+            for (WidgetOperation operation : operations) {
+                statuses.add(apply(boardId, board, operation, events));
             }
-            setWidgetsContainer(newElements);
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    // region <PERSISTENCE>
 
-    private Widget save(Widget widget) {
-        final Widget[] elements = getWidgetsContainer();
+            // widgets as stored once the whole batch is applied
+            List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                WidgetOperation operation = operations.get(i);
+                long widgetId = operation.getType() == WidgetOperation.Type.CREATE
+                        ? operation.getWidget().getId()
+                        : operation.targetId();
+                results.add(new WidgetOperationResult(statuses.get(i), widgetId, board.getById(widgetId)));
+            }
+            return results;
+        });
+    }
 
-        // make sure Widget has Z-Index and Update Time assigned
-        if (widget.getZ_index() == null)
-            widget.setZ_index(elements.length == 0 ? 1 : 1 + elements[0].getZ_index());
-        widget.setDateModified(LocalDateTime.now());
+    /**
+     * Creates the loader restoring the already persisted widgets of the board in bulk
+     * (keeping their IDs, z-indexes and modification dates). The board gets available once loaded,
+     * it must not be stored yet.
+     */
+    public WidgetBoardLoader loadBoard(String boardId) {
+        return new WidgetBoardLoader(boardId, new WidgetBoard(areaIndexType), this::registerBoard);
+    }
 
-        // initialize a new container for the very first Widget
-        final int total = elements.length;
-        if (total == 0) {
-            setWidgetsContainer(new Widget[] { widget });
-            widgetsSequence.put(widget.getId(), 0);
-            return widget;
+    /**
+     * Evicts empty boards idle for longer than the configured timeout.
+     * Boards holding widgets are the only copy of the data, so they are never evicted.
+     * @return the count of evicted boards.
+     */
+    public int evictIdleBoards() {
+        final long idleSince = System.currentTimeMillis() - boardIdleTimeoutMillis;
+
+        int evicted = 0;
+        for (Map.Entry<String, WidgetBoard> entry : boards.entrySet()) {
+            WidgetBoard board = entry.getValue();
+            if (board.getLastAccessTime() > idleSince)
+                continue;
+
+            // skip boards in use
+            StampedLock lock = board.getLock();
+            long stamp = lock.tryWriteLock();
+            if (stamp == 0)
+                continue;
+            try {
+                if (board.isEmpty() && board.getLastAccessTime() <= idleSince) {
+                    board.evict();
+                    boards.remove(entry.getKey(), board);
+                    evicted++;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
         }
+        return evicted;
+    }
 
-        // assign new widget and shift z-index for existing widgets if applicable
-        Widget[] newElements = storeAndGetShiftedWidgetsSequence(widget, elements);
-        setWidgetsContainer(newElements);
-
-        return widget;
+    /**
+     * Gets the count of boards currently held.
+     */
+    public int getBoardsCount() {
+        return boards.size();
     }
 
-    private Widget[] storeAndGetShiftedWidgetsSequence(final Widget widget, final Widget[] elements) {
-        final int total = elements.length;
-        final int zIndex = widget.getZ_index();
-        final int zMax = getMaxZIndex(elements);
-        final int zMin = getMinZIndex(elements);
+    // region <BOARDS>
 
-        Widget[] newElements;
-        if (zIndex > zMax) {
-            // adding widget with the greatest z-index to the beginning of the sequence
-            newElements = new Widget[total + 1];
-            newElements[0] = widget;
-            System.arraycopy(elements, 0, newElements, 1, total);
+    private <T> T read(String boardId, Function<WidgetBoard, T> operation) {
+        return read(boards.getOrDefault(boardId, emptyBoard), operation);
+    }
 
-            widgetsSequence.put(widget.getId(), 0);
-            for (int i = 0; i < elements.length; i++) {
-                widgetsSequence.put(elements[i].getId(), i + 1);
-            }
-        } else if (zIndex < zMin) {
-            // adding widget with the lowest z-index to the end of the sequence
-            newElements = Arrays.copyOf(elements, total + 1);
-            newElements[total] = widget;
-
-            widgetsSequence.put(widget.getId(), total);
-        } else {
-            // assigning the corresponding position on the sequence for the new widget,
-            // incrementing z-indexes for widgets that get duplicate values because of sequence shifting.
-            newElements = new Widget[total + 1];
-            int shiftIndex = 0;
-            for (int i = total - 1; i >= 0; i--) {
-                Widget nextWidget = elements[i];
-                if (nextWidget.getZ_index() >= zIndex) {
-                    shiftIndex = i;
-                    newElements[i + 1] = widget;
-                    widgetsSequence.put(widget.getId(), i + 1);
-                    break;
-                } else {
-                    newElements[i + 1] = nextWidget;
-                    widgetsSequence.put(nextWidget.getId(), i + 1);
-                }
-            }
+    private static <T> T read(WidgetBoard board, Function<WidgetBoard, T> operation) {
+        StampedLock lock = board.getLock();
+        long stamp = lock.readLock();
+        try {
+            board.touch();
+            return operation.apply(board);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
 
-            int breakIndex = shiftIndex;
-            for (; breakIndex >= 0; breakIndex--) {
-                Widget shiftingWidget = elements[breakIndex];
-                Widget assignedWidget = newElements[breakIndex + 1];
-
-                if (shiftingWidget.getZ_index().equals(assignedWidget.getZ_index())) {
-                    Widget copyWidget = clone(shiftingWidget);
-                    copyWidget.setZ_index(shiftingWidget.getZ_index() + 1);
-                    copyWidget.setDateModified(LocalDateTime.now());
-                    newElements[breakIndex] = copyWidget;
-                    widgetsSequence.put(shiftingWidget.getId(), breakIndex);
-                } else {
-                    break;  // Gap found
+    /**
+     * Runs the (cheap and bounded) read operation without locking, falling back to
+     * the read lock if the board got updated meanwhile.
+     */
+    private <T> T readOptimistic(String boardId, Function<WidgetBoard, T> operation) {
+        WidgetBoard board = boards.getOrDefault(boardId, emptyBoard);
+        StampedLock lock = board.getLock();
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = operation.apply(board);
+                if (lock.validate(stamp)) {
+                    board.touch();
+                    return result;
                 }
+            } catch (RuntimeException e) {
+                // inconsistent state observed while racing with a writer: retry under the lock
             }
+        }
+        return read(board, operation);
+    }
 
-            if (breakIndex >= 0) {
-                System.arraycopy(elements, 0, newElements, 0, breakIndex + 1);
+    /**
+     * Applies the changes under the board lock. Once applied, the collected change events get logged
+     * under the next board version.
+     */
+    private <T> T write(String boardId, BiFunction<WidgetBoard, List<WidgetChangeEvent>, T> operation) {
+        while (true) {
+            WidgetBoard board = getBoard(boardId);
+            StampedLock lock = board.getLock();
+            long stamp = lock.writeLock();
+            try {
+                // the board got evicted meanwhile: retry with the registered one
+                if (board.isEvicted())
+                    continue;
+
+                board.touch();
+                List<WidgetChangeEvent> events = new ArrayList<>();
+                T result = operation.apply(board, events);
+                board.setVersion(changeLog.append(boardId, events));
+                notifyVersion(boardId, board.getVersion());
+                return result;
+            } finally {
+                lock.unlockWrite(stamp);
             }
         }
-        return newElements;
     }
 
-    // endregion
-
-    // region <HELPERS>
-
-    final Widget clone(Widget widget) {
-        return Widget.builder()
-                .id(widget.getId())
-                .z_index(widget.getZ_index())
-                .x(widget.getX())
-                .y(widget.getY())
-                .width(widget.getWidth())
-                .height(widget.getHeight())
-                .dateModified(widget.getDateModified())
-                .build();
+    private WidgetOperationResult.Status apply(String boardId, WidgetBoard board, WidgetOperation operation,
+                                               List<WidgetChangeEvent> events) {
+        switch (operation.getType()) {
+            case CREATE:
+                Widget created = board.create(operation.getWidget());
+                logShift(board, created, events);
+                events.add(WidgetChangeEvent.created(created));
+                if (changeListener != null)
+                    changeListener.widgetCreated(boardId, created);
+                return WidgetOperationResult.Status.CREATED;
+
+            case UPDATE:
+                Widget widget = operation.getWidget();
+                Widget previous = board.getById(widget.getId());
+                if (widget.equals(previous))
+                    return WidgetOperationResult.Status.UNCHANGED;
+
+                Widget updated = board.update(widget);
+                logShift(board, updated, events);
+                events.add(WidgetChangeEvent.updated(previous, updated));
+                if (changeListener != null)
+                    changeListener.widgetUpdated(boardId, updated);
+                return WidgetOperationResult.Status.UPDATED;
+
+            default:
+                events.add(WidgetChangeEvent.deleted(board.getById(operation.getId())));
+                board.delete(operation.getId());
+                if (changeListener != null)
+                    changeListener.widgetDeleted(boardId, operation.getId());
+                return WidgetOperationResult.Status.DELETED;
+        }
     }
 
-    final Widget[] getWidgetsContainer(Area area) {
-        return Arrays.stream(getWidgetsContainer())
-                .filter(widget -> Widget.fitsInArea(widget, area))
-                .toArray(Widget[]::new);
+    /**
+     * Logs the shift of the run the stored widget made room for (if any).
+     */
+    private static void logShift(WidgetBoard board, Widget stored, List<WidgetChangeEvent> events) {
+        final int shifted = board.getShiftedCount();
+        if (shifted != 0) {
+            events.add(WidgetChangeEvent.shifted(stored.getZ_index(), stored.getZ_index() + shifted - 1, 1));
+        }
     }
 
-    final Widget[] getWidgetsContainer() {
-        return widgetsContainer;
+    private void notifyVersion(String boardId, long version) {
+        for (BoardVersionListener listener : versionListeners) {
+            listener.boardChanged(boardId, version);
+        }
     }
 
-    final void setWidgetsContainer(Widget[] container) {
-        widgetsContainer = container;
+    private WidgetBoard newBoard() {
+        WidgetBoard board = new WidgetBoard(areaIndexType);
+        board.setVersion(initialVersion);
+        return board;
     }
 
-    private static int getMinZIndex(Widget[] elements) {
-        return elements.length == 0 ? Integer.MIN_VALUE : elements[elements.length - 1].getZ_index();
+    private void registerBoard(String boardId, WidgetBoard board) {
+        board.setVersion(changeLog.appendReset(boardId));
+        if (boards.putIfAbsent(boardId, board) != null)
+            throw new IllegalStateException(String.format("Board [%s] is stored already", boardId));
+        notifyVersion(boardId, board.getVersion());
     }
 
-    private static  int getMaxZIndex(Widget[] elements) {
-        return elements.length == 0 ? Integer.MAX_VALUE : elements[0].getZ_index();
+    private WidgetBoard getBoard(String boardId) {
+        WidgetBoard board = boards.get(boardId);
+        if (board != null)
+            return board;
+
+        // new boards are rare: a good moment to release the idle ones (once per timeout)
+        final long now = System.currentTimeMillis();
+        final long evictionTime = nextEvictionTime.get();
+        if (now >= evictionTime && nextEvictionTime.compareAndSet(evictionTime, now + boardIdleTimeoutMillis))
+            evictIdleBoards();
+        return boards.computeIfAbsent(boardId, id -> newBoard());
     }
 
     // endregion
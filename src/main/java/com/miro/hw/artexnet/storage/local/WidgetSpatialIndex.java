@@ -0,0 +1,498 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.common.immutable.Area;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * R-tree (Guttman, quadratic split) over the widgets' bounding boxes.
+ * Lookups visit only the nodes intersecting the requested area, so the cost
+ * depends on the number of matching widgets rather than on the board size.
+ * Nodes keep the count of entries below them, so counting takes whole nodes
+ * fully covered by the area without visiting their entries.
+ *
+ * Not thread-safe: callers are responsible for the synchronization.
+ */
+final class WidgetSpatialIndex implements AreaIndex {
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = 6;
+
+    // Indexed bounding boxes source
+    private final WidgetColumns columns;
+
+    // Index root (leaf for small trees)
+    private Node root;
+
+    // Leaf entries by slot {Slot/Entry}
+    private Node[] entries;
+    private int size;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    WidgetSpatialIndex(WidgetColumns columns) {
+        this.columns = columns;
+        this.root = new Node(true);
+        this.entries = new Node[MAX_ENTRIES];
+    }
+
+    /**
+     * Gets the count of indexed widgets.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Indexes the bounding box of the widget stored in the slot,
+     * replacing the previous one if the slot is already indexed.
+     */
+    @Override
+    public void put(int slot) {
+        remove(slot);
+
+        Node entry = new Node(slot,
+                columns.getLeft(slot), columns.getBottom(slot),
+                columns.getRight(slot), columns.getTop(slot));
+        if (slot >= entries.length)
+            entries = Arrays.copyOf(entries, Math.max(slot + 1, entries.length << 1));
+        entries[slot] = entry;
+        size++;
+        insert(entry);
+    }
+
+    /**
+     * Indexes the bounding boxes of the widgets stored in the slots. The empty index gets built
+     * bottom-up at once (Sort-Tile-Recursive packing), with no splits and fully packed nodes.
+     */
+    @Override
+    public void putAll(int[] slots, int count) {
+        if (size > 0 || count <= MAX_ENTRIES) {
+            AreaIndex.super.putAll(slots, count);
+            return;
+        }
+
+        Node[] level = new Node[count];
+        for (int i = 0; i < count; i++) {
+            final int slot = slots[i];
+            level[i] = new Node(slot,
+                    columns.getLeft(slot), columns.getBottom(slot),
+                    columns.getRight(slot), columns.getTop(slot));
+            if (slot >= entries.length)
+                entries = Arrays.copyOf(entries, Math.max(slot + 1, entries.length << 1));
+            entries[slot] = level[i];
+        }
+        size = count;
+
+        boolean leaf = true;
+        while (level.length > 1) {
+            level = pack(level, leaf);
+            leaf = false;
+        }
+        root = level[0];
+    }
+
+    @Override
+    public void remove(int slot) {
+        Node entry = slot < entries.length ? entries[slot] : null;
+        if (entry == null)
+            return;
+
+        entries[slot] = null;
+        size--;
+        Node leaf = entry.parent;
+        leaf.removeChild(entry);
+        condenseTree(leaf);
+    }
+
+    @Override
+    public void search(Area area, IntConsumer consumer) {
+        if (root.count == 0)
+            return;
+
+        search(root,
+                area.getLeftBottom().getXAxis(), area.getLeftBottom().getYAxis(),
+                area.getRightTop().getXAxis(), area.getRightTop().getYAxis(),
+                consumer);
+    }
+
+    @Override
+    public int count(Area area) {
+        if (root.count == 0)
+            return 0;
+
+        return count(root,
+                area.getLeftBottom().getXAxis(), area.getLeftBottom().getYAxis(),
+                area.getRightTop().getXAxis(), area.getRightTop().getYAxis());
+    }
+
+    // region <TREE>
+
+    private void search(Node node, int leftX, int leftY, int rightX, int rightY, IntConsumer consumer) {
+        for (int i = 0; i < node.count; i++) {
+            final Node child = node.children[i];
+            if (child.within(leftX, leftY, rightX, rightY)) {
+                accept(child, consumer);
+            } else if (!node.leaf && child.intersects(leftX, leftY, rightX, rightY)) {
+                search(child, leftX, leftY, rightX, rightY, consumer);
+            }
+        }
+    }
+
+    /**
+     * Passes all entries of the subtree (fully covered by the area) to the consumer.
+     */
+    private static void accept(Node node, IntConsumer consumer) {
+        if (node.children == null) {
+            consumer.accept(node.slot);
+            return;
+        }
+        for (int i = 0; i < node.count; i++) {
+            accept(node.children[i], consumer);
+        }
+    }
+
+    private int count(Node node, int leftX, int leftY, int rightX, int rightY) {
+        int count = 0;
+        for (int i = 0; i < node.count; i++) {
+            final Node child = node.children[i];
+            if (child.within(leftX, leftY, rightX, rightY)) {
+                count += child.total;
+            } else if (!node.leaf && child.intersects(leftX, leftY, rightX, rightY)) {
+                count += count(child, leftX, leftY, rightX, rightY);
+            }
+        }
+        return count;
+    }
+
+    private void insert(Node entry) {
+        Node leaf = chooseLeaf(entry);
+        leaf.addChild(entry);
+
+        Node node = leaf;
+        Node splitNode = leaf.count > MAX_ENTRIES ? split(leaf) : null;
+
+        // propagate boxes and splits up to the root
+        while (node != root) {
+            Node parent = node.parent;
+            parent.include(node);
+            if (splitNode != null) {
+                parent.addChild(splitNode);
+                parent.recount();
+                splitNode = parent.count > MAX_ENTRIES ? split(parent) : null;
+            } else {
+                parent.recount();
+            }
+            node = parent;
+        }
+
+        if (splitNode != null) {
+            Node newRoot = new Node(false);
+            newRoot.addChild(root);
+            newRoot.addChild(splitNode);
+            root = newRoot;
+        }
+    }
+
+    private Node chooseLeaf(Node entry) {
+        Node node = root;
+        while (!node.leaf) {
+            Node best = null;
+            long bestEnlargement = Long.MAX_VALUE;
+            long bestArea = Long.MAX_VALUE;
+            for (int i = 0; i < node.count; i++) {
+                final Node child = node.children[i];
+                final long area = child.area();
+                final long enlargement = child.areaWith(entry) - area;
+                if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                    best = child;
+                    bestEnlargement = enlargement;
+                    bestArea = area;
+                }
+            }
+            node = best;
+        }
+        return node;
+    }
+
+    /**
+     * Splits the overflowed node (quadratic split).
+     * @return the newly created sibling node.
+     */
+    private Node split(Node node) {
+        final Node[] candidates = new Node[node.count];
+        System.arraycopy(node.children, 0, candidates, 0, node.count);
+
+        // pick the pair of seeds wasting the most area when grouped together
+        int seedA = 0;
+        int seedB = 1;
+        long worstWaste = Long.MIN_VALUE;
+        for (int i = 0; i < candidates.length; i++) {
+            for (int j = i + 1; j < candidates.length; j++) {
+                long waste = candidates[i].areaWith(candidates[j]) - candidates[i].area() - candidates[j].area();
+                if (waste > worstWaste) {
+                    worstWaste = waste;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+
+        Node sibling = new Node(node.leaf);
+        node.clear();
+        node.addChild(candidates[seedA]);
+        sibling.addChild(candidates[seedB]);
+        candidates[seedA] = null;
+        candidates[seedB] = null;
+
+        int remaining = candidates.length - 2;
+        while (remaining > 0) {
+            // make sure both groups get the minimal count of entries
+            if (node.count + remaining == MIN_ENTRIES || sibling.count + remaining == MIN_ENTRIES) {
+                Node target = node.count + remaining == MIN_ENTRIES ? node : sibling;
+                for (Node candidate : candidates) {
+                    if (candidate != null)
+                        target.addChild(candidate);
+                }
+                break;
+            }
+
+            // pick the entry with the greatest preference for one of the groups
+            int next = -1;
+            long nextPreference = -1;
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i] == null)
+                    continue;
+                long preference = Math.abs(node.enlargement(candidates[i]) - sibling.enlargement(candidates[i]));
+                if (preference > nextPreference) {
+                    nextPreference = preference;
+                    next = i;
+                }
+            }
+
+            Node candidate = candidates[next];
+            long nodeEnlargement = node.enlargement(candidate);
+            long siblingEnlargement = sibling.enlargement(candidate);
+            if (nodeEnlargement < siblingEnlargement
+                    || (nodeEnlargement == siblingEnlargement && node.count <= sibling.count)) {
+                node.addChild(candidate);
+            } else {
+                sibling.addChild(candidate);
+            }
+            candidates[next] = null;
+            remaining--;
+        }
+        return sibling;
+    }
+
+    /**
+     * Removes underflowed nodes on the path to the root and re-inserts their entries.
+     */
+    private void condenseTree(Node leaf) {
+        List<Node> orphans = new ArrayList<>();
+
+        Node node = leaf;
+        while (node != root) {
+            Node parent = node.parent;
+            if (node.count < MIN_ENTRIES) {
+                parent.removeChild(node);
+                collectEntries(node, orphans);
+            } else {
+                node.recalculate();
+            }
+            node = parent;
+        }
+        root.recalculate();
+
+        // shorten the tree if the root has a single child left
+        while (!root.leaf && root.count == 1) {
+            root = root.children[0];
+            root.parent = null;
+        }
+        if (!root.leaf && root.count == 0) {
+            root = new Node(true);
+        }
+
+        for (Node orphan : orphans) {
+            insert(orphan);
+        }
+    }
+
+    /**
+     * Packs the nodes of a level into the parent nodes: the nodes get sorted into vertical slices
+     * by their centers' X, and every slice gets cut into parents by the centers' Y.
+     */
+    private static Node[] pack(Node[] nodes, boolean leaf) {
+        final int parentCount = (nodes.length + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(parentCount));
+        final int sliceSize = (nodes.length + sliceCount - 1) / sliceCount;
+
+        sortByCenter(nodes, 0, nodes.length, true);
+        List<Node> parents = new ArrayList<>(parentCount + sliceCount);
+        for (int sliceStart = 0; sliceStart < nodes.length; sliceStart += sliceSize) {
+            final int sliceEnd = Math.min(sliceStart + sliceSize, nodes.length);
+            sortByCenter(nodes, sliceStart, sliceEnd, false);
+
+            // the slice's nodes are spread evenly over its parents
+            final int sliceNodes = sliceEnd - sliceStart;
+            final int sliceParents = (sliceNodes + MAX_ENTRIES - 1) / MAX_ENTRIES;
+            for (int i = 0; i < sliceParents; i++) {
+                Node parent = new Node(leaf);
+                final int end = sliceStart + (int) ((long) sliceNodes * (i + 1) / sliceParents);
+                for (int j = sliceStart + (int) ((long) sliceNodes * i / sliceParents); j < end; j++) {
+                    parent.addChild(nodes[j]);
+                }
+                parents.add(parent);
+            }
+        }
+        return parents.toArray(new Node[0]);
+    }
+
+    /**
+     * Sorts the range of nodes by their centers' X (or Y). Centers get packed with the node positions
+     * into single <code>long</code>s, so the range is sorted as primitives.
+     */
+    private static void sortByCenter(Node[] nodes, int from, int to, boolean byX) {
+        final long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            final Node node = nodes[i];
+            final long center = byX ? ((long) node.minX + node.maxX) >> 1 : ((long) node.minY + node.maxY) >> 1;
+            keys[i - from] = (center << 32) | (i - from);
+        }
+        Arrays.sort(keys);
+
+        final Node[] sorted = Arrays.copyOfRange(nodes, from, to);
+        for (int i = 0; i < keys.length; i++) {
+            nodes[from + i] = sorted[(int) keys[i]];
+        }
+    }
+
+    private static void collectEntries(Node node, List<Node> collector) {
+        for (int i = 0; i < node.count; i++) {
+            if (node.leaf) {
+                collector.add(node.children[i]);
+            } else {
+                collectEntries(node.children[i], collector);
+            }
+        }
+    }
+
+    // endregion
+
+    /**
+     * Tree node. Leaf entries are nodes without children, holding the widget slot.
+     */
+    private static final class Node {
+        final boolean leaf;
+        final Node[] children;
+        final int slot;
+
+        Node parent;
+        int count;
+
+        // count of entries in the subtree
+        int total;
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+            this.children = new Node[MAX_ENTRIES + 1];
+            this.slot = -1;
+        }
+
+        Node(int slot, int minX, int minY, int maxX, int maxY) {
+            this.leaf = false;
+            this.children = null;
+            this.slot = slot;
+            this.total = 1;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        void addChild(Node child) {
+            children[count++] = child;
+            child.parent = this;
+            total += child.total;
+            include(child);
+        }
+
+        void removeChild(Node child) {
+            for (int i = 0; i < count; i++) {
+                if (children[i] == child) {
+                    children[i] = children[--count];
+                    children[count] = null;
+                    child.parent = null;
+                    total -= child.total;
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < count; i++) {
+                children[i] = null;
+            }
+            count = 0;
+            total = 0;
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+        }
+
+        void include(Node other) {
+            minX = Math.min(minX, other.minX);
+            minY = Math.min(minY, other.minY);
+            maxX = Math.max(maxX, other.maxX);
+            maxY = Math.max(maxY, other.maxY);
+        }
+
+        void recalculate() {
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                include(children[i]);
+            }
+            recount();
+        }
+
+        void recount() {
+            total = 0;
+            for (int i = 0; i < count; i++) {
+                total += children[i].total;
+            }
+        }
+
+        boolean within(int leftX, int leftY, int rightX, int rightY) {
+            return minX >= leftX && minY >= leftY && maxX <= rightX && maxY <= rightY;
+        }
+
+        boolean intersects(int leftX, int leftY, int rightX, int rightY) {
+            return minX <= rightX && maxX >= leftX && minY <= rightY && maxY >= leftY;
+        }
+
+        long area() {
+            if (minX > maxX)
+                return 0;
+            return ((long) maxX - minX) * ((long) maxY - minY);
+        }
+
+        long areaWith(Node other) {
+            long width = (long) Math.max(maxX, other.maxX) - Math.min(minX, other.minX);
+            long height = (long) Math.max(maxY, other.maxY) - Math.min(minY, other.minY);
+            return width * height;
+        }
+
+        long enlargement(Node other) {
+            return count == 0 ? other.area() : areaWith(other) - area();
+        }
+    }
+
+}
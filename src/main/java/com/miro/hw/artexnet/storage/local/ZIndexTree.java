@@ -0,0 +1,514 @@
+package com.miro.hw.artexnet.storage.local;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Order-statistic treap keyed by the widgets' z-index. Nodes keep the z-index and the modification
+ * date only, other attributes are referenced by the {@link WidgetColumns} slot.
+ * Supports O(log n) insert/remove, rank lookups and in-order iteration
+ * (the iteration order is z-index descending, same as the paging order).
+ *
+ * Z-index shifts are applied lazily: incrementing the contiguous run of z-indexes
+ * above an inserted widget tags the root of the run subtree only, and actual
+ * z-indexes are resolved while reading. Nodes keep parent links, so a node handle
+ * is enough to resolve the widget without knowing its current z-index.
+ *
+ * Not thread-safe: callers are responsible for the synchronization.
+ */
+final class ZIndexTree {
+    // Path length limit for the parent walks (far beyond the treap's expected height),
+    // so optimistic reads racing with a writer never loop on a transiently broken path
+    private static final int MAX_PATH_LENGTH = 4096;
+
+    private final Random random;
+    private Node root;
+
+    // split results (avoids allocations on every split)
+    private Node splitLeft;
+    private Node splitRight;
+
+    // count of the widgets shifted by the last insert
+    private int lastShifted;
+
+    /**
+     * Initializes a new instance of the class.
+     */
+    ZIndexTree() {
+        random = new Random();
+    }
+
+    /**
+     * Gets the count of stored widgets.
+     */
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Gets the greatest stored z-index (the tree must not be empty).
+     */
+    int maxZIndex() {
+        return root.max;
+    }
+
+    /**
+     * Resolves the widget stored by the specified node with the actual z-index and modification date.
+     */
+    <T> T get(Node node, Resolver<T> resolver) {
+        int offset = 0;
+        int length = 0;
+        LocalDateTime shiftedAt = null;
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            offset += ancestor.delta;
+            shiftedAt = latest(shiftedAt, ancestor.shiftedAt);
+            checkPathLength(++length);
+        }
+        return node.resolve(offset, shiftedAt, resolver);
+    }
+
+    /**
+     * Gets the actual z-index of the widget stored by the specified node.
+     */
+    int getZIndex(Node node) {
+        int zIndex = node.zIndex;
+        int length = 0;
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            zIndex += ancestor.delta;
+            checkPathLength(++length);
+        }
+        return zIndex;
+    }
+
+    /**
+     * Gets the count of widgets with z-index greater than or equal to the specified one,
+     * i.e. the rank of the first widget below it in z-index descending order.
+     */
+    int rank(int zIndex) {
+        int count = 0;
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            final int childOffset = offset + node.delta;
+            if (node.zIndex + offset >= zIndex) {
+                count += 1 + size(node.right);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+            offset = childOffset;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the count of the widgets shifted by the last insert (the run starting from the inserted z-index).
+     */
+    int getLastShifted() {
+        return lastShifted;
+    }
+
+    /**
+     * Stores the widget slot by the z-index. If the z-index is occupied, z-indexes of the
+     * contiguous run of widgets starting from it are incremented.
+     * @return handle of the stored widget.
+     */
+    Node insert(int zIndex, int slot, LocalDateTime dateModified) {
+        split(root, zIndex);
+        Node lower = splitLeft;
+        Node upper = splitRight;
+
+        lastShifted = 0;
+        if (upper != null && upper.min == zIndex) {
+            int runLength = getRunLength(upper, zIndex);
+            lastShifted = runLength;
+            splitBySize(upper, runLength);
+            Node run = splitLeft;
+            Node rest = splitRight;
+            run.shift(1, LocalDateTime.now());
+            upper = merge(run, rest);
+        }
+
+        Node node = new Node(zIndex, slot, dateModified, random.nextInt());
+        setRoot(merge(merge(lower, node), upper));
+        return node;
+    }
+
+    /**
+     * Stores the widgets in bulk (the tree must be empty). Z-indexes must be unique and sorted ascending,
+     * so the tree gets built in linear time (Cartesian tree of the random priorities, same shape
+     * the one-by-one inserts produce), without any splits or merges.
+     * @return handles of the stored widgets, in the same order.
+     */
+    Node[] build(int[] zIndexes, int[] slots, LocalDateTime[] datesModified, int count) {
+        if (root != null)
+            throw new IllegalStateException("Tree is not empty");
+
+        final Node[] nodes = new Node[count];
+        // right spine of the tree built so far
+        final Deque<Node> spine = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && zIndexes[i] <= zIndexes[i - 1])
+                throw new IllegalArgumentException("Z-indexes must be unique and sorted ascending");
+
+            final Node node = new Node(zIndexes[i], slots[i], datesModified[i], random.nextInt());
+            Node lower = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                lower = spine.pop();
+            }
+            node.left = lower;
+            if (!spine.isEmpty())
+                spine.peek().right = node;
+            spine.push(node);
+            nodes[i] = node;
+        }
+
+        if (!spine.isEmpty())
+            setRoot(link(spine.peekLast()));
+        return nodes;
+    }
+
+    /**
+     * Removes the widget stored by the specified node. The node is unlinked in place
+     * (its children subtrees get merged), so neither a z-index lookup nor re-indexing is required.
+     */
+    void remove(Node node) {
+        // apply pending shifts on the path, so the node's children get actual z-indexes
+        pushPath(node);
+
+        final Node parent = node.parent;
+        final Node replacement = merge(node.left, node.right);
+        if (parent == null) {
+            setRoot(replacement);
+        } else {
+            if (parent.left == node) {
+                parent.setLeft(replacement);
+            } else {
+                parent.setRight(replacement);
+            }
+            for (Node ancestor = parent.parent; ancestor != null; ancestor = ancestor.parent) {
+                ancestor.update();
+            }
+        }
+
+        node.parent = null;
+        node.left = null;
+        node.right = null;
+    }
+
+    /**
+     * Gets the iterator over widgets in z-index descending order.
+     * @param rank the position to start from (0-based).
+     */
+    <T> Iterator<T> iterator(int rank, Resolver<T> resolver) {
+        return new DescendingIterator<>(root, rank, resolver);
+    }
+
+    // region <TREAP>
+
+    private void setRoot(Node node) {
+        root = node;
+        if (root != null)
+            root.parent = null;
+    }
+
+    private static void checkPathLength(int length) {
+        if (length > MAX_PATH_LENGTH)
+            throw new IllegalStateException("Tree path is broken");
+    }
+
+    /**
+     * Sets the parent links and the subtree sizes/bounds of the freshly built subtree.
+     */
+    private static Node link(Node node) {
+        node.setLeft(node.left == null ? null : link(node.left));
+        node.setRight(node.right == null ? null : link(node.right));
+        return node;
+    }
+
+    private static void pushPath(Node node) {
+        if (node.parent != null)
+            pushPath(node.parent);
+        node.push();
+    }
+
+    /**
+     * Gets the count of the leading (lowest) nodes forming the contiguous
+     * z-index sequence starting from the specified one.
+     */
+    private static int getRunLength(Node node, int zIndex) {
+        int count = 0;
+        int expected = zIndex;
+        int offset = 0;
+        while (node != null) {
+            final int childOffset = offset + node.delta;
+            final Node left = node.left;
+            if (left != null) {
+                final int leftMin = left.min + childOffset;
+                final int leftMax = left.max + childOffset;
+                if (leftMin != expected || leftMax - leftMin != left.size - 1) {
+                    node = left;
+                    offset = childOffset;
+                    continue;
+                }
+                count += left.size;
+                expected += left.size;
+            }
+            if (node.zIndex + offset != expected)
+                break;
+
+            count++;
+            expected++;
+            node = node.right;
+            offset = childOffset;
+        }
+        return count;
+    }
+
+    /**
+     * Splits the tree into nodes with z-index lower than specified ({@link #splitLeft})
+     * and the rest ({@link #splitRight}).
+     */
+    private void split(Node node, int zIndex) {
+        if (node == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+
+        node.push();
+        if (node.zIndex < zIndex) {
+            split(node.right, zIndex);
+            node.setRight(splitLeft);
+            splitLeft = node;
+        } else {
+            split(node.left, zIndex);
+            node.setLeft(splitRight);
+            splitRight = node;
+        }
+    }
+
+    /**
+     * Splits the tree into the specified count of the lowest nodes ({@link #splitLeft})
+     * and the rest ({@link #splitRight}).
+     */
+    private void splitBySize(Node node, int count) {
+        if (node == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+
+        node.push();
+        final int lowerSize = size(node.left);
+        if (lowerSize < count) {
+            splitBySize(node.right, count - lowerSize - 1);
+            node.setRight(splitLeft);
+            splitLeft = node;
+        } else {
+            splitBySize(node.left, count);
+            node.setLeft(splitRight);
+            splitRight = node;
+        }
+    }
+
+    private static Node merge(Node lower, Node upper) {
+        if (lower == null)
+            return upper;
+        if (upper == null)
+            return lower;
+
+        if (lower.priority > upper.priority) {
+            lower.push();
+            lower.setRight(merge(lower.right, upper));
+            return lower;
+        }
+        upper.push();
+        upper.setLeft(merge(lower, upper.left));
+        return upper;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static LocalDateTime latest(LocalDateTime first, LocalDateTime second) {
+        if (first == null)
+            return second;
+        if (second == null)
+            return first;
+        return first.isAfter(second) ? first : second;
+    }
+
+    // endregion
+
+    /**
+     * Tree node, also serving as a handle of the stored widget.
+     *
+     * The own z-index is actual once pending shifts of all ancestors are applied;
+     * subtree bounds (min/max) are kept in the same frame as the own z-index.
+     */
+    static final class Node {
+        private final int slot;
+        private final int priority;
+
+        private int zIndex;
+        private LocalDateTime dateModified;
+
+        // pending shift of the descendants
+        private int delta;
+        private LocalDateTime shiftedAt;
+
+        private int size;
+        private int min;
+        private int max;
+        private Node parent;
+        private Node left;
+        private Node right;
+
+        private Node(int zIndex, int slot, LocalDateTime dateModified, int priority) {
+            this.slot = slot;
+            this.priority = priority;
+            this.zIndex = zIndex;
+            this.dateModified = dateModified;
+            this.size = 1;
+            this.min = zIndex;
+            this.max = zIndex;
+        }
+
+        int getSlot() {
+            return slot;
+        }
+
+        private <T> T resolve(int offset, LocalDateTime shiftedAt, Resolver<T> resolver) {
+            return resolver.resolve(slot, zIndex + offset, latest(dateModified, shiftedAt));
+        }
+
+        private void shift(int value, LocalDateTime dateTime) {
+            zIndex += value;
+            min += value;
+            max += value;
+            dateModified = dateTime;
+            delta += value;
+            shiftedAt = dateTime;
+        }
+
+        /**
+         * Applies the pending shift to the children.
+         */
+        private void push() {
+            if (shiftedAt == null)
+                return;
+
+            if (left != null)
+                left.shift(delta, shiftedAt);
+            if (right != null)
+                right.shift(delta, shiftedAt);
+            delta = 0;
+            shiftedAt = null;
+        }
+
+        private void setLeft(Node node) {
+            left = node;
+            if (node != null)
+                node.parent = this;
+            update();
+        }
+
+        private void setRight(Node node) {
+            right = node;
+            if (node != null)
+                node.parent = this;
+            update();
+        }
+
+        private void update() {
+            size = 1 + size(left) + size(right);
+            min = left == null ? zIndex : left.min + delta;
+            max = right == null ? zIndex : right.max + delta;
+        }
+    }
+
+    /**
+     * In-order (z-index descending) iterator starting from the specified rank.
+     * Pending shifts are accumulated along the path instead of being applied.
+     */
+    private static final class DescendingIterator<T> implements Iterator<T> {
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private final Resolver<T> resolver;
+
+        DescendingIterator(Node root, int rank, Resolver<T> resolver) {
+            this.resolver = resolver;
+            Frame frame = root == null ? null : new Frame(root, 0, null);
+            while (frame != null) {
+                final Node node = frame.node;
+                final int upperSize = size(node.right);
+                if (rank < upperSize) {
+                    stack.push(frame);
+                    frame = frame.child(node.right);
+                } else if (rank == upperSize) {
+                    stack.push(frame);
+                    break;
+                } else {
+                    rank -= upperSize + 1;
+                    frame = node.left == null ? null : frame.child(node.left);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (stack.isEmpty())
+                throw new NoSuchElementException();
+
+            final Frame current = stack.pop();
+            Frame frame = current;
+            for (Node lower = current.node.left; lower != null; lower = lower.right) {
+                frame = frame.child(lower);
+                stack.push(frame);
+            }
+            return current.node.resolve(current.offset, current.shiftedAt, resolver);
+        }
+    }
+
+    /**
+     * Node paired with the pending shift of its ancestors.
+     */
+    private static final class Frame {
+        final Node node;
+        final int offset;
+        final LocalDateTime shiftedAt;
+
+        Frame(Node node, int offset, LocalDateTime shiftedAt) {
+            this.node = node;
+            this.offset = offset;
+            this.shiftedAt = shiftedAt;
+        }
+
+        Frame child(Node child) {
+            return new Frame(child, offset + node.delta, latest(shiftedAt, node.shiftedAt));
+        }
+    }
+
+    /**
+     * Resolves the stored widget representation from its slot, actual z-index and modification date.
+     */
+    @FunctionalInterface
+    interface Resolver<T> {
+        T resolve(int slot, int zIndex, LocalDateTime dateModified);
+    }
+
+}
@@ -3,8 +3,11 @@ package com.miro.hw.artexnet;
 import com.miro.hw.artexnet.common.immutable.Area;
 import com.miro.hw.artexnet.common.immutable.Point;
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
 import static com.miro.hw.artexnet.AbstractTest.getRandomNumber;
 import static com.miro.hw.artexnet.AbstractTest.objectGenerator;
@@ -39,4 +42,26 @@ public class DataHelper {
         return new Area(leftBottom, topRight);
     }
 
+    /**
+     * Applies the changes to the widgets copy (as the delta syncing client does) {ID/Widget}.
+     */
+    public static void applyChanges(Map<Long, Widget> widgets, List<WidgetChangeEvent> changes) {
+        for (WidgetChangeEvent change : changes) {
+            switch (change.getType()) {
+                case SHIFTED:
+                    for (Widget widget : widgets.values()) {
+                        int zIndex = widget.getZ_index();
+                        if (zIndex >= change.getFromZIndex() && zIndex <= change.getToZIndex())
+                            widget.setZ_index(zIndex + change.getDelta());
+                    }
+                    break;
+                case DELETED:
+                    widgets.remove(change.getId());
+                    break;
+                default:
+                    widgets.put(change.getId(), change.getWidget().toBuilder().build());
+            }
+        }
+    }
+
 }
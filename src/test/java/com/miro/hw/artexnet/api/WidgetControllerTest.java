@@ -1,13 +1,19 @@
 package com.miro.hw.artexnet.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.miro.hw.artexnet.BaseTestUnit;
 import com.miro.hw.artexnet.ConvertHelper;
 import com.miro.hw.artexnet.DataHelper;
 import com.miro.hw.artexnet.api.dto.AreaRequest;
 import com.miro.hw.artexnet.api.dto.PageRequest;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
 import com.miro.hw.artexnet.configuration.StorageProviderConfig;
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.feed.WidgetChangeFeed;
 import com.miro.hw.artexnet.storage.WidgetStorage;
 import org.junit.After;
 import org.junit.Before;
@@ -16,17 +22,24 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class WidgetControllerTest extends BaseTestUnit {
@@ -35,6 +48,10 @@ public class WidgetControllerTest extends BaseTestUnit {
     private StorageProviderConfig storageProviderConfig;
     @Mock
     private WidgetStorage storage;
+    @Mock
+    private WidgetChangeFeed changeFeed;
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
 
     @InjectMocks
     private WidgetController widgetController;
@@ -44,7 +61,8 @@ public class WidgetControllerTest extends BaseTestUnit {
     public void setUp() {
         super.setUp();
         Mockito.doReturn(storage).when(storageProviderConfig).getConfiguredStorage();
-        widgetController = new WidgetController(storageProviderConfig);
+        Mockito.doCallRealMethod().when(storage).readAtVersion(anyString(), any());
+        widgetController = new WidgetController(storageProviderConfig, changeFeed, objectMapper);
         mockMvc = MockMvcBuilders.standaloneSetup(widgetController).alwaysDo(print()).build();
     }
 
@@ -79,7 +97,7 @@ public class WidgetControllerTest extends BaseTestUnit {
                 .andReturn();
 
         ArgumentCaptor<Widget> widgetCaptor = ArgumentCaptor.forClass(Widget.class);
-        verify(storage, times(1)).createWidget(widgetCaptor.capture());
+        verify(storage, times(1)).createWidget(eq(WidgetStorage.DEFAULT_BOARD), widgetCaptor.capture());
         verifyNoMoreInteractions(storage);
 
         Widget widget = widgetCaptor.getValue();
@@ -102,7 +120,9 @@ public class WidgetControllerTest extends BaseTestUnit {
         ArgumentCaptor<Integer> pageCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> sizeCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
-        verify(storage, times(1)).getWidgets(pageCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture());
+        verify(storage, times(1)).getWidgets(eq(WidgetStorage.DEFAULT_BOARD), pageCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture(), eq(true));
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
         verifyNoMoreInteractions(storage);
 
         assertEquals(PageRequest.DEFAULT_PAGE, pageCaptor.getValue().intValue());
@@ -124,7 +144,9 @@ public class WidgetControllerTest extends BaseTestUnit {
         ArgumentCaptor<Integer> pageCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> sizeCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
-        verify(storage, times(1)).getWidgets(pageCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture());
+        verify(storage, times(1)).getWidgets(eq(WidgetStorage.DEFAULT_BOARD), pageCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture(), eq(true));
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
         verifyNoMoreInteractions(storage);
 
         assertEquals(page, pageCaptor.getValue().intValue());
@@ -146,7 +168,9 @@ public class WidgetControllerTest extends BaseTestUnit {
         ArgumentCaptor<Integer> pageCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> sizeCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
-        verify(storage, times(1)).getWidgets(pageCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture());
+        verify(storage, times(1)).getWidgets(eq(WidgetStorage.DEFAULT_BOARD), pageCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture(), eq(true));
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
         verifyNoMoreInteractions(storage);
 
         assertEquals(PageRequest.DEFAULT_PAGE, pageCaptor.getValue().intValue());
@@ -159,9 +183,88 @@ public class WidgetControllerTest extends BaseTestUnit {
         assertEquals(areaRequest.getRightY().intValue(), area.getRightTop().getYAxis());
     }
 
+    @Test
+    public void getWidgets_cursor() throws Exception {
+        final int size = 100;
+        final String cursor = new PageCursor(42).encode();
+        MvcResult result = mockMvc.perform(get("/api/v1/widgets?cursor={cursor}&size={size}", cursor, size)
+                .contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertNotNull(result.getResponse().getContentAsString());
+
+        ArgumentCaptor<PageCursor> cursorCaptor = ArgumentCaptor.forClass(PageCursor.class);
+        ArgumentCaptor<Integer> sizeCaptor = ArgumentCaptor.forClass(Integer.class);
+        ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
+        verify(storage, times(1)).getWidgets(eq(WidgetStorage.DEFAULT_BOARD), cursorCaptor.capture(), sizeCaptor.capture(), areaCaptor.capture(), eq(true));
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
+        verifyNoMoreInteractions(storage);
+
+        assertEquals(42, cursorCaptor.getValue().getZIndex());
+        assertEquals(size, sizeCaptor.getValue().intValue());
+        assertNull(areaCaptor.getValue());
+    }
+
+    @Test
+    public void getWidgets_board() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/boards/{boardId}/widgets", "board-1")
+                .contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertNotNull(result.getResponse().getContentAsString());
+
+        verify(storage, times(1)).getWidgets(eq("board-1"), eq(PageRequest.DEFAULT_PAGE),
+                eq(PageRequest.DEFAULT_ITEMS_CHUNK), isNull(), eq(true));
+        verify(storage, times(1)).getBoardVersion(eq("board-1"));
+        verify(storage, times(1)).readAtVersion(eq("board-1"), any());
+        verifyNoMoreInteractions(storage);
+    }
+
+    @Test
+    public void removeWidget_board() throws Exception {
+        mockMvc.perform(delete("/api/v1/boards/{boardId}/widgets/{id}", "board-1", 1L)
+                .contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isNoContent())
+                .andReturn();
+
+        verify(storage, times(1)).deleteById(eq("board-1"), eq(1L));
+        verifyNoMoreInteractions(storage);
+    }
+
+    @Test
+    public void streamWidgets() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Widget> action = invocation.getArgument(2);
+            action.accept(DataHelper.createWidget(2, 10, 10, 20, 20));
+            action.accept(DataHelper.createWidget(1, 10, 10, 20, 20));
+            return null;
+        }).when(storage).forEachWidget(anyString(), any(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/widgets/stream?leftX=0&leftY=0&rightX=100&rightY=100"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult streamed = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        // validate: widget per line
+        String[] lines = streamed.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("{") && lines[0].contains("\"z_index\":2"));
+        assertTrue(lines[1], lines[1].startsWith("{") && lines[1].contains("\"z_index\":1"));
+
+        ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
+        verify(storage, times(1)).forEachWidget(eq(WidgetStorage.DEFAULT_BOARD), areaCaptor.capture(), any());
+        verifyNoMoreInteractions(storage);
+        assertEquals(100, areaCaptor.getValue().getRightTop().getXAxis());
+    }
+
     @Test
     public void getWidget_id() throws Exception {
-        doReturn(Optional.of(Widget.builder().build())).when(storage).getById(anyLong());
+        doReturn(Optional.of(Widget.builder().build())).when(storage).getById(anyString(), anyLong());
         MvcResult result = mockMvc.perform(get("/api/v1/widgets/{id}", 1L)
                 .contentType(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
@@ -170,14 +273,16 @@ public class WidgetControllerTest extends BaseTestUnit {
         assertNotNull(result.getResponse().getContentAsString());
 
         ArgumentCaptor<Long> idCaptor = ArgumentCaptor.forClass(Long.class);
-        verify(storage, times(1)).getById(idCaptor.capture());
+        verify(storage, times(1)).getById(eq(WidgetStorage.DEFAULT_BOARD), idCaptor.capture());
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
         verifyNoMoreInteractions(storage);
     }
 
     @Test
     public void getWidgetsCount() throws Exception {
-        doReturn(1000L).when(storage).getWidgetsCount();
-        doReturn(1000L).when(storage).getWidgetsCount(any(Area.class));
+        doReturn(1000L).when(storage).getWidgetsCount(anyString());
+        doReturn(1000L).when(storage).getWidgetsCount(anyString(), any(Area.class));
 
         MvcResult result = mockMvc.perform(get("/api/v1/widgets/count", 1L)
                 .contentType(MediaType.APPLICATION_JSON_VALUE))
@@ -185,14 +290,122 @@ public class WidgetControllerTest extends BaseTestUnit {
                 .andReturn();
 
         assertNotNull(result.getResponse().getContentAsString());
-        verify(storage, times(1)).getWidgetsCount();
+        verify(storage, times(1)).getWidgetsCount(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
+        verifyNoMoreInteractions(storage);
+    }
+
+    @Test
+    public void getWidgets_notModified() throws Exception {
+        doReturn(7L).when(storage).getBoardVersion(anyString());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/widgets?leftX=0&leftY=0&rightX=100&rightY=100")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"7\""))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        // validate: no widgets read
+        assertEquals("\"7\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+        assertEquals(0, result.getResponse().getContentLength());
+        verify(storage, times(1)).getBoardVersion(eq(WidgetStorage.DEFAULT_BOARD));
+        verify(storage, times(1)).readAtVersion(eq(WidgetStorage.DEFAULT_BOARD), any());
         verifyNoMoreInteractions(storage);
     }
 
+    @Test
+    public void getWidgets_modified() throws Exception {
+        doReturn(8L).when(storage).getBoardVersion(anyString());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/widgets")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"7\""))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals("\"8\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+        verify(storage, times(1)).getWidgets(eq(WidgetStorage.DEFAULT_BOARD), eq(PageRequest.DEFAULT_PAGE),
+                eq(PageRequest.DEFAULT_ITEMS_CHUNK), isNull(), eq(true));
+    }
+
+    @Test
+    public void getWidget_notModified() throws Exception {
+        doReturn(7L).when(storage).getBoardVersion(anyString());
+
+        mockMvc.perform(get("/api/v1/boards/{boardId}/widgets/{id}", "board-1", 1L)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"7\""))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        verify(storage, times(1)).getBoardVersion(eq("board-1"));
+        verify(storage, times(1)).readAtVersion(eq("board-1"), any());
+        verifyNoMoreInteractions(storage);
+    }
+
+    @Test
+    public void getChanges() throws Exception {
+        Widget widget = DataHelper.createWidget(1, 10, 10, 20, 20);
+        doReturn(WidgetChanges.of(8L, Collections.singletonList(WidgetChangeEvent.created(widget))))
+                .when(storage).getChanges(anyString(), anyLong(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/boards/{boardId}/widgets/changes?since=7&leftX=0&leftY=0&rightX=100&rightY=100",
+                "board-1"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String content = result.getResponse().getContentAsString();
+        assertTrue(content, content.contains("\"type\":\"created\""));
+        assertFalse(content, content.contains("previous"));
+
+        ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
+        verify(storage, times(1)).getChanges(eq("board-1"), eq(7L), areaCaptor.capture());
+        verifyNoMoreInteractions(storage);
+        assertEquals(100, areaCaptor.getValue().getRightTop().getXAxis());
+    }
+
+    @Test
+    public void getChanges_resyncRequired() throws Exception {
+        doReturn(WidgetChanges.resyncRequired(8L)).when(storage).getChanges(anyString(), anyLong(), any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/widgets/changes?since=1"))
+                .andExpect(status().isGone())
+                .andReturn();
+
+        String content = result.getResponse().getContentAsString();
+        assertTrue(content, content.contains("\"resyncRequired\":true"));
+        assertTrue(content, content.contains("\"version\":8"));
+    }
+
+    @Test
+    public void subscribeChanges() throws Exception {
+        doReturn(new SseEmitter()).when(changeFeed).subscribe(anyString(), any(), any());
+
+        mockMvc.perform(get("/api/v1/boards/{boardId}/widgets/feed?since=5&leftX=0&leftY=0&rightX=100&rightY=100",
+                "board-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ArgumentCaptor<Area> areaCaptor = ArgumentCaptor.forClass(Area.class);
+        verify(changeFeed, times(1)).subscribe(eq("board-1"), areaCaptor.capture(), eq(5L));
+        assertEquals(100, areaCaptor.getValue().getRightTop().getXAxis());
+        verifyNoInteractions(storage);
+    }
+
+    @Test
+    public void subscribeChanges_reconnected() throws Exception {
+        doReturn(new SseEmitter()).when(changeFeed).subscribe(anyString(), any(), any());
+
+        // the last event ID takes precedence over the initial version
+        mockMvc.perform(get("/api/v1/widgets/feed?since=5").header("Last-Event-ID", "12"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        verify(changeFeed, times(1)).subscribe(eq(WidgetStorage.DEFAULT_BOARD), isNull(), eq(12L));
+    }
+
     @Test
     public void updateWidget() throws Exception {
         Widget payload = DataHelper.createWidget(1, 10, 10, 20, 20);
-        doReturn(payload).when(storage).updateWidget(any(Widget.class));
+        doReturn(payload).when(storage).updateWidget(anyString(), any(Widget.class));
         MvcResult result = mockMvc.perform(put("/api/v1/widgets/{id}", payload.getId())
                 .content(ConvertHelper.objectToJsonBytes(payload))
                 .contentType(MediaType.APPLICATION_JSON_VALUE))
@@ -202,8 +415,49 @@ public class WidgetControllerTest extends BaseTestUnit {
         assertNotNull(result.getResponse().getContentAsString());
 
         ArgumentCaptor<Widget> widgetCaptor = ArgumentCaptor.forClass(Widget.class);
-        verify(storage, times(1)).updateWidget(widgetCaptor.capture());
+        verify(storage, times(1)).updateWidget(eq(WidgetStorage.DEFAULT_BOARD), widgetCaptor.capture());
+        verifyNoMoreInteractions(storage);
+    }
+
+    @Test
+    public void applyBatch() throws Exception {
+        String payload = "{\"operations\": [" +
+                "{\"type\": \"create\", \"widget\": {\"x\": 1, \"y\": 2, \"width\": 10, \"height\": 10}}, " +
+                "{\"type\": \"update\", \"widget\": {\"id\": 5, \"z_index\": 3, \"x\": 1, \"y\": 2, " +
+                "\"width\": 10, \"height\": 10}}, " +
+                "{\"type\": \"delete\", \"id\": 7}]}";
+        mockMvc.perform(post("/api/v1/boards/{boardId}/widgets/batch", "board-1")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(payload))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<WidgetOperation>> operationsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(storage, times(1)).applyBatch(eq("board-1"), operationsCaptor.capture());
         verifyNoMoreInteractions(storage);
+
+        List<WidgetOperation> operations = operationsCaptor.getValue();
+        assertEquals(3, operations.size());
+        assertEquals(WidgetOperation.Type.CREATE, operations.get(0).getType());
+        assertNull(operations.get(0).getWidget().getZ_index());
+        assertEquals(WidgetOperation.Type.UPDATE, operations.get(1).getType());
+        assertEquals(5L, (long) operations.get(1).targetId());
+        assertEquals(WidgetOperation.Type.DELETE, operations.get(2).getType());
+        assertEquals(7L, (long) operations.get(2).targetId());
+    }
+
+    @Test
+    public void applyBatch_invalidWidget() throws Exception {
+        String payload = "{\"operations\": [" +
+                "{\"type\": \"create\", \"widget\": {\"x\": 1, \"width\": 10, \"height\": 10}}]}";
+        mockMvc.perform(post("/api/v1/widgets/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(payload))
+                .andExpect(status().isBadRequest())
+                .andReturn();
+
+        verifyNoInteractions(storage);
     }
 
     @Test
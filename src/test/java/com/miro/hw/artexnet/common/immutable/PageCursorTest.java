@@ -0,0 +1,39 @@
+package com.miro.hw.artexnet.common.immutable;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.exception.ValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PageCursorTest extends BaseTestUnit {
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void encodeDecode() {
+        for (int zIndex : new int[] { Integer.MIN_VALUE, -1, 0, 1, 42, Integer.MAX_VALUE }) {
+            assertEquals(zIndex, PageCursor.decode(new PageCursor(zIndex).encode()).getZIndex());
+        }
+    }
+
+    @Test(expected = ValidationException.class)
+    public void decode_notValid() {
+        try {
+            PageCursor.decode("not-a-cursor");
+        } catch (Exception ex) {
+            assertEquals("Cursor is not valid", ex.getMessage());
+            throw ex;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.miro.hw.artexnet.feed;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.Point;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionIndexTest extends BaseTestUnit {
+
+    // Index to test
+    private SubscriptionIndex index;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        index = new SubscriptionIndex();
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    /**
+     * @see SubscriptionIndex#collect(com.miro.hw.artexnet.domain.Widget, Set)
+     */
+    @Test
+    public void collect() {
+        FeedSubscription small = newSubscription(DataHelper.createArea(new Point(-100, -100), new Point(100, 100)));
+        FeedSubscription far = newSubscription(DataHelper.createArea(new Point(5000, 5000), new Point(6000, 6000)));
+        FeedSubscription huge = newSubscription(DataHelper.createArea(new Point(-100000, -100000), new Point(100000, 100000)));
+        FeedSubscription board = newSubscription(null);
+        index.add(small);
+        index.add(far);
+        index.add(huge);
+        index.add(board);
+
+        // test
+        Set<FeedSubscription> inside = new HashSet<>();
+        index.collect(DataHelper.createWidget(1, -50, -50, 20, 20), inside);
+        Set<FeedSubscription> crossing = new HashSet<>();
+        index.collect(DataHelper.createWidget(1, 100, 100, 20, 20), crossing);
+
+        // validate
+        assertEquals(4, index.size());
+        assertEquals(Set.of(small, huge, board), inside);
+        assertEquals(Set.of(huge, board), crossing);
+    }
+
+    /**
+     * @see SubscriptionIndex#remove(FeedSubscription)
+     */
+    @Test
+    public void remove() {
+        FeedSubscription small = newSubscription(DataHelper.createArea(new Point(0, 0), new Point(3000, 3000)));
+        FeedSubscription board = newSubscription(null);
+        index.add(small);
+        index.add(board);
+
+        // test
+        index.remove(small);
+        index.remove(board);
+
+        // validate
+        Set<FeedSubscription> matches = new HashSet<>();
+        index.collect(DataHelper.createWidget(1, 50, 50, 10, 10), matches);
+        assertTrue(matches.isEmpty());
+        assertTrue(index.isEmpty());
+    }
+
+    ////////////////////////////////////
+
+    private static FeedSubscription newSubscription(Area area) {
+        return new FeedSubscription("board", area, new SseEmitter(), 1, Runnable::run);
+    }
+
+}
@@ -0,0 +1,285 @@
+package com.miro.hw.artexnet.feed;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import com.miro.hw.artexnet.storage.WidgetStorage;
+import com.miro.hw.artexnet.storage.local.AreaIndexType;
+import com.miro.hw.artexnet.storage.local.WidgetLocalStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class WidgetChangeFeedTest extends BaseTestUnit {
+    private static final String BOARD_ID = WidgetStorage.DEFAULT_BOARD;
+
+    private WidgetLocalStorage storage;
+
+    // Feed to test (dispatched by the test, messages sent right away)
+    private WidgetChangeFeed feed;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        storage = new WidgetLocalStorage(AreaIndexType.RTREE, Duration.ofMinutes(1), 10);
+        feed = newFeed(Runnable::run, 16, Duration.ofHours(1));
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    /**
+     * @see WidgetChangeFeed#subscribe(String, com.miro.hw.artexnet.common.immutable.Area, Long)
+     */
+    @Test
+    public void dispatch_filteredByArea() {
+        RecordingEmitter near = new RecordingEmitter();
+        RecordingEmitter far = new RecordingEmitter();
+        RecordingEmitter board = new RecordingEmitter();
+        feed.subscribe(BOARD_ID, DataHelper.createArea(new Point(0, 0), new Point(100, 100)), null, near);
+        feed.subscribe(BOARD_ID, DataHelper.createArea(new Point(5000, 5000), new Point(5100, 5100)), null, far);
+        feed.subscribe(BOARD_ID, null, null, board);
+
+        // test
+        Widget created = storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+        feed.dispatch();
+
+        // validate
+        assertEquals(3, feed.getSubscriptionsCount(BOARD_ID));
+        assertEquals(2, near.messages.size());
+        assertEquals(2, board.messages.size());
+        assertEquals(1, far.messages.size());
+
+        // the initial message, then the changes of the version
+        assertTrue(near.messages.get(0).changes.getChanges().isEmpty());
+        WidgetChanges changes = near.messages.get(1).changes;
+        assertEquals(FeedSubscription.CHANGES_EVENT, near.messages.get(1).name);
+        assertEquals(storage.getBoardVersion(), changes.getVersion());
+        assertEquals(String.valueOf(changes.getVersion()), near.messages.get(1).id);
+        assertEquals(1, changes.getChanges().size());
+        assertEquals(WidgetChangeEvent.Type.CREATED, changes.getChanges().get(0).getType());
+        assertEquals(created.getId(), changes.getChanges().get(0).getId());
+    }
+
+    /**
+     * @see WidgetChangeFeed#dispatch()
+     */
+    @Test
+    public void dispatch_shiftsToAllSubscriptions() {
+        storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+        RecordingEmitter far = new RecordingEmitter();
+        feed.subscribe(BOARD_ID, DataHelper.createArea(new Point(5000, 5000), new Point(5100, 5100)), null, far);
+
+        // test
+        storage.createWidget(DataHelper.createWidget(1, 60, 60, 10, 10));
+        feed.dispatch();
+
+        // validate
+        assertEquals(2, far.messages.size());
+        List<WidgetChangeEvent> changes = far.messages.get(1).changes.getChanges();
+        assertEquals(1, changes.size());
+        assertEquals(WidgetChangeEvent.Type.SHIFTED, changes.get(0).getType());
+    }
+
+    /**
+     * @see WidgetChangeFeed#dispatch()
+     */
+    @Test
+    public void dispatch_changedBoardsOnly() {
+        storage = spy(storage);
+        feed = newFeed(Runnable::run, 16, Duration.ofHours(1));
+        RecordingEmitter changed = new RecordingEmitter();
+        RecordingEmitter idle = new RecordingEmitter();
+        feed.subscribe("changed-board", null, null, changed);
+        feed.subscribe("idle-board", null, null, idle);
+        feed.dispatch();
+        clearInvocations(storage);
+
+        // test
+        storage.createWidget("changed-board", DataHelper.createWidget(1, 50, 50, 10, 10));
+        feed.dispatch();
+        feed.dispatch();
+
+        // validate: the log of the idle board is not read
+        assertEquals(2, changed.messages.size());
+        assertEquals(1, idle.messages.size());
+        verify(storage, times(1)).getChanges(eq("changed-board"), anyLong(), isNull());
+        verify(storage, never()).getChanges(eq("idle-board"), anyLong(), any());
+    }
+
+    /**
+     * @see WidgetChangeFeed#dispatch()
+     */
+    @Test
+    public void dispatch_sweepCatchesVersionsNotNotified() {
+        // versions committed by the other instances are not notified
+        storage = spy(storage);
+        doNothing().when(storage).addVersionListener(any());
+        feed = newFeed(Runnable::run, 16, Duration.ZERO);
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.subscribe(BOARD_ID, null, null, emitter);
+        feed.dispatch();
+
+        // test
+        storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+        feed.dispatch();
+
+        // validate
+        assertEquals(2, emitter.messages.size());
+        assertEquals(storage.getBoardVersion(), emitter.messages.get(1).changes.getVersion());
+        verify(storage, atLeastOnce()).getBoardVersions(anyCollection());
+    }
+
+    /**
+     * @see WidgetChangeFeed#subscribe(String, com.miro.hw.artexnet.common.immutable.Area, Long)
+     */
+    @Test
+    public void subscribe_sinceVersion() {
+        feed.subscribe(BOARD_ID, null, null, new RecordingEmitter());
+        final long sinceVersion = storage.getBoardVersion();
+        storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+        storage.createWidget(DataHelper.createWidget(2, 50, 50, 10, 10));
+        RecordingEmitter emitter = new RecordingEmitter();
+
+        // test
+        feed.subscribe(BOARD_ID, null, sinceVersion, emitter);
+        feed.dispatch();
+
+        // validate: the changes the feed dispatched later are not repeated
+        assertEquals(1, emitter.messages.size());
+        assertEquals(storage.getBoardVersion(), emitter.messages.get(0).changes.getVersion());
+        assertEquals(2, emitter.messages.get(0).changes.getChanges().size());
+    }
+
+    /**
+     * @see WidgetChangeFeed#subscribe(String, com.miro.hw.artexnet.common.immutable.Area, Long)
+     */
+    @Test
+    public void subscribe_sinceVersionNotAvailable() {
+        final long sinceVersion = storage.getBoardVersion();
+        for (int i = 0; i < 20; i++) {
+            storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+        }
+        RecordingEmitter emitter = new RecordingEmitter();
+
+        // test
+        feed.subscribe(BOARD_ID, null, sinceVersion, emitter);
+
+        // validate
+        assertEquals(1, emitter.messages.size());
+        assertEquals(FeedSubscription.RESYNC_EVENT, emitter.messages.get(0).name);
+        assertTrue(emitter.messages.get(0).changes.isResyncRequired());
+        assertTrue(emitter.completed);
+        assertEquals(0, feed.getSubscriptionsCount(BOARD_ID));
+    }
+
+    /**
+     * @see WidgetChangeFeed#dispatch()
+     */
+    @Test
+    public void dispatch_changesNotAvailable() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.subscribe(BOARD_ID, null, null, emitter);
+        for (int i = 0; i < 20; i++) {
+            storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+        }
+
+        // test
+        feed.dispatch();
+
+        // validate
+        assertEquals(2, emitter.messages.size());
+        assertEquals(FeedSubscription.RESYNC_EVENT, emitter.messages.get(1).name);
+        assertEquals(storage.getBoardVersion(), emitter.messages.get(1).changes.getVersion());
+        assertTrue(emitter.completed);
+        assertEquals(0, feed.getSubscriptionsCount(BOARD_ID));
+    }
+
+    /**
+     * @see WidgetChangeFeed#dispatch()
+     */
+    @Test
+    public void dispatch_slowSubscriber() {
+        List<Runnable> senders = new ArrayList<>();
+        feed = newFeed(senders::add, 2, Duration.ofHours(1));
+        RecordingEmitter slow = new RecordingEmitter();
+        feed.subscribe(BOARD_ID, null, null, slow);
+
+        // test
+        for (int i = 0; i < 3; i++) {
+            storage.createWidget(DataHelper.createWidget(1, 50, 50, 10, 10));
+            feed.dispatch();
+        }
+        senders.forEach(Runnable::run);
+
+        // validate: the queued changes are dropped in favor of the resync
+        assertEquals(1, slow.messages.size());
+        assertEquals(FeedSubscription.RESYNC_EVENT, slow.messages.get(0).name);
+        assertTrue(slow.completed);
+    }
+
+    ////////////////////////////////////
+
+    private WidgetChangeFeed newFeed(Executor senders, int queueCapacity, Duration sweepInterval) {
+        return new WidgetChangeFeed(storage, Duration.ofSeconds(1), queueCapacity, Duration.ofHours(1),
+                sweepInterval, Duration.ofMinutes(1), senders);
+    }
+
+    /**
+     * Emitter keeping the sent messages.
+     */
+    private static final class RecordingEmitter extends SseEmitter {
+        private static final Pattern FIELD_PATTERN = Pattern.compile("^(event|id):(.*)$", Pattern.MULTILINE);
+
+        private final List<Message> messages = new ArrayList<>();
+        private boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            Message message = new Message();
+            for (DataWithMediaType item : builder.build()) {
+                if (item.getData() instanceof WidgetChanges) {
+                    message.changes = (WidgetChanges) item.getData();
+                    continue;
+                }
+                Matcher matcher = FIELD_PATTERN.matcher(item.getData().toString());
+                while (matcher.find()) {
+                    if (matcher.group(1).equals("event"))
+                        message.name = matcher.group(2);
+                    else
+                        message.id = matcher.group(2);
+                }
+            }
+            messages.add(message);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+
+    private static final class Message {
+        private String name;
+        private String id;
+        private WidgetChanges changes;
+    }
+
+}
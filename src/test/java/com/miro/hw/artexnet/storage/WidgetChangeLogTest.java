@@ -0,0 +1,150 @@
+package com.miro.hw.artexnet.storage;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class WidgetChangeLogTest extends BaseTestUnit {
+
+    @Before
+    public void setUp() {
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    /**
+     * @see WidgetChangeLog#getChanges
+     */
+    @Test
+    public void getChanges_ofBoard() {
+        WidgetChangeLog changeLog = new WidgetChangeLog(100, 10);
+        Widget first = DataHelper.createWidget(1, 0, 0, 10, 10);
+        Widget second = DataHelper.createWidget(1, 0, 0, 10, 10);
+
+        // test
+        long firstVersion = changeLog.append("board-1", Collections.singletonList(WidgetChangeEvent.created(first)));
+        changeLog.append("board-2", Collections.singletonList(WidgetChangeEvent.created(second)));
+        long lastVersion = changeLog.append("board-1", Arrays.asList(WidgetChangeEvent.shifted(1, 1, 1),
+                WidgetChangeEvent.created(second)));
+
+        // validate
+        assertEquals(11, firstVersion);
+        assertEquals(13, lastVersion);
+
+        List<WidgetChangeEvent> changes = changeLog.getChanges("board-1", 10, lastVersion, null).orElseThrow();
+        assertEquals(3, changes.size());
+        assertEquals(WidgetChangeEvent.Type.CREATED, changes.get(0).getType());
+        assertEquals(firstVersion, changes.get(0).getVersion());
+        assertEquals(WidgetChangeEvent.Type.SHIFTED, changes.get(1).getType());
+        assertEquals(lastVersion, changes.get(2).getVersion());
+
+        assertEquals(2, changeLog.getChanges("board-1", firstVersion, lastVersion, null).orElseThrow().size());
+        assertEquals(1, changeLog.getChanges("board-1", 10, firstVersion, null).orElseThrow().size());
+        assertTrue(changeLog.getChanges("board-1", lastVersion, lastVersion, null).orElseThrow().isEmpty());
+        assertTrue(changeLog.getChanges("board-3", 10, lastVersion, null).orElseThrow().isEmpty());
+    }
+
+    /**
+     * @see WidgetChangeLog#getChanges
+     */
+    @Test
+    public void getChanges_inArea() {
+        WidgetChangeLog changeLog = new WidgetChangeLog(100, 0);
+        final Area area = new Area(new Point(0, 0), new Point(100, 100));
+        Widget inside = DataHelper.createWidget(1, 50, 50, 10, 10);
+        Widget outside = DataHelper.createWidget(2, 500, 500, 10, 10);
+        Widget movedOut = outside.toBuilder().id(inside.getId()).build();
+
+        // test
+        long version = changeLog.append("board-1", Arrays.asList(WidgetChangeEvent.created(outside),
+                WidgetChangeEvent.shifted(1, 5, 1), WidgetChangeEvent.updated(inside, movedOut),
+                WidgetChangeEvent.deleted(outside)));
+
+        // validate: the widget moved out of the area is listed, the shifts are not bound to the area
+        List<WidgetChangeEvent> changes = changeLog.getChanges("board-1", 0, version, area).orElseThrow();
+        assertEquals(2, changes.size());
+        assertEquals(WidgetChangeEvent.Type.SHIFTED, changes.get(0).getType());
+        assertEquals(WidgetChangeEvent.Type.UPDATED, changes.get(1).getType());
+    }
+
+    /**
+     * @see WidgetChangeLog#getChanges
+     */
+    @Test
+    public void getChanges_dropped() {
+        WidgetChangeLog changeLog = new WidgetChangeLog(3, 0);
+        Widget widget = DataHelper.createWidget(1, 0, 0, 10, 10);
+        for (int i = 0; i < 5; i++) {
+            changeLog.append("board-1", Collections.singletonList(WidgetChangeEvent.created(widget)));
+        }
+
+        // test
+        Optional<List<WidgetChangeEvent>> dropped = changeLog.getChanges("board-1", 1, 5, null);
+        Optional<List<WidgetChangeEvent>> retained = changeLog.getChanges("board-1", 2, 5, null);
+        Optional<List<WidgetChangeEvent>> unknown = changeLog.getChanges("board-1", 6, 5, null);
+
+        // validate
+        assertTrue(dropped.isEmpty());
+        assertEquals(3, retained.orElseThrow().size());
+        assertTrue(unknown.isEmpty());
+    }
+
+    /**
+     * @see WidgetChangeLog#getChanges
+     */
+    @Test
+    public void getChanges_notLogged() {
+        WidgetChangeLog changeLog = new WidgetChangeLog(100, 0);
+        Widget widget = DataHelper.createWidget(1, 0, 0, 10, 10);
+
+        // test: version 2 committed elsewhere, version 4 replaced by the next commit
+        changeLog.append("board-1", 1, Collections.singletonList(WidgetChangeEvent.created(widget)));
+        changeLog.append("board-1", 3, Collections.singletonList(WidgetChangeEvent.created(widget)));
+        changeLog.append("board-1", 4, Collections.singletonList(WidgetChangeEvent.created(widget)));
+        changeLog.append("board-1", 4, Collections.singletonList(WidgetChangeEvent.deleted(widget)));
+
+        // validate
+        assertEquals(1, changeLog.getChanges("board-1", 0, 1, null).orElseThrow().size());
+        assertTrue(changeLog.getChanges("board-1", 0, 4, null).isEmpty());
+        assertTrue(changeLog.getChanges("board-1", 1, 4, null).isEmpty());
+
+        List<WidgetChangeEvent> changes = changeLog.getChanges("board-1", 2, 4, null).orElseThrow();
+        assertEquals(2, changes.size());
+        assertEquals(WidgetChangeEvent.Type.DELETED, changes.get(1).getType());
+    }
+
+    /**
+     * @see WidgetChangeLog#appendReset(String)
+     */
+    @Test
+    public void getChanges_reset() {
+        WidgetChangeLog changeLog = new WidgetChangeLog(100, 0);
+
+        // test
+        long version = changeLog.appendReset("board-1");
+        changeLog.append("board-1", Collections.emptyList());
+
+        // validate
+        assertTrue(changeLog.getChanges("board-1", 0, version + 1, null).isEmpty());
+        assertTrue(changeLog.getChanges("board-1", version, version + 1, null).orElseThrow().isEmpty());
+        assertTrue(changeLog.getChanges("board-2", 0, version + 1, null).orElseThrow().isEmpty());
+    }
+
+}
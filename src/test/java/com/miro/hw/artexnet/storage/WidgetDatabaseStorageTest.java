@@ -3,6 +3,7 @@ package com.miro.hw.artexnet.storage;
 import com.miro.hw.artexnet.BaseTestUnit;
 import com.miro.hw.artexnet.DataHelper;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
 import com.miro.hw.artexnet.common.immutable.Point;
 import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
 import com.miro.hw.artexnet.domain.Widget;
@@ -11,6 +12,8 @@ import com.miro.hw.artexnet.exception.ValidationException;
 import com.miro.hw.artexnet.storage.db.WidgetDatabaseStorage;
 import com.miro.hw.artexnet.storage.db.WidgetEntity;
 import com.miro.hw.artexnet.storage.db.WidgetRepository;
+import com.miro.hw.artexnet.storage.db.ZIndexAllocationEntity;
+import com.miro.hw.artexnet.storage.db.ZIndexAllocationRepository;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,17 +24,22 @@ import org.springframework.data.domain.Pageable;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class WidgetDatabaseStorageTest extends BaseTestUnit {
 
     @Mock
     private WidgetRepository repository;
+    @Mock
+    private ZIndexAllocationRepository allocationRepository;
     private Widget widget;
 
     // Storage to test
@@ -41,7 +49,9 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     public void setUp() {
         super.setUp();
         widget = DataHelper.createWidget(1, 50, 50, 100, 100, LocalDateTime.now());
-        storage = new WidgetDatabaseStorage(repository);
+        storage = new WidgetDatabaseStorage(repository, allocationRepository);
+        doReturn(1).when(allocationRepository).incrementVersion(anyInt());
+        doReturn(Optional.of(1L)).when(allocationRepository).findVersionByStripe(anyInt());
     }
 
     @After
@@ -49,6 +59,26 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
 
     ////////////////////////////////////
 
+    /**
+     * @see WidgetDatabaseStorage#registerZIndexAllocations()
+     */
+    @Test
+    public void registerZIndexAllocations_missingOnly() {
+        // setup mocks
+        doReturn(Arrays.asList(new ZIndexAllocationEntity(0), new ZIndexAllocationEntity(1)))
+                .when(allocationRepository).findAll();
+
+        // test
+        storage.registerZIndexAllocations();
+
+        // validate
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ZIndexAllocationEntity>> captor = ArgumentCaptor.forClass(List.class);
+        verify(allocationRepository, times(1)).saveAll(captor.capture());
+        assertEquals(62, captor.getValue().size());
+        assertTrue(captor.getValue().stream().noneMatch(allocation -> allocation.getStripe() < 2));
+    }
+
     /**
      * @see WidgetDatabaseStorage#createWidget(com.miro.hw.artexnet.domain.Widget)
      */
@@ -57,7 +87,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         WidgetEntity entity = storage.toEntity(widget);
 
         // setup mocks
-        doReturn(null).when(repository).getTopByOrderByZindexDesc();
+        doReturn(null).when(repository).getTopByBoardIdOrderByZindexDesc(anyString());
         doReturn(entity).when(repository).save(any(WidgetEntity.class));
 
         // test
@@ -68,7 +98,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         assertNotNull(storedWidget);
         assertEquals(1, storedWidget.getZ_index().longValue());
 
-        verify(repository, times(1)).getTopByOrderByZindexDesc();
+        verify(repository, times(1)).getTopByBoardIdOrderByZindexDesc(eq(WidgetStorage.DEFAULT_BOARD));
 
         ArgumentCaptor<WidgetEntity> entityCaptor = ArgumentCaptor.forClass(WidgetEntity.class);
         verify(repository, times(1)).save(entityCaptor.capture());
@@ -85,7 +115,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         WidgetEntity entity = storage.toEntity(widget);
 
         // setup mocks
-        doReturn(0L).when(repository).countByZIndex(anyInt());
+        doReturn(0L).when(repository).countByZIndex(anyString(), anyInt(), anyLong());
         doReturn(entity).when(repository).save(any(WidgetEntity.class));
 
         // test
@@ -95,9 +125,11 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         assertNotNull(storedWidget);
         assertEquals(1, storedWidget.getZ_index().longValue());
 
-        verify(repository, times(1)).countByZIndex(eq(widget.getZ_index()));
+        verify(repository, times(1)).countByZIndex(eq(WidgetStorage.DEFAULT_BOARD), eq(widget.getZ_index()), eq(widget.getId()));
+        verify(repository, times(1)).findByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
         verify(repository, times(1)).save(any(WidgetEntity.class));
         verifyNoMoreInteractions(repository);
+        verify(allocationRepository, times(1)).incrementVersion(anyInt());
     }
 
     /**
@@ -107,12 +139,12 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     public void getWidgets_areaNotDefined() {
         Widget widget1 = DataHelper.createWidget(1, 0, 0, 20, 20, LocalDateTime.now());
         Widget widget2 = DataHelper.createWidget(2, 100, 100, 20, 20, LocalDateTime.now());
-        List<WidgetEntity> list = Arrays.asList(storage.toEntity(widget2), storage.toEntity(widget1));
+        List<Widget> list = Arrays.asList(widget2, widget1);
         long total = 10;
 
         // setup mocks
-        doReturn(list).when(repository).findAllOrderedByZIndex(any(Pageable.class));
-        doReturn(total).when(repository).count();
+        doReturn(list).when(repository).findAllOrderedByZIndex(anyString(), any(Pageable.class));
+        doReturn(total).when(repository).countByBoardId(anyString());
 
         // test
         WidgetsCollection widgets = storage.getWidgets(0, 10, null);
@@ -121,13 +153,92 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         assertNotNull(widgets);
         assertNotNull(widgets.getItems());
         assertEquals(list.size(), widgets.getItems().size());
-        assertEquals(total, widgets.getTotalCount());
+        assertEquals(total, (long) widgets.getTotalCount());
+
+        verify(repository, times(1)).findAllOrderedByZIndex(eq(WidgetStorage.DEFAULT_BOARD),
+                argThat(pageable -> pageable.getOffset() == 0 && pageable.getPageSize() == 11));
+        verify(repository, times(1)).countByBoardId(eq(WidgetStorage.DEFAULT_BOARD));
+        verifyNoMoreInteractions(repository);
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getWidgets(String, int, int, com.miro.hw.artexnet.common.immutable.Area, boolean)
+     */
+    @Test
+    public void getWidgets_withoutTotal() {
+        Widget widget1 = DataHelper.createWidget(1, 0, 0, 20, 20, LocalDateTime.now());
+        Widget widget2 = DataHelper.createWidget(2, 100, 100, 20, 20, LocalDateTime.now());
+        Widget widget3 = DataHelper.createWidget(3, 100, 100, 20, 20, LocalDateTime.now());
+        List<Widget> list = Arrays.asList(widget3, widget2, widget1);
 
-        verify(repository, times(1)).findAllOrderedByZIndex(eq(PageRequest.of(0, 10)));
-        verify(repository, times(1)).count();
+        // setup mocks
+        doReturn(list).when(repository).findAllOrderedByZIndex(anyString(), any(Pageable.class));
+
+        // test
+        WidgetsCollection widgets = storage.getWidgets(WidgetStorage.DEFAULT_BOARD, 1, 2, null, false);
+
+        // validate: the extra row tells there is more, no counting
+        assertNull(widgets.getTotalCount());
+        assertEquals(2, widgets.getItems().size());
+        assertTrue(widgets.isHasMore());
+
+        verify(repository, times(1)).findAllOrderedByZIndex(eq(WidgetStorage.DEFAULT_BOARD),
+                argThat(pageable -> pageable.getOffset() == 2 && pageable.getPageSize() == 3));
         verifyNoMoreInteractions(repository);
     }
 
+    /**
+     * @see WidgetDatabaseStorage#getWidgets(com.miro.hw.artexnet.common.immutable.PageCursor, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_cursor() {
+        Widget widget1 = DataHelper.createWidget(3, 0, 0, 20, 20, LocalDateTime.now());
+        Widget widget2 = DataHelper.createWidget(2, 100, 100, 20, 20, LocalDateTime.now());
+        Widget widget3 = DataHelper.createWidget(1, 100, 100, 20, 20, LocalDateTime.now());
+        List<Widget> list = Arrays.asList(widget1, widget2, widget3);
+        long total = 10;
+
+        // setup mocks
+        doReturn(list).when(repository).findAllBelowZIndexOrderedByZIndex(anyString(), anyInt(), any(Pageable.class));
+        doReturn(total).when(repository).countByBoardId(anyString());
+
+        // test
+        WidgetsCollection widgets = storage.getWidgets(new PageCursor(4), 2, null);
+
+        // validate: the extra row is not returned, but points to the next page
+        assertEquals(2, widgets.getItems().size());
+        assertEquals(total, (long) widgets.getTotalCount());
+        assertEquals(2, PageCursor.decode(widgets.getNextCursor()).getZIndex());
+
+        verify(repository, times(1)).findAllBelowZIndexOrderedByZIndex(eq(WidgetStorage.DEFAULT_BOARD), eq(4), eq(PageRequest.of(0, 3)));
+        verify(repository, times(1)).countByBoardId(eq(WidgetStorage.DEFAULT_BOARD));
+        verifyNoMoreInteractions(repository);
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getWidgets(com.miro.hw.artexnet.common.immutable.PageCursor, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_cursorLastPage() {
+        Widget widget1 = DataHelper.createWidget(1, 0, 0, 20, 20, LocalDateTime.now());
+        Area area = new Area(new Point(-50, -50), new Point(50, 50));
+
+        // setup mocks
+        doReturn(Collections.singletonList(widget1)).when(repository)
+                .findAllInAreaBelowZIndexOrderedByZIndex(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), any(Pageable.class));
+        doReturn(1L).when(repository).countByArea(anyString(), anyInt(), anyInt(), anyInt(), anyInt());
+
+        // test
+        WidgetsCollection widgets = storage.getWidgets(new PageCursor(2), 10, area);
+
+        // validate
+        assertEquals(1, widgets.getItems().size());
+        assertNull(widgets.getNextCursor());
+
+        verify(repository, times(1)).findAllInAreaBelowZIndexOrderedByZIndex(eq(WidgetStorage.DEFAULT_BOARD), eq(2), eq(-50), eq(-50), eq(50), eq(50),
+                eq(PageRequest.of(0, 11)));
+    }
+
     /**
      * @see WidgetDatabaseStorage#getWidgets(int, int, com.miro.hw.artexnet.common.immutable.Area)
      */
@@ -135,13 +246,13 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     public void getWidgets_areaDefined() {
         Widget widget1 = DataHelper.createWidget(1, 0, 0, 20, 20, LocalDateTime.now());
         Widget widget2 = DataHelper.createWidget(2, 100, 100, 20, 20, LocalDateTime.now());
-        List<WidgetEntity> list = Arrays.asList(storage.toEntity(widget2), storage.toEntity(widget1));
+        List<Widget> list = Arrays.asList(widget2, widget1);
         long total = 10;
         Area area = new Area(new Point(-50, -50), new Point(50, 50));
 
         // setup mocks
-        doReturn(list).when(repository).findAllInAreaOrderedByZIndex(anyInt(), anyInt(), anyInt(), anyInt(), any(Pageable.class));
-        doReturn(total).when(repository).countByArea(anyInt(), anyInt(), anyInt(), anyInt());
+        doReturn(list).when(repository).findAllInAreaOrderedByZIndex(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), any(Pageable.class));
+        doReturn(total).when(repository).countByArea(anyString(), anyInt(), anyInt(), anyInt(), anyInt());
 
         // test
         WidgetsCollection widgets = storage.getWidgets(0, 10, area);
@@ -150,21 +261,21 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         assertNotNull(widgets);
         assertNotNull(widgets.getItems());
         assertEquals(list.size(), widgets.getItems().size());
-        assertEquals(total, widgets.getTotalCount());
+        assertEquals(total, (long) widgets.getTotalCount());
 
         ArgumentCaptor<Integer> leftXCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> leftYCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> rightXCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> rightYCaptor = ArgumentCaptor.forClass(Integer.class);
 
-        verify(repository, times(1)).findAllInAreaOrderedByZIndex(leftXCaptor.capture(),
+        verify(repository, times(1)).findAllInAreaOrderedByZIndex(eq(WidgetStorage.DEFAULT_BOARD), leftXCaptor.capture(),
                 leftYCaptor.capture(), rightXCaptor.capture(), rightYCaptor.capture(), any(Pageable.class));
         assertEquals(area.getLeftBottom().getXAxis(), leftXCaptor.getValue().intValue());
         assertEquals(area.getLeftBottom().getYAxis(), leftYCaptor.getValue().intValue());
         assertEquals(area.getRightTop().getXAxis(), rightXCaptor.getValue().intValue());
         assertEquals(area.getRightTop().getYAxis(), rightYCaptor.getValue().intValue());
 
-        verify(repository, times(1)).countByArea(leftXCaptor.capture(), leftYCaptor.capture(),
+        verify(repository, times(1)).countByArea(eq(WidgetStorage.DEFAULT_BOARD), leftXCaptor.capture(), leftYCaptor.capture(),
                 rightXCaptor.capture(), rightYCaptor.capture());
         assertEquals(area.getLeftBottom().getXAxis(), leftXCaptor.getValue().intValue());
         assertEquals(area.getLeftBottom().getYAxis(), leftYCaptor.getValue().intValue());
@@ -180,7 +291,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     @Test
     public void getById_notFound() {
         // setup mocks
-        doReturn(Optional.empty()).when(repository).findById(anyLong());
+        doReturn(Optional.empty()).when(repository).findWidgetByIdAndBoardId(anyLong(), anyString());
 
         // test
         Optional<Widget> widgetOptional = storage.getById(widget.getId());
@@ -189,7 +300,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         assertNotNull(widgetOptional);
         assertTrue(widgetOptional.isEmpty());
 
-        verify(repository, times(1)).findById(eq(widget.getId()));
+        verify(repository, times(1)).findWidgetByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
         verifyNoMoreInteractions(repository);
     }
 
@@ -200,7 +311,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     public void getById_found() {
         // setup mocks
         WidgetEntity entity = storage.toEntity(widget);
-        doReturn(Optional.of(entity)).when(repository).findById(widget.getId());
+        doReturn(Optional.of(widget)).when(repository).findWidgetByIdAndBoardId(widget.getId(), WidgetStorage.DEFAULT_BOARD);
 
         // test
         Optional<Widget> widgetOptional = storage.getById(widget.getId());
@@ -211,27 +322,87 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         Widget acquiredWidget = widgetOptional.get();
         assertEquals(widget.getId(), acquiredWidget.getId());
 
-        verify(repository, times(1)).findById(eq(widget.getId()));
+        verify(repository, times(1)).findWidgetByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
         verifyNoMoreInteractions(repository);
     }
 
+    /**
+     * @see WidgetDatabaseStorage#getById(long)
+     */
+    @Test
+    public void getById_cached() {
+        // setup mocks
+        WidgetEntity entity = storage.toEntity(widget);
+        doReturn(Optional.of(widget)).when(repository).findWidgetByIdAndBoardId(widget.getId(), WidgetStorage.DEFAULT_BOARD);
+
+        // test
+        storage.getById(widget.getId());
+        Optional<Widget> widgetOptional = storage.getById(widget.getId());
+
+        // validate
+        assertTrue(widgetOptional.isPresent());
+        assertEquals(widget.getId(), widgetOptional.get().getId());
+        verify(repository, times(1)).findWidgetByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#deleteById(long)
+     */
+    @Test
+    public void getById_invalidatedByDelete() {
+        // setup mocks
+        WidgetEntity entity = storage.toEntity(widget);
+        doReturn(Optional.of(entity)).when(repository).findByIdAndBoardId(widget.getId(), WidgetStorage.DEFAULT_BOARD);
+        doReturn(Optional.of(widget)).when(repository).findWidgetByIdAndBoardId(widget.getId(), WidgetStorage.DEFAULT_BOARD);
+
+        // test
+        storage.getById(widget.getId());
+        storage.deleteById(widget.getId());
+        doReturn(Optional.empty()).when(repository).findWidgetByIdAndBoardId(widget.getId(), WidgetStorage.DEFAULT_BOARD);
+
+        // validate
+        assertFalse(storage.getById(widget.getId()).isPresent());
+    }
+
     /**
      * @see WidgetDatabaseStorage#getWidgetsCount()
      */
     @Test
     public void getWidgetsCount() {
         // setup mocks
-        doReturn(10L).when(repository).count();
+        doReturn(10L).when(repository).countByBoardId(anyString());
 
         // test
         long count = storage.getWidgetsCount();
 
         // validate
         assertEquals(10L, count);
-        verify(repository, times(1)).count();
+        verify(repository, times(1)).countByBoardId(eq(WidgetStorage.DEFAULT_BOARD));
         verifyNoMoreInteractions(repository);
     }
 
+    /**
+     * @see WidgetDatabaseStorage#getWidgetsCount()
+     */
+    @Test
+    public void getWidgetsCount_cached() {
+        // setup mocks
+        doReturn(10L, 11L).when(repository).countByBoardId(anyString());
+        doReturn(Optional.of(storage.toEntity(widget))).when(repository).findByIdAndBoardId(anyLong(), anyString());
+
+        // test
+        long count = storage.getWidgetsCount();
+        long cachedCount = storage.getWidgetsCount();
+        storage.deleteById(widget.getId());
+        long updatedCount = storage.getWidgetsCount();
+
+        // validate: the count is recalculated after the write only
+        assertEquals(10, count);
+        assertEquals(10, cachedCount);
+        assertEquals(11, updatedCount);
+        verify(repository, times(2)).countByBoardId(eq(WidgetStorage.DEFAULT_BOARD));
+    }
+
     /**
      * @see WidgetDatabaseStorage#getWidgetsCount(com.miro.hw.artexnet.common.immutable.Area)
      */
@@ -240,7 +411,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         Area area = new Area(new Point(0, 0), new Point(50, 50));
 
         // setup mocks
-        doReturn(10L).when(repository).countByArea(anyInt(), anyInt(), anyInt(), anyInt());
+        doReturn(10L).when(repository).countByArea(anyString(), anyInt(), anyInt(), anyInt(), anyInt());
 
         // test
         long count = storage.getWidgetsCount(area);
@@ -252,7 +423,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         ArgumentCaptor<Integer> leftYCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> rightXCaptor = ArgumentCaptor.forClass(Integer.class);
         ArgumentCaptor<Integer> rightYCaptor = ArgumentCaptor.forClass(Integer.class);
-        verify(repository, times(1)).countByArea(leftXCaptor.capture(), leftYCaptor.capture(),
+        verify(repository, times(1)).countByArea(eq(WidgetStorage.DEFAULT_BOARD), leftXCaptor.capture(), leftYCaptor.capture(),
                 rightXCaptor.capture(), rightYCaptor.capture());
         assertEquals(area.getLeftBottom().getXAxis(), leftXCaptor.getValue().intValue());
         assertEquals(area.getLeftBottom().getYAxis(), leftYCaptor.getValue().intValue());
@@ -268,13 +439,13 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     @Test(expected = NotFoundException.class)
     public void updateWidget_notFound() {
         // setup mocks
-        doReturn(Optional.empty()).when(repository).findById(anyLong());
+        doReturn(Optional.empty()).when(repository).findWidgetByIdAndBoardId(anyLong(), anyString());
 
         // test
         try {
             storage.updateWidget(widget);
         } catch (Exception ex) {
-            verify(repository, times(1)).findById(eq(widget.getId()));
+            verify(repository, times(1)).findWidgetByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
             verifyNoMoreInteractions(repository);
 
             throw ex;
@@ -289,13 +460,13 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         WidgetEntity entity = storage.toEntity(widget);
 
         // setup mocks
-        doReturn(Optional.of(entity)).when(repository).findById(anyLong());
+        doReturn(Optional.of(storage.fromEntity(entity))).when(repository).findWidgetByIdAndBoardId(anyLong(), anyString());
 
         // test
         try {
             storage.updateWidget(widget);
         } catch (Exception ex) {
-            verify(repository, times(1)).findById(eq(widget.getId()));
+            verify(repository, times(1)).findWidgetByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
             verifyNoMoreInteractions(repository);
 
             throw ex;
@@ -308,7 +479,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     @Test(expected = NotFoundException.class)
     public void deleteById_notFound() {
         // setup mocks
-        doReturn(Optional.empty()).when(repository).findById(anyLong());
+        doReturn(Optional.empty()).when(repository).findByIdAndBoardId(anyLong(), anyString());
 
         // test
         try {
@@ -316,7 +487,7 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
         } catch (Exception ex) {
             assertTrue(ex instanceof NotFoundException);
 
-            verify(repository, times(1)).findById(eq(widget.getId()));
+            verify(repository, times(1)).findByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
 
             throw ex;
         }
@@ -329,13 +500,31 @@ public class WidgetDatabaseStorageTest extends BaseTestUnit {
     public void deleteById_found() {
         // setup mocks
         WidgetEntity entity = storage.toEntity(widget);
-        doReturn(Optional.of(entity)).when(repository).findById(widget.getId());
+        doReturn(Optional.of(entity)).when(repository).findByIdAndBoardId(widget.getId(), WidgetStorage.DEFAULT_BOARD);
 
         // test
         storage.deleteById(widget.getId());
 
         // validate
-        verify(repository, times(1)).findById(eq(widget.getId()));
+        verify(repository, times(1)).findByIdAndBoardId(eq(widget.getId()), eq(WidgetStorage.DEFAULT_BOARD));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#toEntity(String, com.miro.hw.artexnet.domain.Widget)
+     */
+    @Test
+    public void toEntity_boundingBox() {
+        Widget widget = DataHelper.createWidget(1, 50, 60, 21, 10);
+
+        // test
+        WidgetEntity entity = storage.toEntity("board", widget);
+
+        // validate
+        assertEquals("board", entity.getBoardId());
+        assertEquals(40, entity.getLeftEdge());
+        assertEquals(55, entity.getBottomEdge());
+        assertEquals(60, entity.getRightEdge());
+        assertEquals(65, entity.getTopEdge());
     }
 
 }
@@ -0,0 +1,96 @@
+package com.miro.hw.artexnet.storage;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.storage.local.WidgetLocalStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures {@link WidgetLocalStorage} throughput under a mixed 90/10 read/write load on a single board
+ * (reads: 80% lookups by ID, 10% first page; writes: updates moving a widget).
+ * Runs only when enabled explicitly: <code>-Dbenchmark=true</code>
+ */
+@Slf4j
+public class WidgetLocalStorageBenchmark extends BaseTestUnit {
+    private static final int WIDGETS_COUNT = 100_000;
+    private static final long ROUND_MILLIS = 3_000;
+
+    private WidgetLocalStorage storage;
+    private long[] widgetIds;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        super.setUp();
+
+        storage = new WidgetLocalStorage();
+        widgetIds = new long[WIDGETS_COUNT];
+        for (int i = 0; i < WIDGETS_COUNT; i++) {
+            widgetIds[i] = storage.createWidget(DataHelper.createWidget(i + 1, random.nextInt(10_000),
+                    random.nextInt(10_000), 10, 10)).getId();
+        }
+    }
+
+    ////////////////////////////////////
+
+    @Test
+    public void mixedLoadThroughput() throws InterruptedException {
+        // warm-up
+        measureThroughput(8);
+
+        for (int threads : new int[] { 8, 32 }) {
+            for (int round = 0; round < 2; round++) {
+                log.info("{} threads, round {}: {} ops/s", threads, round,
+                        String.format("%,d", measureThroughput(threads)));
+            }
+        }
+    }
+
+    ////////////////////////////////////
+
+    private long measureThroughput(int threadsCount) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder operations = new LongAdder();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+                while (running.get()) {
+                    long widgetId = widgetIds[threadRandom.nextInt(WIDGETS_COUNT)];
+                    int operation = threadRandom.nextInt(10);
+                    if (operation == 0) {
+                        Widget widget = storage.getById(widgetId).orElseThrow();
+                        widget.setX(widget.getX() + 1);
+                        storage.updateWidget(widget);
+                    } else if (operation == 1) {
+                        storage.getWidgets(0, 10, null);
+                    } else {
+                        storage.getById(widgetId);
+                    }
+                    operations.increment();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(ROUND_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return operations.sum() * 1000 / ROUND_MILLIS;
+    }
+
+}
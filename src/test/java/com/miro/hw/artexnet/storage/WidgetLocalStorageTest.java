@@ -3,24 +3,36 @@ package com.miro.hw.artexnet.storage;
 import com.miro.hw.artexnet.BaseTestUnit;
 import com.miro.hw.artexnet.DataHelper;
 import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.PageCursor;
 import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
 import com.miro.hw.artexnet.common.immutable.WidgetsCollection;
 import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetChangeEvent;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
 import com.miro.hw.artexnet.exception.NotFoundException;
 import com.miro.hw.artexnet.exception.ValidationException;
 import com.miro.hw.artexnet.storage.db.WidgetDatabaseStorage;
 import com.miro.hw.artexnet.storage.db.WidgetEntity;
+import com.miro.hw.artexnet.storage.local.AreaIndexType;
+import com.miro.hw.artexnet.storage.local.WidgetBoardLoader;
 import com.miro.hw.artexnet.storage.local.WidgetLocalStorage;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -81,6 +93,25 @@ public class WidgetLocalStorageTest extends BaseTestUnit {
         assertEquals(1, storedWidget.getZ_index().intValue());
     }
 
+    /**
+     * @see WidgetLocalStorage#createWidget(com.miro.hw.artexnet.domain.Widget)
+     */
+    @Test
+    public void createWidget_shiftsContiguousZIndexes() {
+        Widget widget1 = storage.createWidget(DataHelper.createWidget(1, 0, 0, 10, 10));
+        Widget widget2 = storage.createWidget(DataHelper.createWidget(2, 0, 0, 10, 10));
+        Widget widget4 = storage.createWidget(DataHelper.createWidget(4, 0, 0, 10, 10));
+
+        // test
+        storage.createWidget(DataHelper.createWidget(1, 0, 0, 10, 10));
+
+        // validate
+        assertEquals(2, storage.getById(widget1.getId()).orElseThrow().getZ_index().intValue());
+        assertEquals(3, storage.getById(widget2.getId()).orElseThrow().getZ_index().intValue());
+        assertEquals(4, storage.getById(widget4.getId()).orElseThrow().getZ_index().intValue());
+        assertEquals(4, storage.getWidgetsCount());
+    }
+
     /**
      * @see WidgetLocalStorage#getWidgets(int, int, com.miro.hw.artexnet.common.immutable.Area)
      */
@@ -98,7 +129,59 @@ public class WidgetLocalStorageTest extends BaseTestUnit {
         assertNotNull(widgets);
         assertNotNull(widgets.getItems());
         assertEquals(list.size(), widgets.getItems().size());
-        assertEquals(total, widgets.getTotalCount());
+        assertEquals(total, (long) widgets.getTotalCount());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(String, int, int, com.miro.hw.artexnet.common.immutable.Area, boolean)
+     */
+    @Test
+    public void getWidgets_withoutTotal() {
+        Area area = DataHelper.createArea(new Point(0, 0), new Point(100, 100));
+        for (int i = 1; i <= 5; i++) {
+            storage.createWidget(DataHelper.createWidget(i, 50, 50, 10, 10));
+        }
+        storage.createWidget(DataHelper.createWidget(6, 500, 500, 10, 10));
+
+        // test
+        WidgetsCollection middlePage = storage.getWidgets(WidgetStorage.DEFAULT_BOARD, 1, 2, area, false);
+        WidgetsCollection lastPage = storage.getWidgets(WidgetStorage.DEFAULT_BOARD, 2, 2, area, false);
+        WidgetsCollection cursorPage = storage.getWidgets(WidgetStorage.DEFAULT_BOARD, (PageCursor) null, 2, null, false);
+
+        // validate
+        assertNull(middlePage.getTotalCount());
+        assertEquals(Arrays.asList(3, 2), getZIndexes(middlePage));
+        assertTrue(middlePage.isHasMore());
+
+        assertNull(lastPage.getTotalCount());
+        assertEquals(Collections.singletonList(1), getZIndexes(lastPage));
+        assertFalse(lastPage.isHasMore());
+
+        assertNull(cursorPage.getTotalCount());
+        assertEquals(Arrays.asList(6, 5), getZIndexes(cursorPage));
+        assertNotNull(cursorPage.getNextCursor());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(String, int, int, com.miro.hw.artexnet.common.immutable.Area, boolean)
+     */
+    @Test
+    public void getWidgets_pageOutOfRange() {
+        Area area = DataHelper.createArea(new Point(0, 0), new Point(100, 100));
+        for (int i = 1; i <= 3; i++) {
+            storage.createWidget(DataHelper.createWidget(i, 50, 50, 10, 10));
+        }
+        storage.createWidget(DataHelper.createWidget(4, 500, 500, 10, 10));
+
+        // test
+        WidgetsCollection boardPage = storage.getWidgets(WidgetStorage.DEFAULT_BOARD, 10, 2, null, true);
+        WidgetsCollection areaPage = storage.getWidgets(WidgetStorage.DEFAULT_BOARD, 10, 2, area, true);
+
+        // validate: no widgets, the total is still counted
+        assertTrue(boardPage.getItems().isEmpty());
+        assertEquals(4, (long) boardPage.getTotalCount());
+        assertTrue(areaPage.getItems().isEmpty());
+        assertEquals(3, (long) areaPage.getTotalCount());
     }
 
     /**
@@ -119,7 +202,160 @@ public class WidgetLocalStorageTest extends BaseTestUnit {
         assertNotNull(widgets);
         assertNotNull(widgets.getItems());
         assertEquals(list.size(), widgets.getItems().size());
-        assertEquals(total, widgets.getTotalCount());
+        assertEquals(total, (long) widgets.getTotalCount());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(int, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_areaDefinedOrderedByZIndex() {
+        storage.createWidget(DataHelper.createWidget(5, 0, 0, 20, 20));
+        storage.createWidget(DataHelper.createWidget(9, 10, 10, 20, 20));
+        storage.createWidget(DataHelper.createWidget(1, 100, 100, 20, 20));
+        storage.createWidget(DataHelper.createWidget(7, -10, -10, 20, 20));
+        Area area = new Area(new Point(-50, -50), new Point(50, 50));
+
+        // test
+        WidgetsCollection firstPage = storage.getWidgets(0, 2, area);
+        WidgetsCollection secondPage = storage.getWidgets(1, 2, area);
+
+        // validate
+        assertEquals(3, (long) firstPage.getTotalCount());
+        assertEquals(2, firstPage.getItems().size());
+        assertEquals(9, firstPage.getItems().get(0).getZ_index().intValue());
+        assertEquals(7, firstPage.getItems().get(1).getZ_index().intValue());
+        assertEquals(1, secondPage.getItems().size());
+        assertEquals(5, secondPage.getItems().get(0).getZ_index().intValue());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(int, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_areaDefinedColumnarIndex() {
+        storage = new WidgetLocalStorage(AreaIndexType.COLUMNAR);
+        storage.createWidget(DataHelper.createWidget(5, 0, 0, 20, 20));
+        Widget widget2 = storage.createWidget(DataHelper.createWidget(9, 10, 10, 20, 20));
+        Widget widget3 = storage.createWidget(DataHelper.createWidget(1, 100, 100, 20, 20));
+        storage.createWidget(DataHelper.createWidget(7, -10, -10, 20, 20));
+        storage.deleteById(widget3.getId());
+        Area area = new Area(new Point(-50, -50), new Point(50, 50));
+
+        // test
+        WidgetsCollection widgets = storage.getWidgets(0, 2, area);
+
+        // validate
+        assertEquals(3, (long) widgets.getTotalCount());
+        assertEquals(3, storage.getWidgetsCount(area));
+        assertEquals(2, widgets.getItems().size());
+        assertEquals(widget2, widgets.getItems().get(0));
+        assertEquals(7, widgets.getItems().get(1).getZ_index().intValue());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(com.miro.hw.artexnet.common.immutable.PageCursor, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_cursorMatchesOffsetPaging() {
+        for (int i = 0; i < 200; i++) {
+            storage.createWidget(DataHelper.createWidget(random.nextInt(100), random.nextInt(200), random.nextInt(200), 20, 20));
+        }
+
+        for (Area area : new Area[] { null, new Area(new Point(0, 0), new Point(100, 100)) }) {
+            List<Widget> expected = storage.getWidgets(0, 500, area).getItems();
+
+            // test: follow the cursors till the last page
+            List<Widget> iterated = new ArrayList<>();
+            PageCursor cursor = null;
+            do {
+                WidgetsCollection widgets = storage.getWidgets(cursor, 7, area);
+                iterated.addAll(widgets.getItems());
+                cursor = widgets.getNextCursor() == null ? null : PageCursor.decode(widgets.getNextCursor());
+            } while (cursor != null);
+
+            // validate
+            assertEquals(expected, iterated);
+        }
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(int, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_nextCursor() {
+        storage.createWidget(DataHelper.createWidget(1, 0, 0, 20, 20));
+        storage.createWidget(DataHelper.createWidget(2, 0, 0, 20, 20));
+        storage.createWidget(DataHelper.createWidget(3, 0, 0, 20, 20));
+
+        // test
+        WidgetsCollection firstPage = storage.getWidgets(0, 2, null);
+        WidgetsCollection lastPage = storage.getWidgets(PageCursor.decode(firstPage.getNextCursor()), 2, null);
+
+        // validate
+        assertEquals(2, PageCursor.decode(firstPage.getNextCursor()).getZIndex());
+        assertEquals(1, lastPage.getItems().size());
+        assertEquals(1, lastPage.getItems().get(0).getZ_index().intValue());
+        assertNull(lastPage.getNextCursor());
+    }
+
+    /**
+     * @see WidgetLocalStorage#createWidget(String, com.miro.hw.artexnet.domain.Widget)
+     */
+    @Test
+    public void createWidget_boardsHaveIndependentZIndexes() {
+        Widget widget1 = storage.createWidget("board-1", DataHelper.createWidget(1, 0, 0, 10, 10));
+        Widget widget2 = storage.createWidget("board-2", DataHelper.createWidget(1, 0, 0, 10, 10));
+
+        // test
+        storage.createWidget("board-1", DataHelper.createWidget(1, 0, 0, 10, 10));
+
+        // validate: only the widget of the same board gets shifted
+        assertNotEquals(widget1.getId(), widget2.getId());
+        assertEquals(2, storage.getById("board-1", widget1.getId()).orElseThrow().getZ_index().intValue());
+        assertEquals(1, storage.getById("board-2", widget2.getId()).orElseThrow().getZ_index().intValue());
+        assertTrue(storage.getById("board-2", widget1.getId()).isEmpty());
+        assertEquals(2, storage.getWidgetsCount("board-1"));
+        assertEquals(1, storage.getWidgetsCount("board-2"));
+        assertEquals(0, storage.getWidgetsCount());
+        assertEquals(2, storage.getBoardsCount());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getWidgets(String, int, int, com.miro.hw.artexnet.common.immutable.Area)
+     */
+    @Test
+    public void getWidgets_missingBoard() {
+        // test
+        WidgetsCollection widgets = storage.getWidgets("missing", 0, 10, null);
+
+        // validate: reads do not create boards
+        assertEquals(0, (long) widgets.getTotalCount());
+        assertTrue(widgets.getItems().isEmpty());
+        assertEquals(0, storage.getBoardsCount());
+    }
+
+    /**
+     * @see WidgetLocalStorage#evictIdleBoards()
+     */
+    @Test
+    public void evictIdleBoards() {
+        storage = new WidgetLocalStorage(AreaIndexType.RTREE, Duration.ZERO);
+        Widget widget = storage.createWidget("board-1", DataHelper.createWidget(1, 0, 0, 10, 10));
+        storage.createWidget("board-2", DataHelper.createWidget(1, 0, 0, 10, 10));
+        storage.deleteById("board-1", widget.getId());
+
+        // test
+        int evicted = storage.evictIdleBoards();
+
+        // validate: boards holding widgets are kept
+        assertEquals(1, evicted);
+        assertEquals(1, storage.getBoardsCount());
+        assertEquals(1, storage.getWidgetsCount("board-2"));
+
+        // evicted boards get re-created on write
+        storage.createWidget("board-1", DataHelper.createWidget(1, 0, 0, 10, 10));
+        assertEquals(1, storage.getWidgetsCount("board-1"));
     }
 
     /**
@@ -150,6 +386,42 @@ public class WidgetLocalStorageTest extends BaseTestUnit {
         assertTrue(widgetOptional.isPresent());
     }
 
+    /**
+     * @see WidgetLocalStorage#getById(long)
+     */
+    @Test
+    public void getById_concurrentWrites() throws InterruptedException {
+        Widget tracked = storage.createWidget(DataHelper.createWidget(1, 7, 8, 9, 10));
+        final int writesCount = 20_000;
+
+        // every insert at the bottom shifts the tracked widget up
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < writesCount; i++) {
+                storage.createWidget(DataHelper.createWidget(1, i, i, 10, 10));
+            }
+        });
+
+        // test
+        writer.start();
+        int lastZIndex = 0;
+        while (writer.isAlive()) {
+            Widget read = storage.getById(tracked.getId()).orElseThrow();
+
+            // validate: reads never observe a partially applied write
+            assertEquals(tracked.getId(), read.getId());
+            assertEquals(7, (int) read.getX());
+            assertEquals(8, (int) read.getY());
+            assertEquals(9, (int) read.getWidth());
+            assertEquals(10, (int) read.getHeight());
+            assertTrue(read.getZ_index() >= lastZIndex);
+            lastZIndex = read.getZ_index();
+        }
+        writer.join();
+
+        assertEquals(1 + writesCount, (int) storage.getById(tracked.getId()).orElseThrow().getZ_index());
+        assertEquals(1 + writesCount, storage.getWidgetsCount());
+    }
+
     /**
      * @see WidgetLocalStorage#getWidgetsCount()
      */
@@ -246,6 +518,10 @@ public class WidgetLocalStorageTest extends BaseTestUnit {
         assertEquals(10, updatedWidget.getY().intValue());
         assertEquals(10, updatedWidget.getWidth());
         assertEquals(10, updatedWidget.getHeight());
+
+        // the widget is moved, not duplicated
+        assertEquals(1, storage.getWidgetsCount());
+        assertEquals(updatedWidget, storage.getById(widget.getId()).orElseThrow());
     }
 
     /**
@@ -271,6 +547,293 @@ public class WidgetLocalStorageTest extends BaseTestUnit {
 
         // test
         storage.deleteById(widget.getId());
+
+        // validate
+        assertTrue(storage.getById(widget.getId()).isEmpty());
+        assertEquals(0, storage.getWidgetsCount());
+    }
+
+    /**
+     * @see WidgetLocalStorage#deleteById(long)
+     */
+    @Test
+    public void deleteById_bulk() {
+        List<Long> widgetIds = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            widgetIds.add(storage.createWidget(DataHelper.createWidget(1, i, i, 10, 10)).getId());
+        }
+
+        // test: remove every other widget
+        for (int i = 0; i < widgetIds.size(); i += 2) {
+            storage.deleteById(widgetIds.get(i));
+        }
+
+        // validate: remaining widgets keep their (shifted) z-indexes
+        assertEquals(5_000, storage.getWidgetsCount());
+        for (int i = 1; i < widgetIds.size(); i += 2) {
+            Widget storedWidget = storage.getById(widgetIds.get(i)).orElseThrow();
+            assertEquals(widgetIds.size() - i, storedWidget.getZ_index().intValue());
+        }
+        assertEquals(3, storage.getWidgetsCount(new Area(new Point(-10, -10), new Point(10, 10))));
+    }
+
+    /**
+     * @see WidgetLocalStorage#forEachWidget(Area, java.util.function.Consumer)
+     */
+    @Test
+    public void forEachWidget() {
+        for (int i = 0; i < 2500; i++) {
+            storage.createWidget(DataHelper.createWidget(2 * i, i, i, 10, 10));
+        }
+        final Area area = new Area(new Point(0, 0), new Point(1505, 1505));
+
+        // test
+        List<Widget> all = new ArrayList<>();
+        storage.forEachWidget(null, all::add);
+        List<Widget> inArea = new ArrayList<>();
+        storage.forEachWidget(area, inArea::add);
+
+        // validate: all chunks in z-index order
+        assertEquals(2500, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(2 * (2499 - i), all.get(i).getZ_index().intValue());
+        }
+        assertEquals(storage.getWidgetsCount(area), inArea.size());
+        assertEquals(1500 - 5 + 1, inArea.size());
+        assertEquals(2 * 1500, inArea.get(0).getZ_index().intValue());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getBoardVersion(String)
+     */
+    @Test
+    public void getBoardVersion() {
+        final long initialVersion = storage.getBoardVersion("board-1");
+
+        // test: every change bumps the version
+        Widget created = storage.createWidget("board-1", DataHelper.createWidget(1, 10, 10, 20, 20));
+        final long createdVersion = storage.getBoardVersion("board-1");
+        created.setX(30);
+        storage.updateWidget("board-1", created);
+        final long updatedVersion = storage.getBoardVersion("board-1");
+
+        // reads and failed writes keep it
+        storage.getWidgets("board-1", 0, 10, null);
+        try {
+            storage.updateWidget("board-1", created);
+            fail("Nothing to update");
+        } catch (ValidationException ex) {
+            // not applied
+        }
+        assertEquals(updatedVersion, storage.getBoardVersion("board-1"));
+
+        storage.deleteById("board-1", created.getId());
+
+        // validate
+        assertTrue(createdVersion > initialVersion);
+        assertTrue(updatedVersion > createdVersion);
+        assertTrue(storage.getBoardVersion("board-1") > updatedVersion);
+        assertEquals(initialVersion, storage.getBoardVersion("board-2"));
+    }
+
+    /**
+     * @see WidgetLocalStorage#getChanges(String, long, Area)
+     */
+    @Test
+    public void getChanges_replayMatchesBoard() {
+        for (int zIndex = 1; zIndex <= 30; zIndex++) {
+            if (zIndex % 5 != 0)
+                storage.createWidget(DataHelper.createWidget(zIndex, zIndex, 0, 10, 10));
+        }
+        final long syncedVersion = storage.getBoardVersion();
+        Map<Long, Widget> synced = getWidgetsById(storage.getWidgets(0, 100, null).getItems());
+
+        // test: creates/updates into the occupied z-indexes (shifting the runs), deletes and batches
+        for (int i = 0; i < 100; i++) {
+            List<Widget> widgets = storage.getWidgets(0, 100, null).getItems();
+            Widget target = widgets.get(random.nextInt(widgets.size()));
+            Integer zIndex = random.nextInt(5) == 0 ? null : 1 + random.nextInt(40);
+            Widget created = DataHelper.createWidget(0, random.nextInt(100), 0, 10, 10);
+            created.setZ_index(zIndex);
+            switch (random.nextInt(4)) {
+                case 0:
+                    storage.createWidget(created);
+                    break;
+                case 1:
+                    storage.updateWidget(target.toBuilder().x(target.getX() + 1).z_index(zIndex).build());
+                    break;
+                case 2:
+                    storage.deleteById(target.getId());
+                    break;
+                default:
+                    created.setId(null);
+                    storage.applyBatch(Arrays.asList(WidgetOperation.create(created),
+                            WidgetOperation.update(target.toBuilder().z_index(1).build())));
+            }
+        }
+        WidgetChanges changes = storage.getChanges(syncedVersion, null);
+        DataHelper.applyChanges(synced, changes.getChanges());
+
+        // validate
+        assertFalse(changes.isResyncRequired());
+        assertEquals(storage.getBoardVersion(), changes.getVersion());
+        assertEquals(getWidgetsById(storage.getWidgets(0, 1000, null).getItems()), synced);
+        assertTrue(storage.getChanges(changes.getVersion(), null).getChanges().isEmpty());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getChanges(String, long, Area)
+     */
+    @Test
+    public void getChanges_resyncRequired() {
+        storage = new WidgetLocalStorage(AreaIndexType.RTREE, Duration.ofMinutes(1), 10);
+        final long initialVersion = storage.getBoardVersion();
+        for (int i = 0; i < 20; i++) {
+            storage.createWidget(DataHelper.createWidget(1, 0, 0, 10, 10));
+        }
+
+        // test
+        WidgetChanges dropped = storage.getChanges(initialVersion, null);
+        WidgetChanges retained = storage.getChanges(storage.getBoardVersion() - 5, null);
+
+        // validate
+        assertTrue(dropped.isResyncRequired());
+        assertEquals(storage.getBoardVersion(), dropped.getVersion());
+        assertFalse(retained.isResyncRequired());
+        assertEquals(5, retained.getChanges().stream()
+                .filter(change -> change.getType() == WidgetChangeEvent.Type.CREATED)
+                .count());
+    }
+
+    /**
+     * @see WidgetLocalStorage#getChanges(String, long, Area)
+     */
+    @Test
+    public void getChanges_loadedBoard() {
+        final long initialVersion = storage.getBoardVersion("loaded-board");
+        WidgetBoardLoader loader = storage.loadBoard("loaded-board");
+        loader.add(100, 1, 0, 0, 10, 10, LocalDateTime.now());
+
+        // test
+        loader.load();
+        final long loadedVersion = storage.getBoardVersion("loaded-board");
+
+        // validate: the board is replaced as a whole
+        assertTrue(loadedVersion > initialVersion);
+        assertTrue(storage.getChanges("loaded-board", initialVersion, null).isResyncRequired());
+        assertTrue(storage.getChanges("loaded-board", loadedVersion, null).getChanges().isEmpty());
+    }
+
+    /**
+     * @see WidgetLocalStorage#applyBatch(List)
+     */
+    @Test
+    public void applyBatch() {
+        Widget widget1 = storage.createWidget(DataHelper.createWidget(1, 0, 0, 10, 10));
+        Widget widget2 = storage.createWidget(DataHelper.createWidget(2, 0, 0, 10, 10));
+        Widget widget3 = storage.createWidget(DataHelper.createWidget(3, 0, 0, 10, 10));
+
+        Widget created = DataHelper.createWidget(1, 5, 5, 10, 10);
+        created.setId(null);
+        Widget moved = widget3.toBuilder().x(7).z_index(null).build();
+        // state of the widget shifted by the create
+        Widget unchanged = widget2.toBuilder().z_index(3).build();
+
+        // test
+        List<WidgetOperationResult> results = storage.applyBatch(Arrays.asList(
+                WidgetOperation.create(created),
+                WidgetOperation.update(moved),
+                WidgetOperation.update(unchanged),
+                WidgetOperation.delete(widget1.getId())));
+
+        // validate: the operations see the changes of the preceding ones
+        assertEquals(Arrays.asList(WidgetOperationResult.Status.CREATED, WidgetOperationResult.Status.UPDATED,
+                WidgetOperationResult.Status.UNCHANGED, WidgetOperationResult.Status.DELETED),
+                results.stream().map(WidgetOperationResult::getStatus).collect(Collectors.toList()));
+        assertEquals(1, (int) results.get(0).getWidget().getZ_index());
+        assertEquals(4, (int) results.get(1).getWidget().getZ_index());
+        assertEquals(7, (int) results.get(1).getWidget().getX());
+        assertEquals(3, (int) results.get(2).getWidget().getZ_index());
+        assertNull(results.get(3).getWidget());
+        assertEquals(widget1.getId().longValue(), results.get(3).getId());
+
+        assertEquals(3, storage.getWidgetsCount());
+        assertEquals(Arrays.asList(4, 3, 1), getZIndexes(storage.getWidgets(0, 10, null)));
+        assertEquals(results.get(0).getWidget(), storage.getById(results.get(0).getId()).orElseThrow());
+    }
+
+    /**
+     * @see WidgetLocalStorage#applyBatch(List)
+     */
+    @Test
+    public void applyBatch_notFound() {
+        storage.createWidget(widget);
+        Widget created = DataHelper.createWidget(1, 5, 5, 10, 10);
+        created.setId(null);
+
+        try {
+            // test
+            storage.applyBatch(Arrays.asList(WidgetOperation.create(created), WidgetOperation.delete(widget.getId()),
+                    WidgetOperation.update(widget)));
+            fail("Deleted widget found");
+        } catch (NotFoundException ex) {
+            assertTrue(ex.getMessage().contains("Operation [2]"));
+        }
+
+        // validate: nothing applied
+        assertEquals(1, storage.getWidgetsCount());
+        assertEquals(1, (int) storage.getById(widget.getId()).orElseThrow().getZ_index());
+    }
+
+    /**
+     * @see WidgetLocalStorage#loadBoard(String)
+     */
+    @Test
+    public void loadBoard() {
+        final String boardId = "loaded-board";
+        LocalDateTime dateModified = LocalDateTime.now().minusDays(1);
+        WidgetBoardLoader loader = storage.loadBoard(boardId);
+        for (int i = 1; i <= 1000; i++) {
+            loader.add(100 + i, 2 * i, i, i, 10, 10, dateModified);
+        }
+        assertEquals(0, storage.getWidgetsCount(boardId));
+
+        // test
+        loader.load();
+
+        // validate
+        assertEquals(1000, storage.getWidgetsCount(boardId));
+        assertEquals(Arrays.asList(2000, 1998), getZIndexes(storage.getWidgets(boardId, 0, 2, null)));
+        Widget loaded = storage.getById(boardId, 101).orElseThrow();
+        assertEquals(2, loaded.getZ_index().intValue());
+        assertEquals(dateModified, loaded.getDateModified());
+        assertEquals(5, storage.getWidgetsCount(boardId, new Area(new Point(-10, -10), new Point(10, 10))));
+
+        // the loaded board keeps the z-index shifting
+        Widget created = DataHelper.createWidget(2, 0, 0, 10, 10);
+        created.setId(null);
+        storage.createWidget(boardId, created);
+        assertEquals(3, storage.getById(boardId, 101).orElseThrow().getZ_index().intValue());
+        assertEquals(4, storage.getById(boardId, 102).orElseThrow().getZ_index().intValue());
+    }
+
+    /**
+     * @see WidgetLocalStorage#loadBoard(String)
+     */
+    @Test(expected = IllegalStateException.class)
+    public void loadBoard_stored() {
+        storage.createWidget("stored-board", widget);
+        storage.loadBoard("stored-board").load();
+    }
+
+    ////////////////////////////////////
+
+    private static List<Integer> getZIndexes(WidgetsCollection widgets) {
+        return widgets.getItems().stream().map(Widget::getZ_index).collect(Collectors.toList());
+    }
+
+    private static Map<Long, Widget> getWidgetsById(List<Widget> widgets) {
+        return widgets.stream().collect(Collectors.toMap(Widget::getId, Function.identity()));
     }
 
 }
@@ -0,0 +1,143 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class ReplicaRoutingDataSourceTest extends BaseTestUnit {
+    private static final String BOARD_ID = "routing-test";
+    private static final Duration WINDOW = Duration.ofMillis(200);
+
+    // Primary/replica instances (the replica is synced by the tests)
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+
+    private ReadYourWritesWindow readYourWrites;
+    private JdbcTemplate routed;
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate transaction;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        DataSource primaryDataSource = createDatabase("routing-primary");
+        DataSource replicaDataSource = createDatabase("routing-replica");
+        primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(replicaDataSource);
+
+        readYourWrites = new ReadYourWritesWindow(WINDOW);
+        DataSource dataSource = new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, readYourWrites);
+        routed = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        transaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    @After
+    public void tearDown() {
+        primary.execute("DROP TABLE t_widget");
+        replica.execute("DROP TABLE t_widget");
+    }
+
+    ////////////////////////////////////
+
+    @Test
+    public void readOnly_routedToReplica() {
+        write(1L);
+        assertEquals(0, readOnlyCount(null));
+
+        // test
+        sync();
+
+        // validate
+        assertEquals(1, readOnlyCount(null));
+    }
+
+    @Test
+    public void readWrite_routedToPrimary() {
+        write(1L);
+
+        // validate
+        assertEquals(1, (long) transaction.execute(status -> count()));
+        assertEquals(0, (long) replica.queryForObject("SELECT COUNT(*) FROM t_widget", Long.class));
+    }
+
+    @Test
+    public void readOnly_readsOwnWritesWithinWindow() {
+        // test
+        write(1L);
+        readYourWrites.recordWrite(BOARD_ID);
+
+        // validate: the written board only is read from the primary
+        assertEquals(1, readOnlyCount(BOARD_ID));
+        assertEquals(0, readOnlyCount("other-board"));
+        assertEquals(0, readOnlyCount(null));
+    }
+
+    @Test
+    public void readOnly_backToReplicaAfterWindow() throws InterruptedException {
+        write(1L);
+        readYourWrites.recordWrite(BOARD_ID);
+        assertEquals(1, readOnlyCount(BOARD_ID));
+
+        // test
+        Thread.sleep(2 * WINDOW.toMillis());
+
+        // validate
+        assertEquals(0, readOnlyCount(BOARD_ID));
+    }
+
+    @Test
+    public void readPrimary() {
+        write(1L);
+
+        // validate
+        assertEquals(1, (long) readYourWrites.readPrimary(() -> readOnlyTransaction.execute(status -> count())));
+    }
+
+    ////////////////////////////////////
+
+    private static DataSource createDatabase(String name) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        new JdbcTemplate(dataSource).execute(
+                "CREATE TABLE t_widget (id BIGINT PRIMARY KEY, board_id VARCHAR(64) NOT NULL)");
+        return dataSource;
+    }
+
+    private void write(long widgetId) {
+        transaction.executeWithoutResult(status ->
+                routed.update("INSERT INTO t_widget (id, board_id) VALUES (?, ?)", widgetId, BOARD_ID));
+    }
+
+    private long readOnlyCount(String boardId) {
+        return boardId == null
+                ? readOnlyTransaction.execute(status -> count())
+                : readYourWrites.read(boardId, () -> readOnlyTransaction.execute(status -> count()));
+    }
+
+    private Long count() {
+        return routed.queryForObject("SELECT COUNT(*) FROM t_widget", Long.class);
+    }
+
+    /**
+     * Copies the primary rows to the replica (the replication catching up).
+     */
+    private void sync() {
+        replica.update("DELETE FROM t_widget");
+        primary.query("SELECT id, board_id FROM t_widget", row -> {
+            replica.update("INSERT INTO t_widget (id, board_id) VALUES (?, ?)", row.getLong("id"), row.getString("board_id"));
+        });
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.domain.Widget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WidgetCacheTest extends BaseTestUnit {
+    private static final String BOARD_ID = "cache-test";
+    private static final int CAPACITY = 100;
+
+    private WidgetCache cache;
+
+    // Count of the loader calls
+    private AtomicInteger loads;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        cache = new WidgetCache(CAPACITY);
+        loads = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void get_cached() {
+        Widget first = get(BOARD_ID, 1L).orElseThrow();
+        Widget second = get(BOARD_ID, 1L).orElseThrow();
+
+        assertEquals(first, second);
+        assertNotSame(first, second);  // callers get their own copies
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void get_missingNotCached() {
+        assertFalse(cache.get(BOARD_ID, 1L, this::loadMissing).isPresent());
+        assertFalse(cache.get(BOARD_ID, 1L, this::loadMissing).isPresent());
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void get_otherBoard() {
+        get(BOARD_ID, 1L);
+
+        assertFalse(cache.get("other-board", 1L, this::loadMissing).isPresent());
+    }
+
+    @Test
+    public void invalidate() {
+        get(BOARD_ID, 1L);
+        get(BOARD_ID, 2L);
+
+        // test
+        cache.invalidate(1L);
+
+        // validate
+        get(BOARD_ID, 1L);
+        get(BOARD_ID, 2L);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void invalidate_concurrentLoad() {
+        // the widget gets updated while being loaded: the loaded copy must not be served
+        cache.get(BOARD_ID, 1L, () -> {
+            cache.invalidate(1L);
+            return load(1L);
+        });
+
+        get(BOARD_ID, 1L);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void invalidateBoard() {
+        get(BOARD_ID, 1L);
+        get("other-board", 2L);
+
+        // test
+        cache.invalidateBoard(BOARD_ID);
+
+        // validate
+        get(BOARD_ID, 1L);
+        get("other-board", 2L);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void capacity_keepsPopularWidgets() {
+        // hot widgets are requested repeatedly
+        for (int round = 0; round < 5; round++) {
+            for (long id = 1; id <= 50; id++) {
+                get(BOARD_ID, id);
+            }
+        }
+
+        // test: one-off scan through many more widgets than the capacity
+        for (long id = 1000; id < 1000 + 10 * CAPACITY; id++) {
+            get(BOARD_ID, id);
+        }
+
+        // validate
+        assertTrue(cache.size() <= CAPACITY);
+        assertTrue(cache.getEvictionCount() > 0);
+        loads.set(0);
+        for (long id = 1; id <= 50; id++) {
+            get(BOARD_ID, id);
+        }
+        assertEquals(0, loads.get());
+    }
+
+    ////////////////////////////////////
+
+    private Optional<Widget> get(String boardId, long widgetId) {
+        return cache.get(boardId, widgetId, () -> load(widgetId));
+    }
+
+    private Optional<Widget> load(long widgetId) {
+        loads.incrementAndGet();
+        Widget widget = DataHelper.createWidget(1, 0, 0, 10, 10);
+        widget.setId(widgetId);
+        return Optional.of(widget);
+    }
+
+    private Optional<Widget> loadMissing() {
+        loads.incrementAndGet();
+        return Optional.empty();
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.domain.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures {@link WidgetDatabaseStorage} write throughput with concurrent writers inserting
+ * into occupied z-indexes (every insert shifts a run), and checks that no z-index gets lost or duplicated.
+ * Also measures latency and allocations of reading large pages.
+ * Runs only when enabled explicitly: <code>-Dbenchmark=true</code>
+ */
+@Slf4j
+public class WidgetDatabaseStorageBenchmark extends BaseTestUnit {
+    private static final String[] BOARD_IDS = { "benchmark-1", "benchmark-2", "benchmark-3", "benchmark-4" };
+    private static final int PRELOADED_COUNT = 200;
+    private static final long ROUND_MILLIS = 5_000;
+    private static final String READ_BOARD_ID = "benchmark-read";
+    private static final int READ_BOARD_SIZE = 5_000;
+    private static final int PAGE_SIZE = 500;
+    private static final int PAGE_READS = 2_000;
+
+    @Autowired
+    private WidgetDatabaseStorage storage;
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        for (String boardId : BOARD_IDS) {
+            jdbcTemplate.update("DELETE FROM t_widget WHERE board_id = ?", boardId);
+        }
+        jdbcTemplate.update("DELETE FROM t_widget WHERE board_id = ?", READ_BOARD_ID);
+    }
+
+    ////////////////////////////////////
+
+    @Test
+    public void concurrentWriters() throws InterruptedException {
+        for (int threads : new int[] { 1, 8, 32 }) {
+            tearDown();
+            for (String boardId : BOARD_IDS) {
+                for (int i = 1; i <= PRELOADED_COUNT; i++) {
+                    storage.createWidget(boardId, createWidget(i));
+                }
+            }
+
+            final LongAdder created = new LongAdder();
+            final LongAdder failed = new LongAdder();
+            runWriters(threads, created, failed);
+
+            long stored = 0;
+            for (String boardId : BOARD_IDS) {
+                stored += storage.getWidgetsCount(boardId);
+                long distinct = jdbcTemplate.queryForObject(
+                        "SELECT COUNT(DISTINCT z_index) FROM t_widget WHERE board_id = ?", Long.class, boardId);
+                assertEquals(storage.getWidgetsCount(boardId), distinct);
+            }
+
+            log.info("{} threads: {} inserts/s, {} failed, {} lost", threads,
+                    created.sum() * 1000 / ROUND_MILLIS, failed.sum(),
+                    BOARD_IDS.length * PRELOADED_COUNT + created.sum() - stored);
+            assertEquals(BOARD_IDS.length * PRELOADED_COUNT + created.sum(), stored);
+        }
+    }
+
+    @Test
+    public void readPages() {
+        List<WidgetEntity> entities = new ArrayList<>();
+        for (int i = 1; i <= READ_BOARD_SIZE; i++) {
+            entities.add(storage.toEntity(READ_BOARD_ID, createWidget(i)));
+        }
+        repository.saveAll(entities);
+
+        final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final int pages = READ_BOARD_SIZE / PAGE_SIZE;
+
+        // warm-up
+        for (int i = 0; i < PAGE_READS / 4; i++) {
+            storage.getWidgets(READ_BOARD_ID, i % pages, PAGE_SIZE, null, false);
+        }
+
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long items = 0;
+        for (int i = 0; i < PAGE_READS; i++) {
+            items += storage.getWidgets(READ_BOARD_ID, i % pages, PAGE_SIZE, null, false).getItems().size();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals((long) PAGE_READS * PAGE_SIZE, items);
+        log.info("{}-item pages: {} us/page, {} KB allocated/page", PAGE_SIZE,
+                elapsedNanos / PAGE_READS / 1000, allocated / PAGE_READS / 1024);
+    }
+
+    ////////////////////////////////////
+
+    private void runWriters(int threadsCount, LongAdder created, LongAdder failed) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+                while (running.get()) {
+                    String boardId = BOARD_IDS[threadRandom.nextInt(BOARD_IDS.length)];
+                    try {
+                        storage.createWidget(boardId, createWidget(1 + threadRandom.nextInt(PRELOADED_COUNT)));
+                        created.increment();
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(ROUND_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static Widget createWidget(int zIndex) {
+        Widget widget = DataHelper.createWidget(zIndex, 0, 0, 10, 10);
+        widget.setId(null);
+        return widget;
+    }
+
+}
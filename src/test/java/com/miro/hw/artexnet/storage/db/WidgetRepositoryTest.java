@@ -0,0 +1,746 @@
+package com.miro.hw.artexnet.storage.db;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.common.immutable.WidgetChanges;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.domain.WidgetOperationResult;
+import com.miro.hw.artexnet.exception.NotFoundException;
+import com.miro.hw.artexnet.exception.ValidationException;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the area queries against the embedded database.
+ */
+public class WidgetRepositoryTest extends BaseTestUnit {
+    private static final String BOARD_ID = "repository-test";
+    private static final String SHIFT_BOARD_ID = "repository-shift-test";
+    private static final String IMPORT_BOARD_ID = "repository-import-test";
+    private static final String BATCH_BOARD_ID = "repository-batch-test";
+    private static final int IMPORT_SIZE = 10000;
+    private static final String AREA_CONDITION = "w.board_id = ? " +
+            "AND w.left_edge >= ? AND w.bottom_edge >= ? AND w.right_edge <= ? AND w.top_edge <= ?";
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private WidgetDatabaseStorage storage;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private List<Widget> widgets;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+
+        widgets = new ArrayList<>();
+        List<WidgetEntity> entities = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            Widget widget = DataHelper.createWidget(i, random.nextInt(1000), random.nextInt(1000),
+                    1 + random.nextInt(50), 1 + random.nextInt(50));
+            widget.setId(null);
+            widgets.add(widget);
+            entities.add(storage.toEntity(BOARD_ID, widget));
+        }
+        repository.saveAll(entities);
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @After
+    public void tearDown() {
+        jdbcTemplate.update("DELETE FROM t_widget WHERE board_id IN (?, ?, ?, ?)",
+                BOARD_ID, SHIFT_BOARD_ID, IMPORT_BOARD_ID, BATCH_BOARD_ID);
+    }
+
+    ////////////////////////////////////
+
+    /**
+     * @see WidgetRepository#findAllInAreaOrderedByZIndex
+     */
+    @Test
+    public void findAllInArea_usesAreaIndex() {
+        // test
+        String plan = explain("SELECT * FROM t_widget w WHERE " + AREA_CONDITION + " ORDER BY w.z_index DESC LIMIT 11");
+
+        // validate
+        assertAreaIndexUsed(plan);
+    }
+
+    /**
+     * @see WidgetRepository#findAllInAreaBelowZIndexOrderedByZIndex
+     */
+    @Test
+    public void findAllInAreaBelowZIndex_usesAreaIndex() {
+        // test
+        String plan = explain("SELECT * FROM t_widget w WHERE " + AREA_CONDITION +
+                " AND w.z_index < 500 ORDER BY w.z_index DESC LIMIT 11");
+
+        // validate
+        assertAreaIndexUsed(plan);
+    }
+
+    /**
+     * @see WidgetRepository#countByArea
+     */
+    @Test
+    public void countByArea_usesAreaIndex() {
+        // test
+        String plan = explain("SELECT COUNT(w.id) FROM t_widget w WHERE " + AREA_CONDITION);
+
+        // validate
+        assertAreaIndexUsed(plan);
+    }
+
+    /**
+     * @see WidgetRepository#findAllInAreaOrderedByZIndex
+     * @see WidgetRepository#countByArea
+     */
+    @Test
+    public void findAllInArea_matchesEdges() {
+        long expectedCount = widgets.stream()
+                .filter(w -> w.getX() - w.getWidth() / 2 >= 100 && w.getY() - w.getHeight() / 2 >= 200
+                        && w.getX() + w.getWidth() / 2 <= 600 && w.getY() + w.getHeight() / 2 <= 700)
+                .count();
+
+        // test
+        long count = repository.countByArea(BOARD_ID, 100, 200, 600, 700);
+        List<Widget> foundWidgets = repository.findAllInAreaOrderedByZIndex(BOARD_ID, 100, 200, 600, 700,
+                PageRequest.of(0, widgets.size()));
+
+        // validate
+        assertEquals(expectedCount, count);
+        assertEquals(expectedCount, foundWidgets.size());
+        for (Widget widget : foundWidgets) {
+            assertTrue(widget.getX() - widget.getWidth() / 2 >= 100 && widget.getY() - widget.getHeight() / 2 >= 200);
+            assertTrue(widget.getX() + widget.getWidth() / 2 <= 600 && widget.getY() + widget.getHeight() / 2 <= 700);
+        }
+    }
+
+    /**
+     * @see WidgetRepository#findZIndexRunEnd
+     */
+    @Test
+    public void findZIndexRunEnd_usesZIndex() {
+        // test
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT w.z_index FROM t_widget w " +
+                "WHERE w.board_id = ? AND w.z_index >= ? AND w.id <> ? " +
+                "AND NOT EXISTS (SELECT 1 FROM t_widget n WHERE n.board_id = w.board_id " +
+                "AND n.z_index = w.z_index + 1 AND n.id <> ?) ORDER BY w.board_id, w.z_index LIMIT 1",
+                String.class, BOARD_ID, 10, 0, 0);
+
+        // validate: both the run walk and the gap probes go through the unique z-index
+        assertEquals(plan, 2, plan.split("PUBLIC.IDX_Z_INDEX").length - 1);
+        assertTrue(plan, plan.contains("index sorted"));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#createWidget(String, Widget)
+     */
+    @Test
+    public void createWidget_shiftsRunUpToGap() {
+        Widget widget1 = createWidget(1);
+        Widget widget2 = createWidget(2);
+        Widget widget3 = createWidget(3);
+        Widget widget5 = createWidget(5);
+
+        // test
+        Widget created = createWidget(1);
+
+        // validate: the gap at 4 absorbs the shift
+        assertEquals(1, getZIndex(created));
+        assertEquals(2, getZIndex(widget1));
+        assertEquals(3, getZIndex(widget2));
+        assertEquals(4, getZIndex(widget3));
+        assertEquals(5, getZIndex(widget5));
+        assertEquals(0, getVersion(widget5));
+        assertEquals(1, getVersion(widget1));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getById(String, long)
+     */
+    @Test
+    public void createWidget_outdatesCachedShiftedWidgets() {
+        Widget widget = createWidget(1);
+        assertEquals(1, (int) storage.getById(SHIFT_BOARD_ID, widget.getId()).orElseThrow().getZ_index());
+
+        // test
+        createWidget(1);
+
+        // validate
+        assertEquals(2, (int) storage.getById(SHIFT_BOARD_ID, widget.getId()).orElseThrow().getZ_index());
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#updateWidget(String, Widget)
+     */
+    @Test
+    public void updateWidget_releasesOwnZIndex() {
+        Widget widget2 = createWidget(2);
+        Widget widget3 = createWidget(3);
+        Widget widget4 = createWidget(4);
+
+        // test
+        widget3.setZ_index(2);
+        storage.updateWidget(SHIFT_BOARD_ID, widget3);
+
+        // validate: the shifted widget takes the released z-index
+        assertEquals(2, getZIndex(widget3));
+        assertEquals(3, getZIndex(widget2));
+        assertEquals(4, getZIndex(widget4));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#updateWidget(String, Widget)
+     */
+    @Test
+    public void updateWidget_keepsZIndex() {
+        Widget widget = createWidget(1);
+        Widget above = createWidget(2);
+
+        // test
+        for (int x = 1; x <= 3; x++) {
+            widget.setX(x);
+            storage.updateWidget(SHIFT_BOARD_ID, widget);
+        }
+
+        // validate
+        assertEquals(3, (int) storage.getById(SHIFT_BOARD_ID, widget.getId()).orElseThrow().getX());
+        assertEquals(1, getZIndex(widget));
+        assertEquals(2, getZIndex(above));
+        assertEquals(0, getVersion(above));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#updateWidget(String, Widget)
+     */
+    @Test
+    public void updateWidget_readsStoredWidget() {
+        Widget widget = createWidget(1);
+        Widget cached = storage.getById(SHIFT_BOARD_ID, widget.getId()).orElseThrow();
+
+        // committed elsewhere, the cached widget is outdated
+        jdbcTemplate.update("UPDATE t_widget SET x_coordinate = ? WHERE id = ?", 100, widget.getId());
+
+        // test: the update matches the outdated widget only
+        storage.updateWidget(SHIFT_BOARD_ID, cached);
+
+        // validate
+        assertEquals(cached.getX(), jdbcTemplate.queryForObject("SELECT x_coordinate FROM t_widget WHERE id = ?",
+                Integer.class, widget.getId()));
+    }
+
+    /**
+     * @see WidgetRepository#findAllOrderedByZIndex
+     * @see WidgetRepository#findWidgetByIdAndBoardId
+     */
+    @Test
+    public void findWidgets_skipsEntities() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+
+            // test
+            List<Widget> page = repository.findAllOrderedByZIndex(BOARD_ID, PageRequest.of(0, 500));
+            Widget found = repository.findWidgetByIdAndBoardId(page.get(0).getId(), BOARD_ID).orElseThrow();
+
+            // validate: rows are mapped right to the widgets
+            assertEquals(500, page.size());
+            assertEquals(1000, (int) page.get(0).getZ_index());
+            assertEquals(page.get(0), found);
+            assertNotNull(found.getDateModified());
+            assertEquals(0, statistics.getEntityLoadCount());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#forEachWidget(String, Area, java.util.function.Consumer)
+     */
+    @Test
+    public void forEachWidget_matchesPages() {
+        final Area area = new Area(new Point(100, 100), new Point(600, 700));
+
+        // test
+        List<Widget> all = new ArrayList<>();
+        storage.forEachWidget(BOARD_ID, null, all::add);
+        List<Widget> inArea = new ArrayList<>();
+        storage.forEachWidget(BOARD_ID, area, inArea::add);
+
+        // validate
+        assertEquals(repository.findAllOrderedByZIndex(BOARD_ID, PageRequest.of(0, 1000)), all);
+        assertEquals(repository.findAllInAreaOrderedByZIndex(BOARD_ID, 100, 100, 600, 700,
+                PageRequest.of(0, 1000)), inArea);
+        assertFalse(inArea.isEmpty());
+    }
+
+    /**
+     * @see WidgetRepository#saveAll(Iterable)
+     */
+    @Test
+    public void saveAll_batchesStatements() {
+        List<WidgetEntity> entities = new ArrayList<>();
+        for (int i = 1; i <= IMPORT_SIZE; i++) {
+            Widget widget = DataHelper.createWidget(i, i, i, 10, 10);
+            widget.setId(null);
+            entities.add(storage.toEntity(IMPORT_BOARD_ID, widget));
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            // test: import
+            statistics.clear();
+            repository.saveAll(entities);
+
+            // validate: IDs are allocated in blocks, inserts are sent in batches
+            assertEquals(IMPORT_SIZE, statistics.getEntityInsertCount());
+            long insertStatements = statistics.getPrepareStatementCount();
+            assertTrue("Statements: " + insertStatements, insertStatements <= 2 * IMPORT_SIZE / 50);
+
+            // test: update of the managed entities
+            statistics.clear();
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    repository.findAll().stream()
+                            .filter(entity -> entity.getBoardId().equals(IMPORT_BOARD_ID))
+                            .forEach(entity -> entity.setX(entity.getX() + 1)));
+
+            // validate: single query, updates are sent in batches
+            assertEquals(IMPORT_SIZE, statistics.getEntityUpdateCount());
+            long updateStatements = statistics.getPrepareStatementCount();
+            assertTrue("Statements: " + updateStatements, updateStatements <= 1 + IMPORT_SIZE / 50);
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+        assertEquals(IMPORT_SIZE, (long) jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM t_widget WHERE board_id = ? AND x_coordinate = z_index + 1", Long.class, IMPORT_BOARD_ID));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#applyBatch(String, List)
+     */
+    @Test
+    public void applyBatch_matchesSequentialOperations() {
+        // the same widgets on both boards (gaps included)
+        List<Widget> sequentialWidgets = new ArrayList<>();
+        List<Widget> batchWidgets = new ArrayList<>();
+        for (int zIndex = 1; zIndex <= 60; zIndex++) {
+            if (zIndex % 7 == 0)
+                continue;
+            sequentialWidgets.add(createWidget(SHIFT_BOARD_ID, zIndex));
+            batchWidgets.add(createWidget(BATCH_BOARD_ID, zIndex));
+        }
+
+        for (int round = 0; round < 5; round++) {
+            List<WidgetOperation> sequentialOperations = new ArrayList<>();
+            List<WidgetOperation> batchOperations = new ArrayList<>();
+            List<Integer> alive = new ArrayList<>();
+            for (int i = 0; i < sequentialWidgets.size(); i++) {
+                if (getZIndexOrNull(sequentialWidgets.get(i)) != null)
+                    alive.add(i);
+            }
+            for (int i = 0; i < 30; i++) {
+                int type = random.nextInt(3);
+                Integer zIndex = random.nextInt(5) == 0 ? null : random.nextInt(80);
+                int x = random.nextInt(3);
+                if (type == 0 || alive.isEmpty()) {
+                    sequentialOperations.add(WidgetOperation.create(DataHelper.createWidget(0, x, 0, 10, 10)));
+                    batchOperations.add(WidgetOperation.create(DataHelper.createWidget(0, x, 0, 10, 10)));
+                    sequentialOperations.get(i).getWidget().setId(null);
+                    sequentialOperations.get(i).getWidget().setZ_index(zIndex);
+                    batchOperations.get(i).getWidget().setId(null);
+                    batchOperations.get(i).getWidget().setZ_index(zIndex);
+                } else {
+                    int index = alive.get(random.nextInt(alive.size()));
+                    if (type == 1) {
+                        Widget sequential = DataHelper.createWidget(0, x, 0, 10, 10);
+                        sequential.setId(sequentialWidgets.get(index).getId());
+                        sequential.setZ_index(zIndex);
+                        Widget batch = sequential.toBuilder().id(batchWidgets.get(index).getId()).build();
+                        sequentialOperations.add(WidgetOperation.update(sequential));
+                        batchOperations.add(WidgetOperation.update(batch));
+                    } else {
+                        alive.remove((Integer) index);
+                        sequentialOperations.add(WidgetOperation.delete(sequentialWidgets.get(index).getId()));
+                        batchOperations.add(WidgetOperation.delete(batchWidgets.get(index).getId()));
+                    }
+                }
+            }
+
+            // test
+            List<WidgetOperationResult> results = storage.applyBatch(BATCH_BOARD_ID, batchOperations);
+            for (int i = 0; i < sequentialOperations.size(); i++) {
+                Widget created = applySequentially(sequentialOperations.get(i));
+                if (created != null) {
+                    sequentialWidgets.add(created);
+                    batchWidgets.add(storage.getById(BATCH_BOARD_ID, results.get(i).getId()).orElseThrow());
+                }
+            }
+
+            // validate: same arrangement of the boards
+            assertEquals(batchOperations.size(), results.size());
+            for (int i = 0; i < sequentialWidgets.size(); i++) {
+                assertEquals(getZIndexOrNull(sequentialWidgets.get(i)), getZIndexOrNull(batchWidgets.get(i)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Widget resultWidget = results.get(i).getWidget();
+                if (resultWidget != null)
+                    assertEquals(getZIndexOrNull(resultWidget), resultWidget.getZ_index());
+            }
+        }
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#applyBatch(String, List)
+     */
+    @Test
+    public void applyBatch_shiftsOnce() {
+        for (int zIndex = 1; zIndex <= 100; zIndex++) {
+            createWidget(BATCH_BOARD_ID, zIndex);
+        }
+        List<WidgetOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Widget widget = DataHelper.createWidget(1 + i, 1 + i, i, 10, 10);
+            widget.setId(null);
+            operations.add(WidgetOperation.create(widget));
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+
+            // test: paste below the stored widgets
+            List<WidgetOperationResult> results = storage.applyBatch(BATCH_BOARD_ID, operations);
+
+            // validate: the stored widgets are shifted by the single statement
+            assertEquals(100, results.size());
+            assertEquals(1, (int) results.get(0).getWidget().getZ_index());
+            assertEquals(100, (int) results.get(99).getWidget().getZ_index());
+            long statements = statistics.getPrepareStatementCount();
+            assertTrue("Statements: " + statements, statements <= 10);
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+        assertEquals(Arrays.asList(101, 200), jdbcTemplate.queryForList("SELECT MIN(z_index) FROM t_widget " +
+                "WHERE board_id = ? AND x_coordinate = 0 UNION ALL SELECT MAX(z_index) FROM t_widget " +
+                "WHERE board_id = ? AND x_coordinate = 0", Integer.class, BATCH_BOARD_ID, BATCH_BOARD_ID));
+    }
+
+    /**
+     * @see WidgetRepositoryCustom#moveZIndexes(String, Map, List, java.time.LocalDateTime)
+     */
+    @Test
+    public void applyBatch_movesAcrossShiftedRanges() {
+        List<Widget> run = new ArrayList<>();
+        for (int zIndex = 1; zIndex <= 10; zIndex++) {
+            run.add(createWidget(BATCH_BOARD_ID, zIndex));
+        }
+        List<Widget> upperRun = Arrays.asList(createWidget(BATCH_BOARD_ID, 20),
+                createWidget(BATCH_BOARD_ID, 21), createWidget(BATCH_BOARD_ID, 22));
+        Widget top = run.get(9).toBuilder().z_index(1).build();
+        Widget bottom = run.get(0).toBuilder().z_index(20).build();
+        Widget created = DataHelper.createWidget(5, 0, 0, 10, 10);
+        created.setId(null);
+
+        // test: the moved widgets stand within the shifted ranges (3 ranges by different deltas)
+        List<WidgetOperationResult> results = storage.applyBatch(BATCH_BOARD_ID, Arrays.asList(
+                WidgetOperation.update(top), WidgetOperation.update(bottom), WidgetOperation.create(created)));
+
+        // validate
+        assertEquals(1, getZIndex(top));
+        assertEquals(20, getZIndex(bottom));
+        assertEquals(5, (int) results.get(2).getWidget().getZ_index());
+        assertEquals(5, getZIndex(results.get(2).getWidget()));
+        for (int i = 1; i <= 2; i++) {
+            assertEquals(i + 2, getZIndex(run.get(i)));
+        }
+        for (int i = 3; i <= 8; i++) {
+            assertEquals(i + 3, getZIndex(run.get(i)));
+        }
+        for (int i = 0; i < upperRun.size(); i++) {
+            assertEquals(i + 21, getZIndex(upperRun.get(i)));
+        }
+        assertEquals(14, storage.getWidgetsCount(BATCH_BOARD_ID));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#applyBatch(String, List)
+     */
+    @Test
+    public void applyBatch_notFound() {
+        Widget widget = createWidget(BATCH_BOARD_ID, 1);
+        Widget created = DataHelper.createWidget(1, 0, 0, 10, 10);
+        created.setId(null);
+
+        try {
+            // test
+            storage.applyBatch(BATCH_BOARD_ID, Arrays.asList(WidgetOperation.create(created),
+                    WidgetOperation.delete(widget.getId()), WidgetOperation.delete(widget.getId())));
+            fail("Deleted widget found");
+        } catch (NotFoundException ex) {
+            assertTrue(ex.getMessage().contains("Operation [2]"));
+        }
+
+        // validate: nothing applied
+        assertEquals(1, storage.getWidgetsCount(BATCH_BOARD_ID));
+        assertEquals(1, getZIndex(widget));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getBoardVersion(String)
+     */
+    @Test
+    public void getBoardVersion_bumpedByWrites() {
+        final long initialVersion = storage.getBoardVersion(BATCH_BOARD_ID);
+
+        // test
+        Widget widget = createWidget(BATCH_BOARD_ID, 1);
+        final long createdVersion = storage.getBoardVersion(BATCH_BOARD_ID);
+        storage.getWidgets(BATCH_BOARD_ID, 0, 10, null);
+        try {
+            storage.applyBatch(BATCH_BOARD_ID, Arrays.asList(WidgetOperation.delete(widget.getId()),
+                    WidgetOperation.delete(widget.getId())));
+            fail("Deleted widget found");
+        } catch (NotFoundException ex) {
+            // rolled back along with the version
+        }
+        final long readVersion = storage.getBoardVersion(BATCH_BOARD_ID);
+        storage.deleteById(BATCH_BOARD_ID, widget.getId());
+
+        // validate
+        assertTrue(createdVersion > initialVersion);
+        assertEquals(createdVersion, readVersion);
+        assertTrue(storage.getBoardVersion(BATCH_BOARD_ID) > createdVersion);
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#addVersionListener(com.miro.hw.artexnet.storage.BoardVersionListener)
+     */
+    @Test
+    public void addVersionListener_notifiedOnCommit() {
+        List<Long> notified = new ArrayList<>();
+        storage.addVersionListener((boardId, version) -> {
+            if (boardId.equals(BATCH_BOARD_ID))
+                notified.add(version);
+        });
+
+        // test
+        Widget widget = createWidget(BATCH_BOARD_ID, 1);
+        final long createdVersion = storage.getBoardVersion(BATCH_BOARD_ID);
+        try {
+            storage.applyBatch(BATCH_BOARD_ID, Arrays.asList(WidgetOperation.delete(widget.getId()),
+                    WidgetOperation.delete(widget.getId())));
+            fail("Deleted widget found");
+        } catch (NotFoundException ex) {
+            // rolled back: not notified
+        }
+
+        // validate
+        assertEquals(Collections.singletonList(createdVersion), notified);
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#readAtVersion(String, java.util.function.LongFunction)
+     */
+    @Test
+    public void readAtVersion_readsWithinSingleTransaction() {
+        createWidget(BATCH_BOARD_ID, 1);
+        final long version = storage.getBoardVersion(BATCH_BOARD_ID);
+
+        // test
+        List<Object> transactions = new ArrayList<>();
+        long count = storage.readAtVersion(BATCH_BOARD_ID, readVersion -> {
+            assertEquals(version, readVersion);
+            assertTrue(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+            transactions.add(TransactionSynchronizationManager.getResource(entityManagerFactory));
+            long widgetsCount = storage.getWidgets(BATCH_BOARD_ID, 0, 10, null, true).getTotalCount();
+            transactions.add(TransactionSynchronizationManager.getResource(entityManagerFactory));
+            return widgetsCount;
+        });
+
+        // validate: the data is read by the transaction (connection) of the version
+        assertEquals(1, count);
+        assertNotNull(transactions.get(0));
+        assertSame(transactions.get(0), transactions.get(1));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getBoardVersions(java.util.Collection)
+     */
+    @Test
+    public void getBoardVersions() {
+        createWidget(BATCH_BOARD_ID, 1);
+
+        // test
+        Map<String, Long> versions = storage.getBoardVersions(Arrays.asList(BOARD_ID, BATCH_BOARD_ID));
+
+        // validate
+        assertEquals(2, versions.size());
+        assertEquals(storage.getBoardVersion(BOARD_ID), (long) versions.get(BOARD_ID));
+        assertEquals(storage.getBoardVersion(BATCH_BOARD_ID), (long) versions.get(BATCH_BOARD_ID));
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getChanges(String, long, Area)
+     */
+    @Test
+    public void getChanges_replayMatchesBoard() {
+        for (int zIndex = 1; zIndex <= 30; zIndex++) {
+            if (zIndex % 5 != 0)
+                createWidget(zIndex);
+        }
+        final long syncedVersion = storage.getBoardVersion(SHIFT_BOARD_ID);
+        Map<Long, Widget> synced = getWidgetsById(SHIFT_BOARD_ID);
+
+        // test: creates/updates into the occupied z-indexes (shifting the runs), deletes and batches
+        for (int i = 0; i < 40; i++) {
+            List<Widget> widgets = new ArrayList<>(getWidgetsById(SHIFT_BOARD_ID).values());
+            Widget target = widgets.get(random.nextInt(widgets.size()));
+            Integer zIndex = random.nextInt(5) == 0 ? null : 1 + random.nextInt(40);
+            Widget created = DataHelper.createWidget(0, random.nextInt(100), 0, 10, 10);
+            created.setId(null);
+            created.setZ_index(zIndex);
+            switch (random.nextInt(4)) {
+                case 0:
+                    storage.createWidget(SHIFT_BOARD_ID, created);
+                    break;
+                case 1:
+                    storage.updateWidget(SHIFT_BOARD_ID, target.toBuilder().x(target.getX() + 1).z_index(zIndex).build());
+                    break;
+                case 2:
+                    storage.deleteById(SHIFT_BOARD_ID, target.getId());
+                    break;
+                default:
+                    Widget another = created.toBuilder().z_index(zIndex == null ? 1 : zIndex + 1).build();
+                    storage.applyBatch(SHIFT_BOARD_ID, Arrays.asList(WidgetOperation.create(created),
+                            WidgetOperation.create(another),
+                            WidgetOperation.update(target.toBuilder().z_index(1).build())));
+            }
+        }
+        WidgetChanges changes = storage.getChanges(SHIFT_BOARD_ID, syncedVersion, null);
+        DataHelper.applyChanges(synced, changes.getChanges());
+
+        // validate
+        assertFalse(changes.isResyncRequired());
+        assertEquals(storage.getBoardVersion(SHIFT_BOARD_ID), changes.getVersion());
+        assertEquals(getWidgetsById(SHIFT_BOARD_ID), synced);
+    }
+
+    /**
+     * @see WidgetDatabaseStorage#getChanges(String, long, Area)
+     */
+    @Test
+    public void getChanges_committedElsewhere() {
+        createWidget(1);
+        final long syncedVersion = storage.getBoardVersion(SHIFT_BOARD_ID);
+
+        // test: the version bumped by another instance
+        createWidget(2);
+        jdbcTemplate.update("UPDATE t_z_allocation SET version = version + 1 WHERE version = ?",
+                storage.getBoardVersion(SHIFT_BOARD_ID));
+        WidgetChanges changes = storage.getChanges(SHIFT_BOARD_ID, syncedVersion, null);
+
+        // validate
+        assertTrue(changes.isResyncRequired());
+        assertEquals(storage.getBoardVersion(SHIFT_BOARD_ID), changes.getVersion());
+        assertTrue(storage.getChanges(SHIFT_BOARD_ID, changes.getVersion(), null).getChanges().isEmpty());
+    }
+
+    ////////////////////////////////////
+
+    private Widget createWidget(int zIndex) {
+        return createWidget(SHIFT_BOARD_ID, zIndex);
+    }
+
+    private Widget createWidget(String boardId, int zIndex) {
+        Widget widget = DataHelper.createWidget(zIndex, 0, 0, 10, 10);
+        widget.setId(null);
+        return storage.createWidget(boardId, widget);
+    }
+
+    /**
+     * @return the created widget (missing for the other operations).
+     */
+    private Widget applySequentially(WidgetOperation operation) {
+        switch (operation.getType()) {
+            case CREATE:
+                return storage.createWidget(SHIFT_BOARD_ID, operation.getWidget());
+            case UPDATE:
+                try {
+                    storage.updateWidget(SHIFT_BOARD_ID, operation.getWidget());
+                } catch (ValidationException ex) {
+                    // reported as unchanged by the batch
+                }
+                return null;
+            default:
+                storage.deleteById(SHIFT_BOARD_ID, operation.getId());
+                return null;
+        }
+    }
+
+    private Map<Long, Widget> getWidgetsById(String boardId) {
+        Map<Long, Widget> widgets = new HashMap<>();
+        storage.forEachWidget(boardId, null, widget -> widgets.put(widget.getId(), widget));
+        return widgets;
+    }
+
+    private Integer getZIndexOrNull(Widget widget) {
+        List<Integer> zIndexes = jdbcTemplate.queryForList("SELECT z_index FROM t_widget WHERE id = ?",
+                Integer.class, widget.getId());
+        return zIndexes.isEmpty() ? null : zIndexes.get(0);
+    }
+
+    private int getZIndex(Widget widget) {
+        return jdbcTemplate.queryForObject("SELECT z_index FROM t_widget WHERE id = ?", Integer.class, widget.getId());
+    }
+
+    private int getVersion(Widget widget) {
+        return jdbcTemplate.queryForObject("SELECT version FROM t_widget WHERE id = ?", Integer.class, widget.getId());
+    }
+
+    private String explain(String query) {
+        return jdbcTemplate.queryForObject("EXPLAIN " + query, String.class, BOARD_ID, 100, 200, 600, 700);
+    }
+
+    private static void assertAreaIndexUsed(String plan) {
+        // the index lookup is listed as a comment with the conditions it applies
+        String indexLookup = plan.substring(plan.indexOf("/*"), plan.indexOf("*/"));
+        assertTrue(plan, indexLookup.contains("PUBLIC.IDX_AREA:"));
+        assertTrue(plan, indexLookup.contains("BOARD_ID = ?1"));
+        assertTrue(plan, indexLookup.contains("LEFT_EDGE >= ?2"));
+    }
+
+}
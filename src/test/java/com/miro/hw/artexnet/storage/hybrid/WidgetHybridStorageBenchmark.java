@@ -0,0 +1,120 @@
+package com.miro.hw.artexnet.storage.hybrid;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.storage.db.WidgetRepository;
+import com.miro.hw.artexnet.storage.local.AreaIndexType;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the time to ready of {@link WidgetHybridStorage}: loading 1M stored widgets into memory.
+ * Runs only when enabled explicitly: <code>-Dbenchmark=true</code>
+ */
+@Slf4j
+@TestPropertySource(properties = "storage.type=hybrid")
+public class WidgetHybridStorageBenchmark extends BaseTestUnit {
+    private static final String BOARD_PREFIX = "benchmark-load-";
+    private static final int BOARDS = 8;
+    private static final int BOARD_SIZE = 125_000;
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    // IDs far above the sequence values handed out to the other tests
+    private static final long FIRST_ID = 1_000_000_000L;
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private WidgetStorageLoader loader;
+
+    @Autowired
+    private WidgetChangeWriter writer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        jdbcTemplate.update("DELETE FROM t_widget WHERE board_id LIKE ?", BOARD_PREFIX + "%");
+    }
+
+    ////////////////////////////////////
+
+    @Test
+    public void timeToReady() throws InterruptedException {
+        insertWidgets();
+
+        for (int round = 0; round < 3; round++) {
+            WidgetHybridStorage storage = new WidgetHybridStorage(repository, loader, writer,
+                    AreaIndexType.RTREE, Duration.ofMinutes(10), Duration.ofHours(1), 100);
+
+            // test
+            final long startTime = System.nanoTime();
+            storage.start();
+            final long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+            // validate
+            try {
+                for (int board = 0; board < BOARDS; board++) {
+                    assertEquals(BOARD_SIZE, storage.getWidgetsCount(BOARD_PREFIX + board));
+                }
+                assertEquals(BOARD_SIZE, (int) storage.getWidgets(BOARD_PREFIX + 0, 0, 1, null)
+                        .getItems().get(0).getZ_index());
+                log.info("{} widgets loaded, ready in {} ms", BOARDS * BOARD_SIZE, elapsedMillis);
+            } finally {
+                storage.shutdown();
+            }
+        }
+    }
+
+    ////////////////////////////////////
+
+    private void insertWidgets() {
+        final Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        long id = FIRST_ID;
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int board = 0; board < BOARDS; board++) {
+            for (int zIndex = 1; zIndex <= BOARD_SIZE; zIndex++) {
+                int x = ThreadLocalRandom.current().nextInt(-100_000, 100_000);
+                int y = ThreadLocalRandom.current().nextInt(-100_000, 100_000);
+                int width = ThreadLocalRandom.current().nextInt(1, 200);
+                int height = ThreadLocalRandom.current().nextInt(1, 200);
+                batch.add(new Object[] { id++, BOARD_PREFIX + board, zIndex, x, y, width, height,
+                        x - width / 2, y - height / 2, x + width / 2, y + height / 2, now, now });
+                if (batch.size() == INSERT_BATCH_SIZE) {
+                    insert(batch);
+                    batch.clear();
+                }
+            }
+        }
+        insert(batch);
+    }
+
+    private void insert(List<Object[]> batch) {
+        jdbcTemplate.batchUpdate("INSERT INTO t_widget (id, board_id, z_index, x_coordinate, y_coordinate, " +
+                "width, height, left_edge, bottom_edge, right_edge, top_edge, version, date_created, date_modified) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?, ?)", batch);
+    }
+
+}
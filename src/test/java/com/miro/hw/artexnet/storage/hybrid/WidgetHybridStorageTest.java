@@ -0,0 +1,403 @@
+package com.miro.hw.artexnet.storage.hybrid;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.domain.Widget;
+import com.miro.hw.artexnet.domain.WidgetOperation;
+import com.miro.hw.artexnet.exception.ServiceUnavailableException;
+import com.miro.hw.artexnet.storage.WidgetChangeLog;
+import com.miro.hw.artexnet.storage.db.WidgetDatabaseStorage;
+import com.miro.hw.artexnet.storage.db.WidgetRepository;
+import com.miro.hw.artexnet.storage.local.AreaIndexType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.IncorrectUpdateSemanticsDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@TestPropertySource(properties = "storage.type=hybrid")
+public class WidgetHybridStorageTest extends BaseTestUnit {
+    private static final String BOARD_ID = "hybrid-test";
+
+    @Autowired
+    private WidgetHybridStorage storage;
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private WidgetDatabaseStorage databaseStorage;
+
+    @Autowired
+    private WidgetChangeWriter writer;
+
+    @Autowired
+    private WidgetStorageLoader loader;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        storage.flush();
+        jdbcTemplate.update("DELETE FROM t_widget WHERE board_id = ?", BOARD_ID);
+    }
+
+    ////////////////////////////////////
+
+    /**
+     * @see WidgetHybridStorage#flush()
+     */
+    @Test
+    public void flush_writesChanges() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(Duration.ofHours(1), 100);
+        hybridStorage.start();
+        try {
+            Widget widget1 = createWidget(hybridStorage, 1);
+            Widget widget2 = createWidget(hybridStorage, 2);
+            Widget widget4 = createWidget(hybridStorage, 4);
+            createWidget(hybridStorage, 1);  // shifts 1 and 2 up to the gap
+            Widget deleted = createWidget(hybridStorage, 10);
+
+            widget4.setZ_index(2);  // shifts 2, 3 up to the released 4
+            widget4.setX(100);
+            hybridStorage.updateWidget(BOARD_ID, widget4);
+            hybridStorage.deleteById(BOARD_ID, deleted.getId());
+            assertEquals(7, hybridStorage.getLag());
+
+            // test
+            int flushed = hybridStorage.flush();
+
+            // validate: database matches the memory
+            assertEquals(7, flushed);
+            assertEquals(0, hybridStorage.getLag());
+            assertEquals(getStoredZIndexes(hybridStorage), getDatabaseZIndexes());
+            assertEquals(3, (int) getDatabaseZIndexes().get(widget1.getId()));
+            assertEquals(4, (int) getDatabaseZIndexes().get(widget2.getId()));
+            assertEquals(100, (int) jdbcTemplate.queryForObject(
+                    "SELECT x_coordinate FROM t_widget WHERE id = ?", Integer.class, widget4.getId()));
+        } finally {
+            hybridStorage.shutdown();
+        }
+    }
+
+    /**
+     * @see WidgetHybridStorage#createWidget(String, Widget)
+     */
+    @Test
+    public void createWidget_idsReservedFromSequence() {
+        Widget hybridWidget = createWidget(storage, 1);
+        storage.flush();
+
+        // test
+        Widget widget = DataHelper.createWidget(2, 0, 0, 10, 10);
+        widget.setId(null);
+        Widget databaseWidget = databaseStorage.createWidget(BOARD_ID, widget);
+
+        // validate
+        assertNotEquals(hybridWidget.getId(), databaseWidget.getId());
+        assertEquals(2, (long) jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM t_widget WHERE board_id = ?", Long.class, BOARD_ID));
+    }
+
+    /**
+     * @see WidgetHybridStorage#shutdown()
+     * @see WidgetHybridStorage#start()
+     */
+    @Test
+    public void shutdown_flushesAndRestarts() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(Duration.ofHours(1), 100);
+        hybridStorage.start();
+        Widget widget1 = createWidget(hybridStorage, 1);
+        createWidget(hybridStorage, 1);
+        Map<Long, Integer> zIndexes = getStoredZIndexes(hybridStorage);
+        assertTrue(getDatabaseZIndexes().isEmpty());
+
+        // test
+        hybridStorage.shutdown();
+
+        // validate: all changes written, the restarted storage loads them
+        assertEquals(zIndexes, getDatabaseZIndexes());
+        WidgetHybridStorage restartedStorage = newStorage(Duration.ofHours(1), 100);
+        restartedStorage.start();
+        try {
+            assertEquals(zIndexes, getStoredZIndexes(restartedStorage));
+            assertEquals(2, (int) restartedStorage.getById(BOARD_ID, widget1.getId()).orElseThrow().getZ_index());
+        } finally {
+            restartedStorage.shutdown();
+        }
+    }
+
+    /**
+     * @see WidgetHybridStorage#createWidget(String, Widget)
+     */
+    @Test
+    public void createWidget_waitsForFlushOnMaxLag() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(Duration.ofHours(1), 2);
+        hybridStorage.start();
+        try {
+            createWidget(hybridStorage, 1);
+            createWidget(hybridStorage, 2);
+
+            // test
+            Thread writer = new Thread(() -> createWidget(hybridStorage, 3));
+            writer.start();
+            writer.join(200);
+
+            // validate
+            assertTrue(writer.isAlive());
+            hybridStorage.flush();
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+            assertEquals(3, hybridStorage.getWidgetsCount(BOARD_ID));
+        } finally {
+            hybridStorage.shutdown();
+        }
+    }
+
+    /**
+     * @see WidgetHybridStorage#createWidget(String, Widget)
+     */
+    @Test
+    public void createWidget_unavailableOnMaxLag() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(writer, event -> { }, 1, Duration.ofMillis(100));
+        hybridStorage.start();
+        try {
+            createWidget(hybridStorage, 1);
+
+            // test
+            try {
+                createWidget(hybridStorage, 2);
+                fail("Writer must not wait for the flush forever");
+            } catch (ServiceUnavailableException e) {
+                // validate
+                assertEquals(1, hybridStorage.getLag());
+                assertEquals(1, hybridStorage.getWidgetsCount(BOARD_ID));
+            }
+        } finally {
+            hybridStorage.shutdown();
+        }
+    }
+
+    /**
+     * @see WidgetHybridStorage#flush()
+     */
+    @Test
+    public void flush_keepsFailedBatch() throws InterruptedException {
+        final boolean[] failing = { true };
+        WidgetChangeWriter failingWriter = mock(WidgetChangeWriter.class);
+        doAnswer(invocation -> {
+            if (failing[0])
+                throw new CannotCreateTransactionException("Database is not available");
+            writer.apply(invocation.getArgument(0));
+            return null;
+        }).when(failingWriter).apply(anyList());
+        ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+
+        WidgetHybridStorage hybridStorage = newStorage(failingWriter, eventPublisher, 100, Duration.ofSeconds(5));
+        hybridStorage.start();
+        try {
+            Widget widget1 = createWidget(hybridStorage, 1);
+            Widget widget2 = createWidget(hybridStorage, 5);
+
+            // test: the flush keeps failing
+            for (int i = 0; i < 10; i++) {
+                try {
+                    hybridStorage.flush();
+                    fail("Failed batch must be retried");
+                } catch (CannotCreateTransactionException e) {
+                    // validate: nothing dropped, the node is not ready
+                    assertEquals(2, hybridStorage.getLag());
+                    assertTrue(hybridStorage.isFlushFailing());
+                }
+            }
+            verify(eventPublisher, times(1)).publishEvent(argThat(event ->
+                    ((AvailabilityChangeEvent<?>) event).getState() == ReadinessState.REFUSING_TRAFFIC));
+
+            // test: the database is back
+            failing[0] = false;
+            int flushed = hybridStorage.flush();
+
+            // validate: the queued changes are written
+            assertEquals(2, flushed);
+            assertEquals(0, hybridStorage.getLag());
+            assertFalse(hybridStorage.isFlushFailing());
+            assertEquals(new HashSet<>(Arrays.asList(widget1.getId(), widget2.getId())), getDatabaseZIndexes().keySet());
+            verify(eventPublisher, times(1)).publishEvent(argThat(event ->
+                    ((AvailabilityChangeEvent<?>) event).getState() == ReadinessState.ACCEPTING_TRAFFIC));
+        } finally {
+            hybridStorage.shutdown();
+        }
+    }
+
+    /**
+     * @see WidgetHybridStorage#shutdown()
+     */
+    @Test
+    public void shutdown_retriesFailedFlush() throws InterruptedException {
+        final int[] failures = { 3 };
+        WidgetChangeWriter failingWriter = mock(WidgetChangeWriter.class);
+        doAnswer(invocation -> {
+            if (failures[0]-- > 0)
+                throw new CannotCreateTransactionException("Database is not available");
+            writer.apply(invocation.getArgument(0));
+            return null;
+        }).when(failingWriter).apply(anyList());
+
+        WidgetHybridStorage hybridStorage = newStorage(failingWriter, event -> { }, 100, Duration.ofSeconds(5));
+        hybridStorage.start();
+        Widget widget1 = createWidget(hybridStorage, 1);
+        Widget widget2 = createWidget(hybridStorage, 2);
+
+        // test
+        hybridStorage.shutdown();
+
+        // validate: drained despite the transient failures
+        assertEquals(0, hybridStorage.getLag());
+        assertEquals(new HashSet<>(Arrays.asList(widget1.getId(), widget2.getId())), getDatabaseZIndexes().keySet());
+    }
+
+    /**
+     * @see WidgetChangeWriter#apply(List)
+     */
+    @Test
+    public void flush_failsOnUpdateOfMissingRow() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(Duration.ofHours(1), 100);
+        hybridStorage.start();
+        try {
+            Widget widget = createWidget(hybridStorage, 1);
+            hybridStorage.flush();
+            jdbcTemplate.update("UPDATE t_widget SET board_id = ? WHERE id = ?", "hybrid-test-moved", widget.getId());
+            hybridStorage.updateWidget(BOARD_ID, widget.toBuilder().x(100).build());
+
+            // test
+            try {
+                hybridStorage.flush();
+                fail("Update of the missing row must not be reported as written");
+            } catch (IncorrectUpdateSemanticsDataAccessException e) {
+                // validate
+                assertEquals(1, hybridStorage.getLag());
+            }
+
+            // validate: written once the row is back
+            jdbcTemplate.update("UPDATE t_widget SET board_id = ? WHERE id = ?", BOARD_ID, widget.getId());
+            assertEquals(1, hybridStorage.flush());
+            assertEquals(100, (int) jdbcTemplate.queryForObject("SELECT x_coordinate FROM t_widget WHERE id = ?",
+                    Integer.class, widget.getId()));
+        } finally {
+            hybridStorage.shutdown();
+        }
+    }
+
+    /**
+     * @see WidgetHybridStorage#applyBatch(String, java.util.List)
+     */
+    @Test
+    public void applyBatch_afterShutdown() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(Duration.ofHours(1), 1000);
+        hybridStorage.start();
+        hybridStorage.shutdown();
+        List<WidgetOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Widget widget = DataHelper.createWidget(i + 1, 0, 0, 10, 10);
+            widget.setId(null);
+            operations.add(WidgetOperation.create(widget));
+        }
+
+        // test: a full batch requests the flush once the flusher is stopped
+        hybridStorage.applyBatch(BOARD_ID, operations);
+
+        // validate: the changes are queued (not failed), so the backlog keeps their permits
+        assertEquals(500, hybridStorage.getLag());
+        assertEquals(500, hybridStorage.flush());
+        assertEquals(0, hybridStorage.getLag());
+    }
+
+    /**
+     * @see WidgetHybridStorage#applyBatch(String, java.util.List)
+     */
+    @Test
+    public void applyBatch_queuesChanges() throws InterruptedException {
+        WidgetHybridStorage hybridStorage = newStorage(Duration.ofHours(1), 100);
+        hybridStorage.start();
+        try {
+            Widget widget1 = createWidget(hybridStorage, 1);
+            Widget widget2 = createWidget(hybridStorage, 2);
+            hybridStorage.flush();
+            Widget created = DataHelper.createWidget(1, 0, 0, 10, 10);
+            created.setId(null);
+
+            // test
+            hybridStorage.applyBatch(BOARD_ID, Arrays.asList(
+                    WidgetOperation.create(created),
+                    WidgetOperation.update(widget2.toBuilder().z_index(3).build()),  // shifted by the create
+                    WidgetOperation.delete(widget1.getId())));
+
+            // validate: the unchanged widget is not queued
+            assertEquals(2, hybridStorage.getLag());
+            assertEquals(2, hybridStorage.flush());
+            assertEquals(getStoredZIndexes(hybridStorage), getDatabaseZIndexes());
+            assertEquals(3, (int) getDatabaseZIndexes().get(widget2.getId()));
+        } finally {
+            hybridStorage.shutdown();
+        }
+    }
+
+    ////////////////////////////////////
+
+    private WidgetHybridStorage newStorage(Duration flushInterval, int maxLag) {
+        return new WidgetHybridStorage(repository, loader, writer,
+                AreaIndexType.RTREE, Duration.ofMinutes(10), flushInterval, maxLag);
+    }
+
+    private WidgetHybridStorage newStorage(WidgetChangeWriter writer, ApplicationEventPublisher eventPublisher,
+                                          int maxLag, Duration maxLagWait) {
+        return new WidgetHybridStorage(repository, loader, writer, eventPublisher, AreaIndexType.RTREE,
+                Duration.ofMinutes(10), WidgetChangeLog.DEFAULT_CAPACITY, Duration.ofHours(1), maxLag, maxLagWait,
+                Duration.ofMillis(10));
+    }
+
+    private static Widget createWidget(WidgetHybridStorage storage, int zIndex) {
+        Widget widget = DataHelper.createWidget(zIndex, 0, 0, 10, 10);
+        widget.setId(null);
+        return storage.createWidget(BOARD_ID, widget);
+    }
+
+    private static Map<Long, Integer> getStoredZIndexes(WidgetHybridStorage storage) {
+        return storage.getWidgets(BOARD_ID, 0, 100, null).getItems().stream()
+                .collect(Collectors.toMap(Widget::getId, Widget::getZ_index));
+    }
+
+    private Map<Long, Integer> getDatabaseZIndexes() {
+        Map<Long, Integer> zIndexes = new HashMap<>();
+        jdbcTemplate.query("SELECT id, z_index FROM t_widget WHERE board_id = ?",
+                row -> { zIndexes.put(row.getLong("id"), row.getInt("z_index")); }, BOARD_ID);
+        return zIndexes;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BoundedLongHeapTest extends BaseTestUnit {
+
+    @Before
+    public void setUp() {
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void emptyHeap() {
+        BoundedLongHeap heap = new BoundedLongHeap(0);
+        heap.offer(1);
+
+        assertEquals(0, heap.size());
+        assertEquals(0, heap.toDescendingArray().length);
+    }
+
+    @Test
+    public void keepsGreatestValues() {
+        long[] values = new long[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+
+        for (int limit : new int[] { 1, 7, 100, values.length, values.length * 2 }) {
+            BoundedLongHeap heap = new BoundedLongHeap(limit);
+            for (long value : values) {
+                heap.offer(value);
+            }
+
+            // expected: the greatest values in descending order
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            long[] expected = new long[Math.min(limit, values.length)];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = sorted[sorted.length - 1 - i];
+            }
+
+            assertEquals(expected.length, heap.size());
+            assertArrayEquals(expected, heap.toDescendingArray());
+        }
+    }
+
+}
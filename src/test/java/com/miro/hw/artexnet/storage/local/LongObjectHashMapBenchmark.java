@@ -0,0 +1,108 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares ID lookups of {@link LongObjectHashMap} with the previously used
+ * reverse-ordered {@link ConcurrentSkipListMap} at 1M widgets.
+ * Runs only when enabled explicitly: <code>-Dbenchmark=true</code>
+ */
+@Slf4j
+public class LongObjectHashMapBenchmark extends BaseTestUnit {
+    private static final int WIDGETS_COUNT = 1_000_000;
+    private static final int LOOKUPS_COUNT = 10_000_000;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        super.setUp();
+    }
+
+    ////////////////////////////////////
+
+    @Test
+    public void lookupLatencyAndFootprint() {
+        final Object value = new Object();
+
+        long[] footprint = new long[2];
+        footprint[0] = measureFootprint(() -> {
+            ConcurrentSkipListMap<Long, Object> map = new ConcurrentSkipListMap<>(Collections.reverseOrder());
+            for (long id = 1; id <= WIDGETS_COUNT; id++) {
+                map.put(id, value);
+            }
+            return map;
+        });
+        footprint[1] = measureFootprint(() -> {
+            LongObjectHashMap<Object> map = new LongObjectHashMap<>();
+            for (long id = 1; id <= WIDGETS_COUNT; id++) {
+                map.put(id, value);
+            }
+            return map;
+        });
+
+        ConcurrentSkipListMap<Long, Object> skipListMap = new ConcurrentSkipListMap<>(Collections.reverseOrder());
+        LongObjectHashMap<Object> hashMap = new LongObjectHashMap<>();
+        for (long id = 1; id <= WIDGETS_COUNT; id++) {
+            skipListMap.put(id, value);
+            hashMap.put(id, value);
+        }
+
+        // warm-up and measure
+        for (int round = 0; round < 3; round++) {
+            double skipListLatency = measureLookup(skipListMap::get);
+            double hashMapLatency = measureLookup(hashMap::get);
+            log.info("Round {}: ConcurrentSkipListMap {} ns/lookup, LongObjectHashMap {} ns/lookup",
+                    round, String.format("%.1f", skipListLatency), String.format("%.1f", hashMapLatency));
+        }
+        log.info("Heap footprint at {} widgets: ConcurrentSkipListMap {} MB, LongObjectHashMap {} MB",
+                WIDGETS_COUNT, footprint[0] / (1024 * 1024), footprint[1] / (1024 * 1024));
+    }
+
+    ////////////////////////////////////
+
+    private static double measureLookup(LongFunction<Object> lookup) {
+        long[] keys = new long[LOOKUPS_COUNT];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 1 + random.nextInt(WIDGETS_COUNT);
+        }
+
+        int found = 0;
+        long start = System.nanoTime();
+        for (long key : keys) {
+            if (lookup.apply(key) != null)
+                found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != LOOKUPS_COUNT)
+            throw new IllegalStateException("Lookup failed");
+        return (double) elapsed / LOOKUPS_COUNT;
+    }
+
+    private static long measureFootprint(Supplier<Object> factory) {
+        long before = usedHeap();
+        Object instance = factory.get();
+        long after = usedHeap();
+        if (instance.hashCode() == 0)
+            log.trace("Keeping the instance reachable");
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LongObjectHashMapTest extends BaseTestUnit {
+
+    private LongObjectHashMap<String> map;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        map = new LongObjectHashMap<>();
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void emptyMap() {
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1L));
+        assertNull(map.remove(1L));
+        assertFalse(map.containsKey(0L));
+    }
+
+    @Test
+    public void putReplacesValue() {
+        assertNull(map.put(0L, "first"));
+        assertEquals("first", map.put(0L, "second"));
+
+        assertEquals(1, map.size());
+        assertEquals("second", map.get(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_nullValue() {
+        map.put(1L, null);
+    }
+
+    @Test
+    public void putAndRemove_matchesHashMap() {
+        Map<Long, String> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // narrow key range to get collisions, removals and re-insertions
+            long key = random.nextInt(50_000) - 25_000L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = String.valueOf(i);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = -25_000L; key < 25_000L; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(expected.keySet().iterator().next()));
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.domain.Widget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class WidgetColumnsTest extends BaseTestUnit {
+
+    private WidgetColumns columns;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        columns = new WidgetColumns();
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void allocate_toWidget() {
+        Widget widget = DataHelper.createWidget(7, 10, 20, 30, 40);
+        widget.setId(42L);
+        LocalDateTime dateModified = LocalDateTime.now();
+
+        // test
+        int slot = columns.allocate(widget);
+
+        // validate
+        Widget stored = columns.toWidget(slot, 9, dateModified);
+        assertEquals(42L, stored.getId().longValue());
+        assertEquals(9, stored.getZ_index().intValue());
+        assertEquals(10, stored.getX().intValue());
+        assertEquals(20, stored.getY().intValue());
+        assertEquals(30, stored.getWidth());
+        assertEquals(40, stored.getHeight());
+        assertEquals(dateModified, stored.getDateModified());
+    }
+
+    @Test
+    public void release_slotNeverMatchesAndGetsReused() {
+        int slot = columns.allocate(DataHelper.createWidget(1, 0, 0, 20, 20));
+        Area area = new Area(new Point(-50, -50), new Point(50, 50));
+        assertEquals(1, columns.count(area));
+
+        // test
+        columns.release(slot);
+
+        // validate
+        assertEquals(0, columns.count(area));
+        assertTrue(scan(area).isEmpty());
+        assertEquals(slot, columns.allocate(DataHelper.createWidget(1, 500, 500, 20, 20)));
+    }
+
+    @Test
+    public void scan_matchesFullScan() {
+        Map<Integer, Widget> widgets = new HashMap<>();
+        for (long id = 1; id <= 5000; id++) {
+            Widget widget = DataHelper.createWidget(0, random.nextInt(2000) - 1000, random.nextInt(2000) - 1000,
+                    getRandomNumber(100), getRandomNumber(100));
+            widget.setId(id);
+            widgets.put(columns.allocate(widget), widget);
+        }
+
+        // release every third slot
+        for (int slot = 0; slot < 5000; slot += 3) {
+            columns.release(slot);
+            widgets.remove(slot);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            int leftX = random.nextInt(2000) - 1000;
+            int leftY = random.nextInt(2000) - 1000;
+            Area area = new Area(new Point(leftX, leftY), new Point(leftX + getRandomNumber(800), leftY + getRandomNumber(800)));
+
+            List<Integer> expected = new ArrayList<>();
+            widgets.forEach((slot, widget) -> {
+                if (Widget.fitsInArea(widget, area))
+                    expected.add(slot);
+            });
+            Collections.sort(expected);
+
+            assertEquals(expected, scan(area));
+            assertEquals(expected.size(), columns.count(area));
+        }
+    }
+
+    ////////////////////////////////////
+
+    private List<Integer> scan(Area area) {
+        List<Integer> found = new ArrayList<>();
+        columns.scan(area, found::add);
+        return found;
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import com.miro.hw.artexnet.DataHelper;
+import com.miro.hw.artexnet.common.immutable.Area;
+import com.miro.hw.artexnet.common.immutable.Point;
+import com.miro.hw.artexnet.domain.Widget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class WidgetSpatialIndexTest extends BaseTestUnit {
+
+    private WidgetColumns columns;
+    private WidgetSpatialIndex index;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        columns = new WidgetColumns();
+        index = new WidgetSpatialIndex(columns);
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void search_emptyIndex() {
+        Area area = new Area(new Point(-100, -100), new Point(100, 100));
+
+        assertTrue(search(area).isEmpty());
+        assertEquals(0, index.count(area));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void put_replacesExistingBox() {
+        Widget widget = DataHelper.createWidget(1, 0, 0, 20, 20);
+        int slot = columns.allocate(widget);
+        index.put(slot);
+
+        // the slot gets reused by the moved widget
+        columns.release(slot);
+        widget.setX(1000);
+        widget.setY(1000);
+        assertEquals(slot, columns.allocate(widget));
+        index.put(slot);
+
+        assertEquals(1, index.size());
+        assertTrue(search(new Area(new Point(-50, -50), new Point(50, 50))).isEmpty());
+        assertEquals(Collections.singleton(slot), search(new Area(new Point(950, 950), new Point(1050, 1050))));
+    }
+
+    @Test
+    public void remove() {
+        int slot = columns.allocate(DataHelper.createWidget(1, 0, 0, 20, 20));
+        index.put(slot);
+
+        // test
+        index.remove(slot);
+        index.remove(slot);
+
+        // validate
+        assertEquals(0, index.size());
+        assertTrue(search(new Area(new Point(-50, -50), new Point(50, 50))).isEmpty());
+    }
+
+    @Test
+    public void search_matchesFullScan() {
+        Map<Integer, Widget> widgets = new HashMap<>();
+        for (long id = 1; id <= 2000; id++) {
+            index.put(allocate(id, widgets));
+        }
+
+        // remove every third widget to exercise the tree condensing
+        for (int slot = 0; slot < 2000; slot += 3) {
+            index.remove(slot);
+            widgets.remove(slot);
+        }
+        assertSearchMatches(widgets);
+    }
+
+    /**
+     * @see WidgetSpatialIndex#putAll(int[], int)
+     */
+    @Test
+    public void putAll_matchesFullScan() {
+        Map<Integer, Widget> widgets = new HashMap<>();
+        int[] slots = new int[5000];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = allocate(i + 1, widgets);
+        }
+
+        // test
+        index.putAll(slots, slots.length);
+
+        // validate: the packed tree keeps updating
+        assertEquals(slots.length, index.size());
+        for (int slot = 0; slot < slots.length; slot += 3) {
+            index.remove(slot);
+            widgets.remove(slot);
+        }
+        for (long id = 1; id <= 500; id++) {
+            index.put(allocate(slots.length + id, widgets));
+        }
+        assertSearchMatches(widgets);
+    }
+
+    ////////////////////////////////////
+
+    private int allocate(long id, Map<Integer, Widget> widgets) {
+        Widget widget = DataHelper.createWidget(0, random.nextInt(2000) - 1000, random.nextInt(2000) - 1000,
+                getRandomNumber(100), getRandomNumber(100));
+        widget.setId(id);
+        int slot = columns.allocate(widget);
+        widgets.put(slot, widget);
+        return slot;
+    }
+
+    private void assertSearchMatches(Map<Integer, Widget> widgets) {
+        assertEquals(widgets.size(), index.size());
+        assertEquals(widgets.size(), index.count(new Area(new Point(-2000, -2000), new Point(2000, 2000))));
+
+        for (int i = 0; i < 50; i++) {
+            int leftX = random.nextInt(2000) - 1000;
+            int leftY = random.nextInt(2000) - 1000;
+            Area area = new Area(new Point(leftX, leftY), new Point(leftX + getRandomNumber(800), leftY + getRandomNumber(800)));
+
+            Set<Integer> expected = new HashSet<>();
+            widgets.forEach((slot, widget) -> {
+                if (Widget.fitsInArea(widget, area))
+                    expected.add(slot);
+            });
+
+            assertEquals(expected, search(area));
+            assertEquals(expected.size(), index.count(area));
+        }
+    }
+
+    private Set<Integer> search(Area area) {
+        Set<Integer> found = new HashSet<>();
+        index.search(area, found::add);
+        return found;
+    }
+
+}
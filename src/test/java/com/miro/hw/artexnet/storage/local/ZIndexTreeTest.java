@@ -0,0 +1,221 @@
+package com.miro.hw.artexnet.storage.local;
+
+import com.miro.hw.artexnet.BaseTestUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ZIndexTreeTest extends BaseTestUnit {
+
+    private ZIndexTree tree;
+    private int nextSlot;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        tree = new ZIndexTree();
+        nextSlot = 0;
+    }
+
+    @After
+    public void tearDown() { }
+
+    ////////////////////////////////////
+
+    @Test
+    public void emptyTree() {
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.size());
+        assertFalse(tree.iterator(0, ZIndexTreeTest::slot).hasNext());
+    }
+
+    @Test
+    public void insertRemoveAndIterate_matchesSortedMap() {
+        NavigableMap<Integer, Integer> expected = new TreeMap<>(Comparator.reverseOrder());
+        Map<Integer, ZIndexTree.Node> nodes = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            int zIndex = random.nextInt(5000) - 2500;
+            if (expected.containsKey(zIndex)) {
+                expected.remove(zIndex);
+                tree.remove(nodes.remove(zIndex));
+            } else {
+                ZIndexTree.Node node = insert(zIndex);
+                expected.put(zIndex, node.getSlot());
+                nodes.put(zIndex, node);
+            }
+        }
+
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.firstKey().intValue(), tree.maxZIndex());
+        nodes.forEach((zIndex, node) -> {
+            assertEquals(zIndex.intValue(), tree.getZIndex(node));
+            assertEquals(expected.get(zIndex), tree.get(node, ZIndexTreeTest::slot));
+        });
+
+        // iteration from arbitrary ranks follows z-index descending order
+        List<Integer> ordered = new ArrayList<>(expected.values());
+        for (int rank : new int[] { 0, 1, ordered.size() / 2, ordered.size() - 1, ordered.size() }) {
+            List<Integer> iterated = new ArrayList<>();
+            tree.iterator(rank, ZIndexTreeTest::slot).forEachRemaining(iterated::add);
+            assertEquals(ordered.subList(rank, ordered.size()), iterated);
+        }
+    }
+
+    @Test
+    public void rank_matchesIteration() {
+        for (int i = 0; i < 1000; i++) {
+            insert(random.nextInt(300));
+        }
+
+        List<Integer> ordered = new ArrayList<>();
+        tree.iterator(0, (slot, zIndex, dateModified) -> zIndex).forEachRemaining(ordered::add);
+        for (int zIndex = -1; zIndex <= tree.maxZIndex() + 1; zIndex++) {
+            final int bound = zIndex;
+            assertEquals(ordered.stream().filter(z -> z >= bound).count(), tree.rank(zIndex));
+        }
+    }
+
+    @Test
+    public void insert_shiftsContiguousRunOnly() {
+        Map<Integer, ZIndexTree.Node> nodes = new HashMap<>();
+        for (int zIndex : new int[] { 1, 2, 3, 5, 6 }) {
+            nodes.put(zIndex, insert(zIndex));
+        }
+
+        // test
+        ZIndexTree.Node inserted = insert(2);
+
+        // validate
+        assertEquals(6, tree.size());
+        assertEquals(2, tree.getZIndex(inserted));
+        assertEquals(1, tree.getZIndex(nodes.get(1)));
+        assertEquals(3, tree.getZIndex(nodes.get(2)));
+        assertEquals(4, tree.getZIndex(nodes.get(3)));
+        assertEquals(5, tree.getZIndex(nodes.get(5)));
+        assertEquals(6, tree.getZIndex(nodes.get(6)));
+        assertNotEquals(tree.get(nodes.get(1), ZIndexTreeTest::dateModified),
+                tree.get(nodes.get(3), ZIndexTreeTest::dateModified));
+    }
+
+    @Test
+    public void insertWithShiftsAndRemove_matchesEagerShifting() {
+        // reference: z-index by node, shifted eagerly
+        Map<ZIndexTree.Node, Integer> expected = new HashMap<>();
+        List<ZIndexTree.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            if (!nodes.isEmpty() && random.nextInt(4) == 0) {
+                ZIndexTree.Node node = nodes.remove(random.nextInt(nodes.size()));
+                tree.remove(node);
+                expected.remove(node);
+                continue;
+            }
+
+            int zIndex = random.nextInt(200);
+            Set<Integer> occupied = new HashSet<>(expected.values());
+            int runEnd = zIndex;
+            while (occupied.contains(runEnd)) {
+                runEnd++;
+            }
+            final int lastShifted = runEnd;
+            expected.replaceAll((node, z) -> z >= zIndex && z < lastShifted ? z + 1 : z);
+
+            ZIndexTree.Node node = insert(zIndex);
+            nodes.add(node);
+            expected.put(node, zIndex);
+        }
+
+        assertEquals(expected.size(), tree.size());
+        expected.forEach((node, zIndex) -> assertEquals(zIndex.intValue(), tree.getZIndex(node)));
+    }
+
+    @Test
+    public void insert_denseStackShiftedLazily() {
+        final int total = 100_000;
+        List<ZIndexTree.Node> nodes = new ArrayList<>(total);
+        for (int zIndex = 1; zIndex <= total; zIndex++) {
+            nodes.add(insert(zIndex));
+        }
+
+        // test: repeated inserts at the bottom of the dense stack
+        for (int i = 0; i < 1000; i++) {
+            insert(1);
+        }
+
+        // validate
+        assertEquals(total + 1000, tree.size());
+        assertEquals(total + 1000, tree.maxZIndex());
+        assertEquals(1001, tree.getZIndex(nodes.get(0)));
+        assertEquals(total + 1000, tree.getZIndex(nodes.get(total - 1)));
+
+        int expectedZIndex = total + 1000;
+        Iterator<Integer> iterator = tree.iterator(0, (slot, zIndex, dateModified) -> zIndex);
+        while (iterator.hasNext()) {
+            assertEquals(expectedZIndex--, iterator.next().intValue());
+        }
+        assertEquals(0, expectedZIndex);
+    }
+
+    @Test
+    public void build_matchesInserts() {
+        int count = 3000;
+        int[] zIndexes = new int[count];
+        int[] slots = new int[count];
+        LocalDateTime[] dates = new LocalDateTime[count];
+        LocalDateTime dateModified = LocalDateTime.now().minusDays(1);
+        for (int i = 0; i < count; i++) {
+            zIndexes[i] = (i == 0 ? -1000 : zIndexes[i - 1]) + 1 + random.nextInt(3);
+            slots[i] = i;
+            dates[i] = dateModified;
+        }
+
+        // test
+        ZIndexTree.Node[] nodes = tree.build(zIndexes, slots, dates, count);
+
+        // validate
+        assertEquals(count, tree.size());
+        assertEquals(zIndexes[count - 1], tree.maxZIndex());
+        for (int i = 0; i < count; i++) {
+            assertEquals(zIndexes[i], tree.getZIndex(nodes[i]));
+            assertEquals(dateModified, tree.get(nodes[i], ZIndexTreeTest::dateModified));
+            assertEquals(count - i, tree.rank(zIndexes[i]));
+        }
+        List<Integer> iterated = new ArrayList<>();
+        tree.iterator(0, ZIndexTreeTest::slot).forEachRemaining(iterated::add);
+        for (int i = 0; i < count; i++) {
+            assertEquals(count - 1 - i, iterated.get(i).intValue());
+        }
+
+        // the built tree keeps shifting and removing
+        nextSlot = count;
+        ZIndexTree.Node inserted = insert(zIndexes[0]);
+        tree.remove(nodes[count / 2]);
+        assertEquals(count, tree.size());
+        assertEquals(zIndexes[0], tree.getZIndex(inserted));
+        assertEquals(zIndexes[0] + 1, tree.getZIndex(nodes[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_unsorted() {
+        tree.build(new int[] { 1, 3, 2 }, new int[] { 0, 1, 2 }, new LocalDateTime[3], 3);
+    }
+
+    ////////////////////////////////////
+
+    private ZIndexTree.Node insert(int zIndex) {
+        return tree.insert(zIndex, nextSlot++, LocalDateTime.now());
+    }
+
+    private static Integer slot(int slot, int zIndex, LocalDateTime dateModified) {
+        return slot;
+    }
+
+    private static LocalDateTime dateModified(int slot, int zIndex, LocalDateTime dateModified) {
+        return dateModified;
+    }
+
+}